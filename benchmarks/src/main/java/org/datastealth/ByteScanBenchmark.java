@@ -0,0 +1,77 @@
+package org.datastealth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ByteScan} implementations side by side: {@code scalar} is the Java 8 loop, {@code runtime}
+ * whatever {@link ByteScan#get()} picks (the Vector API scanner on JDK 17+, hence the fork flag).
+ * Setup fails if the two disagree on any fixture, so a run also checks that results are identical.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ByteScanBenchmark {
+
+    @Param({"scalar", "runtime"})
+    public String impl;
+
+    private ByteScan scan;
+    private Fixtures fx;
+    private byte[][] noise;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        scan = impl.equals("scalar") ? ByteScan.scalar() : ByteScan.get();
+        fx = new Fixtures(42);
+        // values with no text UUID at all: the common case the run scan lets the regexes skip
+        Random rnd = new Random(11);
+        noise = new byte[Fixtures.SIZE][];
+        for (int i = 0; i < Fixtures.SIZE; i++) {
+            noise[i] = new byte[64 + rnd.nextInt(448)];
+            rnd.nextBytes(noise[i]);
+        }
+
+        ByteScan reference = ByteScan.scalar();
+        for (byte[][] set : new byte[][][]{fx.keys, fx.values, noise}) {
+            for (byte[] b : set) {
+                if (!scan.utf8WithoutNul(b).equals(reference.utf8WithoutNul(b))
+                        || !Arrays.equals(scan.hexRuns(b, 32), reference.hexRuns(b, 32))
+                        || !Arrays.equals(scan.hexRuns(b, 36), reference.hexRuns(b, 36))) {
+                    throw new IllegalStateException(scan.name() + " differs from scalar on " + Arrays.toString(b));
+                }
+            }
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (Fixtures.SIZE - 1);
+    }
+
+    @Benchmark
+    public String utf8WithoutNul() {
+        return scan.utf8WithoutNul(fx.keys[next()]);
+    }
+
+    @Benchmark
+    public int[] hexRunsKey() {
+        return scan.hexRuns(fx.keys[next()], 36);
+    }
+
+    @Benchmark
+    public int[] hexRunsValue() {
+        return scan.hexRuns(fx.values[next()], 32);
+    }
+
+    @Benchmark
+    public int[] hexRunsNoise() {
+        return scan.hexRuns(noise[next()], 32);
+    }
+}
@@ -0,0 +1,71 @@
+package org.datastealth;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Deterministic index keys/values shaped like production records: NUL-separated key with the
+ * index prefix and a dashed UUID, and a binary value carrying the cabinet UUID as 16 raw bytes
+ * plus a dashed copy inside string fields. Everything is AES-CBC encrypted with the same
+ * SHA-384-derived per-device key/IV the tools use.
+ */
+final class Fixtures {
+
+    static final String DEVICE_UUID = "4E85DCEB-5BBF-5BF6-9B92-54EFEBF98724";
+    static final int SIZE = 1024; // power of two, indexed with a mask
+
+    final RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto;
+    final byte[][] encryptedKeys = new byte[SIZE][];
+    final byte[][] encryptedValues = new byte[SIZE][];
+    final byte[][] keys = new byte[SIZE][];
+    final byte[][] values = new byte[SIZE][];
+    final String[] keyStrings = new String[SIZE];
+    final byte[][] uuidWindows = new byte[SIZE][];
+
+    Fixtures(long seed) throws Exception {
+        crypto = RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(DEVICE_UUID);
+        Random rnd = new Random(seed);
+        for (int i = 0; i < SIZE; i++) {
+            UUID indexed = new UUID(rnd.nextLong(), rnd.nextLong());
+            UUID cabinet = new UUID(rnd.nextLong(), rnd.nextLong());
+
+            String key = "dbidxEntry\u0000" + field(rnd) + "\u0000" + indexed + "\u0000" + (rnd.nextInt(3) == 0 ? "\"quoted\"" : "v" + i);
+            keys[i] = key.getBytes(StandardCharsets.UTF_8);
+            keyStrings[i] = key.replace("\u0000", "");
+
+            values[i] = value(rnd, cabinet);
+            uuidWindows[i] = ByteBuffer.allocate(16).putLong(cabinet.getMostSignificantBits()).putLong(cabinet.getLeastSignificantBits()).array();
+
+            encryptedKeys[i] = encrypt(keys[i]);
+            encryptedValues[i] = encrypt(values[i]);
+        }
+    }
+
+    private static String field(Random rnd) {
+        String[] fields = {"email", "phone", "account_no", "ssn", "customer_ref"};
+        return fields[rnd.nextInt(fields.length)];
+    }
+
+    private static byte[] value(Random rnd, UUID cabinet) {
+        int padding = 64 + rnd.nextInt(384);
+        ByteBuffer bb = ByteBuffer.allocate(64 + 36 + padding);
+        bb.put((byte) 0x0B).put((byte) 0).put((byte) 1);
+        bb.putLong(cabinet.getMostSignificantBits()).putLong(cabinet.getLeastSignificantBits());
+        bb.put(cabinet.toString().getBytes(StandardCharsets.US_ASCII));
+        byte[] filler = new byte[padding];
+        rnd.nextBytes(filler);
+        bb.put(filler);
+        return bb.array();
+    }
+
+    private byte[] encrypt(byte[] plain) throws Exception {
+        Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(crypto.key, "AES"), new IvParameterSpec(crypto.iv));
+        return c.doFinal(plain);
+    }
+}
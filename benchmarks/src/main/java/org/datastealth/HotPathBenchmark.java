@@ -0,0 +1,99 @@
+package org.datastealth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record primitives of the orphan exporter and the UUID counter, one record per invocation.
+ * Run with {@code -prof gc} to see allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HotPathBenchmark {
+
+    private Fixtures fx;
+    private int cursor;
+    private CsvSink sink;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fx = new Fixtures(42);
+        sink = new CsvSink(new File("/dev/null"), 0, 1 << 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sink.close();
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (Fixtures.SIZE - 1);
+    }
+
+    @Benchmark
+    public byte[] decryptKey() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(fx.encryptedKeys[next()], fx.crypto);
+    }
+
+    @Benchmark
+    public byte[] decryptValue() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(fx.encryptedValues[next()], fx.crypto);
+    }
+
+    @Benchmark
+    public String safeUtf8() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.safeUtf8(fx.keys[next()]);
+    }
+
+    @Benchmark
+    public String extractUuid() {
+        return RocksDbIndexUuidCounterHuge.extractUuid(fx.keyStrings[next()]);
+    }
+
+    /** The key-side UUID lookup the counter uses now: regex on the hex run only. */
+    @Benchmark
+    public String extractUuidFromKey() {
+        return RocksDbIndexUuidCounterHuge.extractUuid(fx.keys[next()]);
+    }
+
+    /** Text half of the window decoder; compare with {@link #extractUuidsFromString}. */
+    @Benchmark
+    public Set<String> extractUuidsFromText() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.extractUuidsFromText(fx.values[next()]);
+    }
+
+    @Benchmark
+    public Set<String> extractUuidsFromString() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.extractUuidsFromString(
+                RocksDbFinalExporterOneCSVWithPropertiesFile.safeUtf8(fx.values[next()]));
+    }
+
+    @Benchmark
+    public Set<String> extractUuidsFromBytes() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.extractUuidsFromBytes(fx.values[next()]);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.bytesToHex(fx.uuidWindows[next()]);
+    }
+
+    @Benchmark
+    public String csv() {
+        return RocksDbFinalExporterOneCSVWithPropertiesFile.csv(fx.keyStrings[next()]);
+    }
+
+    /** One orphan row through CsvSink; compare with five {@link #csv} calls plus concatenation. */
+    @Benchmark
+    public CsvSink csvSinkRow() throws Exception {
+        return sink.quoted("index").quoted("index_0").quoted(fx.keyStrings[next()])
+                .quoted("false").quoted("").endRow();
+    }
+}
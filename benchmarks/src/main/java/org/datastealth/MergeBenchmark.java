@@ -0,0 +1,76 @@
+package org.datastealth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phase 3 of the UUID counter: k-way merge of sorted chunk files into the counts CSV. Chunks are
+ * written once per trial; duplicates are skewed so a few UUIDs repeat many times per index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+
+    @Param({"4", "32"})
+    public int chunkCount;
+
+    @Param({"50000"})
+    public int linesPerChunk;
+
+    private File dir;
+    private List<File> chunks;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("merge-bench").toFile();
+        output = new File(dir, "index_uuid_counts.csv");
+        chunks = new ArrayList<>();
+
+        Random rnd = new Random(7);
+        List<String> hot = new ArrayList<>();
+        for (int i = 0; i < 256; i++) hot.add(new UUID(rnd.nextLong(), rnd.nextLong()).toString());
+
+        for (int c = 0; c < chunkCount; c++) {
+            List<String> lines = new ArrayList<>(linesPerChunk);
+            for (int i = 0; i < linesPerChunk; i++) {
+                String index = "index_" + rnd.nextInt(16);
+                String uuid = rnd.nextInt(4) == 0
+                        ? hot.get(rnd.nextInt(hot.size()))
+                        : new UUID(rnd.nextLong(), rnd.nextLong()).toString();
+                lines.add(index + "|" + uuid);
+            }
+            Collections.sort(lines);
+            File chunk = new File(dir, "chunk_" + c + ".tmp");
+            try (BufferedWriter w = new BufferedWriter(new FileWriter(chunk))) {
+                for (String s : lines) {
+                    w.write(s);
+                    w.newLine();
+                }
+            }
+            chunks.add(chunk);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File f : Objects.requireNonNull(dir.listFiles())) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public long mergeAndCount() throws Exception {
+        RocksDbIndexUuidCounterHuge.mergeAndCount(chunks, output);
+        return output.length();
+    }
+}
@@ -0,0 +1,99 @@
+package org.datastealth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The byte-classification loops of the hot path: dropping NUL bytes before decoding ({@code safeUtf8})
+ * and finding the runs of hex digits and dashes in a decrypted buffer that are long enough to hold a
+ * UUID, so the UUID regexes only see those runs instead of the whole decoded buffer.
+ *
+ * <p>This is the scalar implementation. The jar is multi-release: on Java 17+ started with
+ * {@code --add-modules jdk.incubator.vector}, {@link #get()} returns a Vector API subclass from
+ * {@code META-INF/versions/17} that gives identical results.
+ */
+class ByteScan {
+
+    static final int[] NO_RUNS = new int[0];
+
+    /** Hex digit or dash: the characters of {@code [0-9a-fA-F\-]}. */
+    private static final boolean[] HEX_OR_DASH = new boolean[256];
+    static {
+        for (char c = '0'; c <= '9'; c++) HEX_OR_DASH[c] = true;
+        for (char c = 'a'; c <= 'f'; c++) HEX_OR_DASH[c] = true;
+        for (char c = 'A'; c <= 'F'; c++) HEX_OR_DASH[c] = true;
+        HEX_OR_DASH['-'] = true;
+    }
+
+    // a holder, so initialising the Vector subclass first cannot see this class half-initialised
+    private static final class Holder {
+        static final ByteScan INSTANCE = ByteScanProvider.create();
+    }
+
+    static ByteScan get() {
+        return Holder.INSTANCE;
+    }
+
+    /** The scalar implementation, whatever the runtime offers; for benchmarks and comparisons. */
+    static ByteScan scalar() {
+        return new ByteScan();
+    }
+
+    String name() {
+        return "scalar";
+    }
+
+    /** {@code b} decoded as UTF-8 with every NUL byte removed. */
+    String utf8WithoutNul(byte[] b) {
+        int nuls = 0;
+        for (byte value : b) if (value == 0) nuls++;
+        if (nuls == 0) return new String(b, StandardCharsets.UTF_8);
+        byte[] cleaned = new byte[b.length - nuls];
+        int j = 0;
+        for (byte value : b) if (value != 0) cleaned[j++] = value;
+        return new String(cleaned, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maximal runs of hex digits and dashes holding at least {@code minLen} of them, as
+     * {@code [start0, end0, start1, end1, ...]} byte offsets. NUL bytes neither count nor end a run,
+     * the same as in {@code safeUtf8} text; any other byte ends it. Returns {@link #NO_RUNS} if none.
+     */
+    int[] hexRuns(byte[] b, int minLen) {
+        int[] runs = NO_RUNS;
+        int n = 0;
+        int start = 0;
+        int count = 0;
+        for (int i = 0; i <= b.length; i++) {
+            int c = i < b.length ? b[i] & 0xff : -1;
+            if (c == 0) continue;
+            if (c > 0 && HEX_OR_DASH[c]) {
+                count++;
+                continue;
+            }
+            if (count >= minLen) {
+                if (n == runs.length) runs = Arrays.copyOf(runs, Math.max(4, n * 2));
+                runs[n++] = start;
+                runs[n++] = i;
+            }
+            start = i + 1;
+            count = 0;
+        }
+        return n == runs.length ? runs : Arrays.copyOf(runs, n);
+    }
+
+    /** Hex digits and dashes in {@code b[from, to)}, i.e. the run's length without NULs. */
+    static int countHexOrDash(byte[] b, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) if (HEX_OR_DASH[b[i] & 0xff]) count++;
+        return count;
+    }
+
+    /** The text of a run from {@link #hexRuns}, NULs dropped; every other byte in it is ASCII. */
+    static String runText(byte[] b, int from, int to) {
+        char[] chars = new char[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) if (b[i] != 0) chars[n++] = (char) b[i];
+        return new String(chars, 0, n);
+    }
+}
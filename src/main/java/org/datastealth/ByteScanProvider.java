@@ -0,0 +1,15 @@
+package org.datastealth;
+
+/**
+ * Picks the {@link ByteScan} implementation. This is the Java 8 version; the multi-release jar
+ * carries a Java 17 version that tries the Vector API first.
+ */
+final class ByteScanProvider {
+
+    private ByteScanProvider() {
+    }
+
+    static ByteScan create() {
+        return new ByteScan();
+    }
+}
@@ -0,0 +1,316 @@
+package org.datastealth;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Cabinet IDs from the cabinet scan, kept as sorted {@code (msb, lsb)} long pairs (16 bytes per ID
+ * instead of a {@code HashSet<String>} entry) plus a {@link BitSet} of IDs that some index value
+ * referenced. Lookups are binary searches; {@link #mark} both answers the orphan question for an
+ * index and records the reference, so unreferenced ("dangling") cabinets fall out of the same pass.
+ *
+ * <p>Keys that match the cabinet pattern but are not canonical {@code 8-4-4-4-12} UUIDs are rare and
+ * kept as strings on the side so lookups behave exactly like the old string set.
+ *
+ * <p>A set can also be backed by a memory-mapped {@link CabinetSnapshot}; then only the fences, the
+ * referenced bits and the irregular IDs live on the heap.
+ */
+public class CabinetIdSet {
+
+    private long[] msb = new long[1024];
+    private long[] lsb = new long[1024];
+    private int[] folderOf = new int[1024];
+    private int size;
+    private boolean sealed;
+    private BitSet referenced;
+    private CabinetSnapshot snapshot;
+
+    private final List<String> folders = new ArrayList<>();
+    private final Map<String, Integer> folderIds = new HashMap<>();
+    private final Map<String, Integer> irregular = new TreeMap<>();
+    private final Set<String> irregularReferenced = new HashSet<>();
+
+    public CabinetIdSet() {
+    }
+
+    /** A sealed set over a mapped snapshot. */
+    CabinetIdSet(CabinetSnapshot snapshot) {
+        this.snapshot = snapshot;
+        msb = lsb = null;
+        folderOf = null;
+        size = snapshot.count();
+        for (String f : snapshot.folders()) {
+            folderIds.put(f, folders.size());
+            folders.add(f);
+        }
+        irregular.putAll(snapshot.irregular());
+        referenced = new BitSet(size);
+        sealed = true;
+    }
+
+    /** Adds a (lower-case) cabinet ID found in {@code folder}; the first folder seen wins on duplicates. */
+    public void add(String id, String folder) {
+        if (sealed) throw new IllegalStateException("set is sealed");
+        Integer f = folderIds.get(folder);
+        if (f == null) {
+            f = folders.size();
+            folders.add(folder);
+            folderIds.put(folder, f);
+        }
+        if (!isCanonical(id)) {
+            irregular.putIfAbsent(id, f);
+            return;
+        }
+        append(msb(id), lsb(id), f);
+    }
+
+    /** Adds an already-parsed canonical ID. */
+    void add(long idMsb, long idLsb, String folder) {
+        if (sealed) throw new IllegalStateException("set is sealed");
+        Integer f = folderIds.get(folder);
+        if (f == null) {
+            f = folders.size();
+            folders.add(folder);
+            folderIds.put(folder, f);
+        }
+        append(idMsb, idLsb, f);
+    }
+
+    private void append(long idMsb, long idLsb, int f) {
+        if (size == msb.length) {
+            msb = Arrays.copyOf(msb, size * 2);
+            lsb = Arrays.copyOf(lsb, size * 2);
+            folderOf = Arrays.copyOf(folderOf, size * 2);
+        }
+        msb[size] = idMsb;
+        lsb[size] = idLsb;
+        folderOf[size] = f;
+        size++;
+    }
+
+    /** Sorts and de-duplicates; call once after loading and before any lookup. */
+    public CabinetIdSet seal() {
+        if (sealed) return this;
+        sort(0, size - 1);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            // equal IDs are adjacent with the lowest folder first
+            if (n > 0 && msb[n - 1] == msb[i] && lsb[n - 1] == lsb[i]) continue;
+            msb[n] = msb[i];
+            lsb[n] = lsb[i];
+            folderOf[n] = folderOf[i];
+            n++;
+        }
+        size = n;
+        msb = Arrays.copyOf(msb, n);
+        lsb = Arrays.copyOf(lsb, n);
+        folderOf = Arrays.copyOf(folderOf, n);
+        referenced = new BitSet(n);
+        sealed = true;
+        return this;
+    }
+
+    public int size() {
+        return size + irregular.size();
+    }
+
+    public boolean contains(String id) {
+        return find(id) != Integer.MIN_VALUE;
+    }
+
+    /** Returns whether {@code id} (any case) is a cabinet and, if so, records it as referenced. */
+    public boolean mark(String id) {
+        int i = find(id);
+        if (i == Integer.MIN_VALUE) return false;
+        if (i >= 0) referenced.set(i);
+        else irregularReferenced.add(id.toLowerCase());
+        return true;
+    }
+
+    /** {@link #mark(String)} for a canonical ID already split into its halves. */
+    boolean mark(long idMsb, long idLsb) {
+        if (!sealed) throw new IllegalStateException("seal() before lookups");
+        int i = find(idMsb, idLsb);
+        if (i == Integer.MIN_VALUE) return false;
+        referenced.set(i);
+        return true;
+    }
+
+    /** Folder the cabinet was loaded from, or null if {@code id} is not a cabinet. */
+    public String folderOf(String id) {
+        int i = find(id);
+        if (i == Integer.MIN_VALUE) return null;
+        return folders.get(i >= 0 ? folderAt(i) : irregular.get(id.toLowerCase()));
+    }
+
+    public int referencedCount() {
+        return referenced.cardinality() + irregularReferenced.size();
+    }
+
+    public interface EntryConsumer {
+        void accept(String id, String folder) throws IOException;
+    }
+
+    /** Visits unreferenced cabinet IDs in ascending (string) order. */
+    public void forEachUnreferenced(EntryConsumer consumer) throws IOException {
+        Iterator<Map.Entry<String, Integer>> odd = irregular.entrySet().iterator();
+        Map.Entry<String, Integer> nextOdd = nextUnreferenced(odd);
+        for (int i = referenced.nextClearBit(0); i < size; i = referenced.nextClearBit(i + 1)) {
+            String id = new UUID(msbAt(i), lsbAt(i)).toString();
+            // unsigned (msb, lsb) order is the order of the lower-case hex strings
+            while (nextOdd != null && nextOdd.getKey().compareTo(id) < 0) {
+                consumer.accept(nextOdd.getKey(), folders.get(nextOdd.getValue()));
+                nextOdd = nextUnreferenced(odd);
+            }
+            consumer.accept(id, folders.get(folderAt(i)));
+        }
+        for (; nextOdd != null; nextOdd = nextUnreferenced(odd)) {
+            consumer.accept(nextOdd.getKey(), folders.get(nextOdd.getValue()));
+        }
+    }
+
+    private Map.Entry<String, Integer> nextUnreferenced(Iterator<Map.Entry<String, Integer>> it) {
+        while (it.hasNext()) {
+            Map.Entry<String, Integer> e = it.next();
+            if (!irregularReferenced.contains(e.getKey())) return e;
+        }
+        return null;
+    }
+
+    // ================= LOOKUP =================
+    /**
+     * Index into the sorted arrays, {@code -1} for an irregular hit, {@code MIN_VALUE} for a miss.
+     * Positions are stable for the lifetime of a sealed set.
+     */
+    int find(String id) {
+        if (!sealed) throw new IllegalStateException("seal() before lookups");
+        if (!isCanonical(id)) {
+            return !irregular.isEmpty() && irregular.containsKey(id.toLowerCase()) ? -1 : Integer.MIN_VALUE;
+        }
+        return find(msb(id), lsb(id));
+    }
+
+    /** {@link #find(String)} for a canonical ID already split into its halves; positions ascend with the ID. */
+    int find(long m, long l) {
+        int lo = 0, hi = size - 1;
+        if (snapshot != null) {
+            // fences narrow the search to one block, so a lookup touches one or two mapped pages
+            int b = snapshot.block(m, l);
+            if (b < 0) return Integer.MIN_VALUE;
+            lo = b * CabinetSnapshot.FENCE_INTERVAL;
+            hi = Math.min(size - 1, lo + CabinetSnapshot.FENCE_INTERVAL - 1);
+        }
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(msbAt(mid), lsbAt(mid), m, l);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /** Number of canonical IDs, addressable by position. */
+    int records() {
+        return size;
+    }
+
+    long msbAt(int i) {
+        return snapshot == null ? msb[i] : snapshot.msb(i);
+    }
+
+    long lsbAt(int i) {
+        return snapshot == null ? lsb[i] : snapshot.lsb(i);
+    }
+
+    int folderAt(int i) {
+        return snapshot == null ? folderOf[i] : snapshot.folder(i);
+    }
+
+    List<String> folders() {
+        return Collections.unmodifiableList(folders);
+    }
+
+    Map<String, Integer> irregularIds() {
+        return Collections.unmodifiableMap(irregular);
+    }
+
+    private static int compare(long m1, long l1, long m2, long l2) {
+        int c = Long.compareUnsigned(m1, m2);
+        return c != 0 ? c : Long.compareUnsigned(l1, l2);
+    }
+
+    static boolean isCanonical(String s) {
+        if (s.length() != 36) return false;
+        for (int i = 0; i < 36; i++) {
+            char ch = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (ch != '-') return false;
+            } else if (digit(ch) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** High 64 bits of a canonical ID (see {@link #isCanonical}). */
+    static long msb(String id) {
+        return hex(id, 0, 8) << 32 | hex(id, 9, 13) << 16 | hex(id, 14, 18);
+    }
+
+    static long lsb(String id) {
+        return hex(id, 19, 23) << 48 | hex(id, 24, 36);
+    }
+
+    private static long hex(String s, int from, int to) {
+        long v = 0;
+        for (int i = from; i < to; i++) v = v << 4 | digit(s.charAt(i));
+        return v;
+    }
+
+    /** ASCII-only, like the {@code [0-9a-fA-F]} patterns that produce the candidates. */
+    private static int digit(char ch) {
+        if (ch >= '0' && ch <= '9') return ch - '0';
+        if (ch >= 'a' && ch <= 'f') return ch - 'a' + 10;
+        if (ch >= 'A' && ch <= 'F') return ch - 'A' + 10;
+        return -1;
+    }
+
+    // ================= SORT =================
+    /** Quicksort of the parallel arrays by (msb, lsb, folder). */
+    private void sort(int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            long pm = msb[mid], pl = lsb[mid];
+            int pf = folderOf[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (cmp(i, pm, pl, pf) < 0) i++;
+                while (cmp(j, pm, pl, pf) > 0) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            // recurse into the smaller half to bound stack depth
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && cmp(j - 1, msb[j], lsb[j], folderOf[j]) > 0; j--) swap(j - 1, j);
+        }
+    }
+
+    private int cmp(int i, long m, long l, int f) {
+        int c = compare(msb[i], lsb[i], m, l);
+        return c != 0 ? c : Integer.compare(folderOf[i], f);
+    }
+
+    private void swap(int a, int b) {
+        long t = msb[a]; msb[a] = msb[b]; msb[b] = t;
+        t = lsb[a]; lsb[a] = lsb[b]; lsb[b] = t;
+        int f = folderOf[a]; folderOf[a] = folderOf[b]; folderOf[b] = f;
+    }
+}
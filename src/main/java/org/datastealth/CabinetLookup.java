@@ -0,0 +1,149 @@
+package org.datastealth;
+
+import org.rocksdb.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Answers "is this a cabinet?" with point reads instead of loading the cabinet set. Cabinet keys are
+ * the UUID text encrypted with the shard's device key and a fixed IV, so the candidate can be
+ * encrypted the same way and looked up with {@code get} in every cabinet shard. Both the lower- and
+ * upper-case text are tried; keys stored in any other casing, or padded with NULs, are not found,
+ * although a scan accepts them. {@link #inexactKey} samples the shards for such keys, so callers can
+ * fall back to a scan before lookups change the result.
+ *
+ * <p>Keeps every cabinet shard open for its lifetime; not thread-safe. Every key probed is counted in
+ * {@link #probes()}, so callers can weigh the lookups against loading the whole set.
+ */
+public class CabinetLookup implements AutoCloseable {
+
+    private static final class Shard {
+        final File dir;
+        final RocksDB db;
+        final RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto;
+        final Cipher cipher;
+
+        Shard(File dir, RocksDB db, RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto, Cipher cipher) {
+            this.dir = dir;
+            this.db = db;
+            this.crypto = crypto;
+            this.cipher = cipher;
+        }
+    }
+
+    private final Options options;
+    private final boolean ownsOptions;
+    private final List<Shard> shards = new ArrayList<>();
+    private long probes;
+
+    public CabinetLookup(List<File> cabinetShards) throws Exception {
+        this(cabinetShards, null);
+    }
+
+    /** Opens the shards with {@code options} (e.g. {@link ShardHandleManager#options()} to share its block cache), or private ones if null. */
+    public CabinetLookup(List<File> cabinetShards, Options options) throws Exception {
+        RocksDB.loadLibrary();
+        this.ownsOptions = options == null;
+        this.options = options != null ? options : new Options();
+        try {
+            for (File shard : cabinetShards) {
+                RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto =
+                        RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(shard.getName());
+                Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(crypto.key, "AES"), new IvParameterSpec(crypto.iv));
+                shards.add(new Shard(shard, RocksDB.openReadOnly(this.options, shard.getAbsolutePath()), crypto, c));
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /** Keys probed per candidate in the worst case: both casings in every shard. */
+    public int probesPerCandidate() {
+        return 2 * shards.size();
+    }
+
+    /** Keys probed so far. */
+    public long probes() {
+        return probes;
+    }
+
+    /** Sum of RocksDB's {@code estimate-num-keys} over all shards. */
+    public long estimatedKeys() throws RocksDBException {
+        long keys = 0;
+        for (Shard s : shards) keys += s.db.getLongProperty("rocksdb.estimate-num-keys");
+        return keys;
+    }
+
+    /**
+     * Reads the first {@code keysPerShard} keys of every shard and returns why the first cabinet key
+     * that lookups could not find (NUL bytes, mixed case) is unreachable, or null if every sampled
+     * cabinet key is stored as exact lower- or upper-case text. Keys that are not cabinet IDs are ignored.
+     */
+    public String inexactKey(int keysPerShard) {
+        for (Shard s : shards) {
+            try (RocksIterator it = s.db.newIterator()) {
+                int n = 0;
+                for (it.seekToFirst(); it.isValid() && n < keysPerShard; it.next(), n++) {
+                    byte[] plain = RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(it.key(), s.crypto);
+                    String uuid = RocksDbFinalExporterOneCSVWithPropertiesFile.bytesToUuidIfPossible(plain);
+                    if (uuid == null) continue;
+                    if (uuid.length() != plain.length) return "NUL-padded cabinet key " + uuid + " in " + s.dir.getName();
+                    if (!uuid.equals(uuid.toLowerCase()) && !uuid.equals(uuid.toUpperCase())) {
+                        return "mixed-case cabinet key " + uuid + " in " + s.dir.getName();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String uuid) throws Exception {
+        String lower = uuid.toLowerCase();
+        String upper = uuid.toUpperCase();
+        for (Shard s : shards) {
+            // doFinal resets the cipher to its initial IV, so one instance serves every lookup
+            probes += 2;
+            if (s.db.get(s.cipher.doFinal(lower.getBytes(StandardCharsets.US_ASCII))) != null) return true;
+            if (s.db.get(s.cipher.doFinal(upper.getBytes(StandardCharsets.US_ASCII))) != null) return true;
+        }
+        return false;
+    }
+
+    /** Whether any of {@code uuids} is a cabinet; one {@code multiGet} per shard until a shard has a hit. */
+    public boolean containsAny(Collection<String> uuids) throws Exception {
+        if (uuids.isEmpty()) return false;
+        for (Shard s : shards) {
+            List<byte[]> keys = new ArrayList<>(2 * uuids.size());
+            for (String uuid : uuids) {
+                String lower = uuid.toLowerCase();
+                String upper = uuid.toUpperCase();
+                keys.add(s.cipher.doFinal(lower.getBytes(StandardCharsets.US_ASCII)));
+                if (!upper.equals(lower)) keys.add(s.cipher.doFinal(upper.getBytes(StandardCharsets.US_ASCII)));
+            }
+            probes += keys.size();
+            // the map only holds keys that were found
+            if (!s.db.multiGet(keys).isEmpty()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        for (Shard s : shards) s.db.close();
+        shards.clear();
+        if (ownsOptions) options.close();
+    }
+}
@@ -0,0 +1,266 @@
+package org.datastealth;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * On-disk, memory-mapped form of a sealed {@link CabinetIdSet}, so a run whose cabinet shards have
+ * not changed can skip the cabinet scan entirely.
+ *
+ * <pre>
+ * "CABSNAP1"  count:long
+ * count x (msb:long lsb:long folder:int)      sorted by unsigned (msb, lsb), unique
+ * ceil(count / FENCE_INTERVAL) x (msb lsb)    first record of every block
+ * trailer: fenceInterval, folders, sources (shard key + {@link ShardFingerprint}), irregular IDs
+ * </pre>
+ *
+ * Only the fences (16 bytes per 256 records) and the trailer are read onto the heap; a lookup
+ * binary-searches the fences and then a single block of the mapping. The same format holds the
+ * per-shard runs that are merged into the combined snapshot, so only changed shards are rescanned.
+ */
+final class CabinetSnapshot {
+
+    static final int FENCE_INTERVAL = 256;
+    private static final byte[] MAGIC = "CABSNAP1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 20;
+    // records per mapping, keeping every mapping under the 2 GB ByteBuffer limit
+    private static final int CHUNK_BITS = 26;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final int count;
+    private final ByteBuffer[] chunks;
+    private final long[] fenceMsb;
+    private final long[] fenceLsb;
+    private final List<String> folders = new ArrayList<>();
+    private final List<String> sourceKeys = new ArrayList<>();
+    private final List<Long> sourceFingerprints = new ArrayList<>();
+    private final Map<String, Integer> irregular = new TreeMap<>();
+
+    private CabinetSnapshot(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a cabinet snapshot: " + file);
+            long n = raf.readLong();
+            if (n < 0 || n > Integer.MAX_VALUE) throw new IOException("bad record count " + n + " in " + file);
+            count = (int) n;
+            int fences = (count + FENCE_INTERVAL - 1) / FENCE_INTERVAL;
+            long fenceOffset = HEADER_BYTES + (long) count * RECORD_BYTES;
+            long trailerOffset = fenceOffset + 16L * fences;
+            if (raf.length() < trailerOffset) throw new IOException("truncated cabinet snapshot: " + file);
+
+            chunks = new ByteBuffer[(count + CHUNK_MASK) >>> CHUNK_BITS];
+            for (int c = 0; c < chunks.length; c++) {
+                long first = (long) c << CHUNK_BITS;
+                long records = Math.min(count - first, 1L << CHUNK_BITS);
+                chunks[c] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * RECORD_BYTES, records * RECORD_BYTES);
+            }
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch.position(fenceOffset)), 1 << 16));
+            fenceMsb = new long[fences];
+            fenceLsb = new long[fences];
+            for (int i = 0; i < fences; i++) {
+                fenceMsb[i] = in.readLong();
+                fenceLsb[i] = in.readLong();
+            }
+            if (in.readInt() != FENCE_INTERVAL) throw new IOException("unsupported fence interval in " + file);
+            for (int i = in.readInt(); i > 0; i--) folders.add(in.readUTF());
+            for (int i = in.readInt(); i > 0; i--) {
+                sourceKeys.add(in.readUTF());
+                sourceFingerprints.add(in.readLong());
+            }
+            for (int i = in.readInt(); i > 0; i--) irregular.put(in.readUTF(), in.readInt());
+        }
+    }
+
+    /** Maps {@code file}, or returns null (with a warning if it exists but is unreadable). */
+    static CabinetSnapshot open(File file) {
+        if (!file.isFile()) return null;
+        try {
+            return new CabinetSnapshot(file);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable cabinet snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /** True if the snapshot was built from exactly these shards, in this order, at these fingerprints. */
+    boolean covers(List<String> keys, List<Long> fingerprints) {
+        return sourceKeys.equals(keys) && sourceFingerprints.equals(fingerprints);
+    }
+
+    int count() { return count; }
+
+    List<String> folders() { return folders; }
+
+    Map<String, Integer> irregular() { return irregular; }
+
+    long msb(int i) { return chunks[i >>> CHUNK_BITS].getLong((i & CHUNK_MASK) * RECORD_BYTES); }
+
+    long lsb(int i) { return chunks[i >>> CHUNK_BITS].getLong((i & CHUNK_MASK) * RECORD_BYTES + 8); }
+
+    int folder(int i) { return chunks[i >>> CHUNK_BITS].getInt((i & CHUNK_MASK) * RECORD_BYTES + 16); }
+
+    /** Index of the block that would hold {@code (m, l)}, or -1 if it sorts before every record. */
+    int block(long m, long l) {
+        int lo = 0, hi = fenceMsb.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = Long.compareUnsigned(fenceMsb[mid], m);
+            if (c == 0) c = Long.compareUnsigned(fenceLsb[mid], l);
+            if (c <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // ================= WRITE =================
+    /**
+     * Streams ascending, unique records to a temporary file next to {@code target} and renames it into
+     * place on {@link #finish}, so readers (including other workers mapping the old file) never see a
+     * partial snapshot.
+     */
+    static final class Writer implements Closeable {
+        private final File target;
+        private final File tmp;
+        private final DataOutputStream out;
+        private long count;
+        private long[] fences = new long[64];
+        private int fenceCount;
+        private boolean finished;
+
+        Writer(File target) throws IOException {
+            this.target = target;
+            File dir = target.getAbsoluteFile().getParentFile();
+            Files.createDirectories(dir.toPath());
+            tmp = File.createTempFile(target.getName() + ".", ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            out.write(MAGIC);
+            out.writeLong(0);
+        }
+
+        void add(long msb, long lsb, int folder) throws IOException {
+            if (count % FENCE_INTERVAL == 0) {
+                if (fenceCount * 2 == fences.length) fences = Arrays.copyOf(fences, fences.length * 2);
+                fences[fenceCount * 2] = msb;
+                fences[fenceCount * 2 + 1] = lsb;
+                fenceCount++;
+            }
+            out.writeLong(msb);
+            out.writeLong(lsb);
+            out.writeInt(folder);
+            count++;
+        }
+
+        void finish(List<String> folders, Map<String, Integer> irregular,
+                    List<String> sourceKeys, List<Long> sourceFingerprints) throws IOException {
+            for (int i = 0; i < fenceCount * 2; i++) out.writeLong(fences[i]);
+            out.writeInt(FENCE_INTERVAL);
+            out.writeInt(folders.size());
+            for (String f : folders) out.writeUTF(f);
+            out.writeInt(sourceKeys.size());
+            for (int i = 0; i < sourceKeys.size(); i++) {
+                out.writeUTF(sourceKeys.get(i));
+                out.writeLong(sourceFingerprints.get(i));
+            }
+            out.writeInt(irregular.size());
+            for (Map.Entry<String, Integer> e : irregular.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                raf.seek(MAGIC.length);
+                raf.writeLong(count);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) return;
+            out.close();
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /** Writes a sealed set built from a single shard. */
+    static void write(File target, CabinetIdSet set, String sourceKey, long fingerprint) throws IOException {
+        try (Writer w = new Writer(target)) {
+            for (int i = 0; i < set.records(); i++) w.add(set.msbAt(i), set.lsbAt(i), set.folderAt(i));
+            w.finish(set.folders(), set.irregularIds(),
+                    Collections.singletonList(sourceKey), Collections.singletonList(fingerprint));
+        }
+    }
+
+    /**
+     * K-way merges per-shard runs (given in scan order) into one snapshot. An ID present in several
+     * runs keeps the earliest folder, as a full scan in the same order would.
+     */
+    static void merge(List<CabinetSnapshot> runs, File target, List<String> sourceKeys, List<Long> sourceFingerprints)
+            throws IOException {
+        List<String> folders = new ArrayList<>();
+        Map<String, Integer> folderIds = new HashMap<>();
+        int[][] folderMap = new int[runs.size()][];
+        Map<String, Integer> irregular = new TreeMap<>();
+        for (int r = 0; r < runs.size(); r++) {
+            CabinetSnapshot run = runs.get(r);
+            folderMap[r] = new int[run.folders.size()];
+            for (int f = 0; f < run.folders.size(); f++) {
+                Integer id = folderIds.get(run.folders.get(f));
+                if (id == null) {
+                    id = folders.size();
+                    folders.add(run.folders.get(f));
+                    folderIds.put(run.folders.get(f), id);
+                }
+                folderMap[r][f] = id;
+            }
+            for (Map.Entry<String, Integer> e : run.irregular.entrySet()) {
+                irregular.putIfAbsent(e.getKey(), folderMap[r][e.getValue()]);
+            }
+        }
+
+        int[] pos = new int[runs.size()];
+        // equal IDs come out lowest folder first, matching CabinetIdSet.seal()
+        PriorityQueue<Integer> heap = new PriorityQueue<>((a, b) -> {
+            CabinetSnapshot x = runs.get(a), y = runs.get(b);
+            int c = Long.compareUnsigned(x.msb(pos[a]), y.msb(pos[b]));
+            if (c == 0) c = Long.compareUnsigned(x.lsb(pos[a]), y.lsb(pos[b]));
+            if (c == 0) c = Integer.compare(folderMap[a][x.folder(pos[a])], folderMap[b][y.folder(pos[b])]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        for (int r = 0; r < runs.size(); r++) if (runs.get(r).count > 0) heap.add(r);
+
+        try (Writer w = new Writer(target)) {
+            boolean any = false;
+            long lastMsb = 0, lastLsb = 0;
+            while (!heap.isEmpty()) {
+                int r = heap.poll();
+                CabinetSnapshot run = runs.get(r);
+                int i = pos[r];
+                long m = run.msb(i), l = run.lsb(i);
+                if (!any || m != lastMsb || l != lastLsb) {
+                    w.add(m, l, folderMap[r][run.folder(i)]);
+                    lastMsb = m;
+                    lastLsb = l;
+                    any = true;
+                }
+                if (++pos[r] < run.count) heap.add(r);
+            }
+            w.finish(folders, irregular, sourceKeys, sourceFingerprints);
+        }
+    }
+}
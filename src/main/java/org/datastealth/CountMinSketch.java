@@ -0,0 +1,89 @@
+package org.datastealth;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Count-Min sketch over 64-bit hashes. Estimates never undercount; with width
+ * {@code ceil(e / epsilon)} and depth {@code ceil(ln(1 / delta))} they overcount by more than
+ * {@code epsilon * total} with probability at most {@code delta}. Sketches of equal shape merge by
+ * adding cells.
+ */
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[] cells;
+    private long total;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) throw new IllegalArgumentException("width and depth must be positive");
+        this.width = width;
+        this.depth = depth;
+        this.cells = new long[width * depth];
+    }
+
+    public static CountMinSketch forError(double epsilon, double delta) {
+        return new CountMinSketch((int) Math.ceil(Math.E / epsilon), (int) Math.ceil(Math.log(1 / delta)));
+    }
+
+    /** Adds one occurrence and returns the new estimate. */
+    public long add(long hash) {
+        total++;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int col = ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+            long v = ++cells[row * width + col];
+            if (v < min) min = v;
+        }
+        return min;
+    }
+
+    public long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int col = ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+            min = Math.min(min, cells[row * width + col]);
+        }
+        return min;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("shape mismatch: " + width + "x" + depth + " vs " + other.width + "x" + other.depth);
+        }
+        for (int i = 0; i < cells.length; i++) cells[i] += other.cells[i];
+        total += other.total;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(total);
+        for (long c : cells) out.writeLong(c);
+    }
+
+    public static CountMinSketch readFrom(DataInputStream in) throws IOException {
+        CountMinSketch s = new CountMinSketch(in.readInt(), in.readInt());
+        s.total = in.readLong();
+        for (int i = 0; i < s.cells.length; i++) s.cells[i] = in.readLong();
+        return s;
+    }
+}
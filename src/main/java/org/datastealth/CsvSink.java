@@ -0,0 +1,244 @@
+package org.datastealth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CSV writer that encodes fields straight into a large byte buffer as UTF-8. Fields are scanned
+ * once and only quoted when they contain a comma, quote or line break; {@link #quoted} always
+ * quotes for outputs whose format has historically quoted every column.
+ *
+ * <p>With gzip enabled each full buffer is compressed on a background pool as an independent gzip
+ * member; members are written in order, so the file is a valid multi-member gzip stream that
+ * {@code gunzip}, {@code zcat} and {@link java.util.zip.GZIPInputStream} read as one.
+ */
+public class CsvSink implements AutoCloseable {
+
+    private final OutputStream out;
+    private final ExecutorService compressors;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final int maxPending;
+    private final int bufferSize;
+
+    private byte[] buf;
+    private int pos;
+    private boolean rowStarted;
+    private long bytesWritten;
+
+    /**
+     * @param gzipThreads compression threads; 0 writes plain CSV
+     * @param bufferSize  bytes per block (and per gzip member)
+     */
+    public CsvSink(File file, int gzipThreads, int bufferSize) throws IOException {
+        this.out = new FileOutputStream(file);
+        this.bufferSize = Math.max(bufferSize, 64 * 1024);
+        this.buf = new byte[this.bufferSize];
+        this.maxPending = Math.max(2, gzipThreads * 2);
+        this.compressors = gzipThreads > 0 ? Executors.newFixedThreadPool(gzipThreads, r -> {
+            Thread t = new Thread(r, "csv-gzip");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    // ================= ROW API =================
+    /** Writes a header or other pre-formatted line verbatim, followed by a newline. */
+    public CsvSink line(String s) throws IOException {
+        utf8(s, 0, s.length());
+        return endRow();
+    }
+
+    /** Unquoted unless the value needs it. */
+    public CsvSink field(CharSequence s) throws IOException {
+        return field(s, 0, s == null ? 0 : s.length());
+    }
+
+    /** Writes {@code s[from, to)} as one field without creating a substring. */
+    public CsvSink field(CharSequence s, int from, int to) throws IOException {
+        separator();
+        if (s == null) return this;
+        if (needsQuoting(s, from, to)) {
+            put((byte) '"');
+            escaped(s, from, to);
+            put((byte) '"');
+        } else {
+            utf8(s, from, to);
+        }
+        return this;
+    }
+
+    public CsvSink field(long v) throws IOException {
+        separator();
+        if (v == Long.MIN_VALUE) {
+            utf8("-9223372036854775808", 0, 20);
+            return this;
+        }
+        if (v < 0) {
+            put((byte) '-');
+            v = -v;
+        }
+        ensure(20);
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    /** Always quoted, with embedded quotes doubled; null is written as {@code ""}. */
+    public CsvSink quoted(CharSequence s) throws IOException {
+        separator();
+        put((byte) '"');
+        if (s != null) escaped(s, 0, s.length());
+        put((byte) '"');
+        return this;
+    }
+
+    public CsvSink endRow() throws IOException {
+        put((byte) '\n');
+        rowStarted = false;
+        return this;
+    }
+
+    /** Bytes of (uncompressed) CSV produced so far. */
+    public long bytesWritten() {
+        return bytesWritten + pos;
+    }
+
+    // ================= ENCODING =================
+    private void separator() throws IOException {
+        if (rowStarted) put((byte) ',');
+        rowStarted = true;
+    }
+
+    private static boolean needsQuoting(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+
+    private void escaped(CharSequence s, int from, int to) throws IOException {
+        int run = from;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '"') {
+                utf8(s, run, i + 1);
+                run = i; // re-emit the quote so it is doubled
+            }
+        }
+        utf8(s, run, to);
+    }
+
+    /** UTF-8 encode with an ASCII fast path; unpaired surrogates become '?' like String.getBytes. */
+    private void utf8(CharSequence s, int from, int to) throws IOException {
+        int i = from;
+        while (i < to) {
+            if (pos + 4 > buf.length) flushBlock();
+            int limit = Math.min(to, i + (buf.length - pos) / 4);
+            byte[] b = buf;
+            int p = pos;
+            while (i < limit) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    b[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[p++] = (byte) (0xC0 | (c >> 6));
+                    b[p++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[p++] = (byte) (0xF0 | (cp >> 18));
+                    b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    b[p++] = '?';
+                } else {
+                    b[p++] = (byte) (0xE0 | (c >> 12));
+                    b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (c & 0x3F));
+                }
+                i++;
+            }
+            pos = p;
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (pos == buf.length) flushBlock();
+        buf[pos++] = b;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length) flushBlock();
+    }
+
+    // ================= BLOCKS =================
+    private void flushBlock() throws IOException {
+        if (pos == 0) return;
+        bytesWritten += pos;
+        if (compressors == null) {
+            out.write(buf, 0, pos);
+            pos = 0;
+            return;
+        }
+        byte[] block = buf;
+        int len = pos;
+        pending.add(compressors.submit(() -> gzip(block, len)));
+        byte[] next = freeBuffers.poll();
+        buf = next != null ? next : new byte[bufferSize];
+        pos = 0;
+        while (pending.size() >= maxPending) drainOne();
+    }
+
+    private byte[] gzip(byte[] block, int len) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos, 64 * 1024) {
+            { def.setLevel(Deflater.BEST_SPEED); }
+        }) {
+            gz.write(block, 0, len);
+        }
+        freeBuffers.add(block);
+        return bos.toByteArray();
+    }
+
+    private void drainOne() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing CSV", e);
+        } catch (ExecutionException e) {
+            throw new IOException("CSV compression failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            while (!pending.isEmpty()) drainOne();
+        } finally {
+            if (compressors != null) compressors.shutdownNow();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.datastealth;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * HyperLogLog distinct counter over 64-bit hashes. Standard error is about
+ * {@code 1.04 / sqrt(2^precision)}; memory is {@code 2^precision} bytes. Two sketches with the same
+ * precision merge by taking the register-wise maximum.
+ */
+public class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) throw new IllegalArgumentException("precision must be 4..18: " + precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** Smallest precision whose standard error is at most {@code relativeError}. */
+    public static HyperLogLog forError(double relativeError) {
+        int p = (int) Math.ceil(Math.log(Math.pow(1.04 / relativeError, 2)) / Math.log(2));
+        return new HyperLogLog(Math.max(4, Math.min(18, p)));
+    }
+
+    public void addHash(long hash) {
+        int idx = (int) (hash >>> (64 - precision));
+        // the sentinel bit caps the run length when the remaining bits are all zero
+        long w = (hash << precision) | (1L << (precision - 1));
+        byte rho = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rho > registers[idx]) registers[idx] = rho;
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double raw = alpha * m * m / sum;
+        if (raw <= 2.5 * m && zeros > 0) return Math.round(m * Math.log((double) m / zeros));
+        return Math.round(raw);
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) throw new IllegalArgumentException("precision mismatch: " + precision + " vs " + other.precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    public static HyperLogLog readFrom(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog(in.readByte());
+        in.readFully(h.registers);
+        return h;
+    }
+}
@@ -0,0 +1,217 @@
+package org.datastealth;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.*;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pulls candidate cabinet UUIDs out of a decrypted index value. Selected with {@code VALUE_DECODER}:
+ * <ul>
+ *   <li>{@code window} - the original scan: every 16-byte window in three encodings plus UUID text</li>
+ *   <li>{@code thrift-binary} / {@code thrift-compact} - parse the value as a serialized Thrift struct
+ *       and read only binary/string fields, falling back to {@code window} when it does not parse</li>
+ *   <li>{@code auto} - binary protocol, then compact, then window</li>
+ * </ul>
+ */
+public interface IndexValueDecoder {
+
+    Set<String> cabinetRefs(byte[] value);
+
+    static IndexValueDecoder forName(String name, Set<Short> fieldIds) {
+        switch (name) {
+            case "window":
+                return new WindowScan();
+            case "thrift-binary":
+                return new Thrift(fieldIds, false);
+            case "thrift-compact":
+                return new Thrift(fieldIds, true);
+            case "auto":
+                return new Thrift(fieldIds, false).orElse(new Thrift(fieldIds, true));
+            default:
+                throw new IllegalArgumentException("VALUE_DECODER must be window, thrift-binary, thrift-compact or auto: " + name);
+        }
+    }
+
+    // ================= WINDOW SCAN =================
+    final class WindowScan implements IndexValueDecoder {
+        private final LongAdder scanned = ScanMetrics.get().counter("values_window_scanned");
+
+        @Override
+        public Set<String> cabinetRefs(byte[] value) {
+            scanned.increment();
+            Set<String> uuids = RocksDbFinalExporterOneCSVWithPropertiesFile.extractUuidsFromBytes(value);
+            uuids.addAll(RocksDbFinalExporterOneCSVWithPropertiesFile.extractUuidsFromText(value));
+            return uuids;
+        }
+    }
+
+    // ================= THRIFT =================
+    /**
+     * Walks a Thrift struct without a generated schema. Each binary/string field of exactly 16 bytes
+     * yields the big-endian and mixed-endian UUID forms (as the window scan would for that offset);
+     * longer strings are searched for UUID text. A value only counts as decoded when the whole
+     * buffer is consumed and at least one candidate was found; anything else goes to the fallback.
+     */
+    final class Thrift implements IndexValueDecoder {
+        private static final int MAX_DEPTH = 16;
+
+        private final Set<Short> fieldIds;
+        private final boolean compact;
+        private IndexValueDecoder fallback = new WindowScan();
+        private final LongAdder decoded;
+        private final TMemoryInputTransport transport = new TMemoryInputTransport();
+
+        Thrift(Set<Short> fieldIds, boolean compact) {
+            this.fieldIds = fieldIds;
+            this.compact = compact;
+            this.decoded = ScanMetrics.get().counter(compact ? "values_thrift_compact" : "values_thrift_binary");
+        }
+
+        Thrift orElse(IndexValueDecoder next) {
+            this.fallback = next;
+            return this;
+        }
+
+        @Override
+        public Set<String> cabinetRefs(byte[] value) {
+            Set<String> out = new LinkedHashSet<>();
+            if (value != null && value.length > 1 && parse(value, out) && !out.isEmpty()) {
+                decoded.increment();
+                return out;
+            }
+            return fallback.cabinetRefs(value);
+        }
+
+        private boolean parse(byte[] value, Set<String> out) {
+            transport.reset(value);
+            TProtocol p = compact ? new TCompactProtocol(transport, value.length) : new BoundedBinaryProtocol(transport);
+            try {
+                struct(p, out, true, 0);
+                return transport.getBytesRemainingInBuffer() == 0;
+            } catch (TException | RuntimeException e) {
+                out.clear();
+                return false;
+            }
+        }
+
+        private void struct(TProtocol p, Set<String> out, boolean top, int depth) throws TException {
+            if (depth > MAX_DEPTH) throw new TProtocolException(TProtocolException.INVALID_DATA, "too deep");
+            p.readStructBegin();
+            while (true) {
+                TField f = p.readFieldBegin();
+                if (f.type == TType.STOP) break;
+                boolean collect = !top || fieldIds.isEmpty() || fieldIds.contains(f.id);
+                value(p, f.type, collect ? out : null, depth);
+                p.readFieldEnd();
+            }
+            p.readStructEnd();
+        }
+
+        private void value(TProtocol p, byte type, Set<String> out, int depth) throws TException {
+            switch (type) {
+                case TType.BOOL: p.readBool(); break;
+                case TType.BYTE: p.readByte(); break;
+                case TType.I16: p.readI16(); break;
+                case TType.I32: p.readI32(); break;
+                case TType.I64: p.readI64(); break;
+                case TType.DOUBLE: p.readDouble(); break;
+                case TType.STRING: {
+                    ByteBuffer b = p.readBinary();
+                    if (out != null) collect(b, out);
+                    break;
+                }
+                case TType.STRUCT:
+                    struct(p, out, false, depth + 1);
+                    break;
+                case TType.LIST: {
+                    TList l = p.readListBegin();
+                    checkSize(l.size);
+                    for (int i = 0; i < l.size; i++) value(p, l.elemType, out, depth + 1);
+                    p.readListEnd();
+                    break;
+                }
+                case TType.SET: {
+                    TSet s = p.readSetBegin();
+                    checkSize(s.size);
+                    for (int i = 0; i < s.size; i++) value(p, s.elemType, out, depth + 1);
+                    p.readSetEnd();
+                    break;
+                }
+                case TType.MAP: {
+                    TMap m = p.readMapBegin();
+                    checkSize(m.size);
+                    for (int i = 0; i < m.size; i++) {
+                        value(p, m.keyType, out, depth + 1);
+                        value(p, m.valueType, out, depth + 1);
+                    }
+                    p.readMapEnd();
+                    break;
+                }
+                default:
+                    throw new TProtocolException(TProtocolException.INVALID_DATA, "unknown type " + type);
+            }
+        }
+
+        /** Every element takes at least one byte, so a larger count cannot be genuine. */
+        private void checkSize(int size) throws TProtocolException {
+            if (size < 0 || size > transport.getBytesRemainingInBuffer()) {
+                throw new TProtocolException(TProtocolException.SIZE_LIMIT, "collection size " + size);
+            }
+        }
+
+        private static void collect(ByteBuffer b, Set<String> out) {
+            int len = b.remaining();
+            if (len == 16) {
+                long msb = b.getLong(b.position());
+                long lsb = b.getLong(b.position() + 8);
+                out.add(new UUID(msb, lsb).toString());
+                long mixed = (Integer.reverseBytes((int) (msb >>> 32)) & 0xFFFFFFFFL) << 32
+                        | (Short.reverseBytes((short) (msb >>> 16)) & 0xFFFFL) << 16
+                        | (Short.reverseBytes((short) msb) & 0xFFFFL);
+                out.add(new UUID(mixed, lsb).toString());
+            } else if (len >= 32) {
+                String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+                out.addAll(RocksDbFinalExporterOneCSVWithPropertiesFile.extractUuidsFromString(s));
+            }
+        }
+    }
+
+    /** TBinaryProtocol whose string/binary reads never allocate more than the buffer holds. */
+    final class BoundedBinaryProtocol extends TBinaryProtocol {
+        private final TMemoryInputTransport in;
+
+        BoundedBinaryProtocol(TMemoryInputTransport in) {
+            super(in, true, true);
+            this.in = in;
+        }
+
+        @Override
+        public ByteBuffer readBinary() throws TException {
+            int size = readI32();
+            if (size < 0 || size > in.getBytesRemainingInBuffer()) {
+                throw new TProtocolException(TProtocolException.SIZE_LIMIT, "binary length " + size);
+            }
+            ByteBuffer bb = ByteBuffer.wrap(in.getBuffer(), in.getBufferPosition(), size);
+            in.consumeBuffer(size);
+            return bb;
+        }
+
+        @Override
+        public String readString() throws TException {
+            ByteBuffer b = readBinary();
+            return new String(b.array(), b.position(), b.remaining(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Parses {@code VALUE_THRIFT_FIELDS}, a comma-separated list of top-level field ids. */
+    static Set<Short> fieldIds(String spec) {
+        Set<Short> ids = new HashSet<>();
+        for (String s : spec.split(",")) if (!s.trim().isEmpty()) ids.add(Short.parseShort(s.trim()));
+        return ids;
+    }
+}
@@ -0,0 +1,126 @@
+package org.datastealth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds which of up to 64 substrings occur in a decrypted key with one pass over its bytes, so several
+ * key families (e.g. {@code INDEX_PREFIX=dbidxEntry,dbidxUnique}) are classified by the same scan
+ * without building a String per key.
+ *
+ * <p>Patterns are compiled into an Aho-Corasick automaton over bytes and then into a full transition
+ * table (256 ints per state), so matching is one table load per byte. NUL bytes are skipped, which
+ * makes a match here the same as {@code safeUtf8(key).contains(pattern)}.
+ */
+final class KeyPatterns {
+
+    private final String[] patterns;
+    private final int[] delta;
+    private final long[] output;
+    private final long all;
+
+    KeyPatterns(List<String> patterns) {
+        if (patterns.isEmpty()) throw new IllegalArgumentException("no key patterns");
+        if (patterns.size() > 64) throw new IllegalArgumentException("at most 64 key patterns, got " + patterns.size());
+        this.patterns = patterns.toArray(new String[0]);
+
+        // trie
+        List<int[]> next = new ArrayList<>();
+        List<Long> out = new ArrayList<>();
+        next.add(newRow());
+        out.add(0L);
+        for (int p = 0; p < this.patterns.length; p++) {
+            int s = 0;
+            for (byte b : this.patterns[p].getBytes(StandardCharsets.UTF_8)) {
+                if (b == 0) continue;
+                int c = b & 0xff;
+                if (next.get(s)[c] < 0) {
+                    next.get(s)[c] = next.size();
+                    next.add(newRow());
+                    out.add(0L);
+                }
+                s = next.get(s)[c];
+            }
+            out.set(s, out.get(s) | 1L << p);
+        }
+
+        // failure links in BFS order, folded straight into a complete transition table
+        int states = next.size();
+        delta = new int[states << 8];
+        output = new long[states];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < 256; c++) {
+            int t = next.get(0)[c];
+            if (t < 0) {
+                delta[c] = 0;
+            } else {
+                delta[c] = t;
+                fail[t] = 0;
+                queue.add(t);
+            }
+        }
+        output[0] = out.get(0);
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            output[s] = out.get(s) | output[fail[s]];
+            for (int c = 0; c < 256; c++) {
+                int t = next.get(s)[c];
+                if (t < 0) {
+                    delta[s << 8 | c] = delta[fail[s] << 8 | c];
+                } else {
+                    delta[s << 8 | c] = t;
+                    fail[t] = delta[fail[s] << 8 | c];
+                    queue.add(t);
+                }
+            }
+        }
+        all = this.patterns.length == 64 ? -1L : (1L << this.patterns.length) - 1;
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[256];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /** Splits a comma-separated property value, dropping blanks and repeats. */
+    static List<String> parse(String value) {
+        Set<String> seen = new LinkedHashSet<>();
+        for (String s : value.split(",")) {
+            if (!s.trim().isEmpty()) seen.add(s.trim());
+        }
+        return Collections.unmodifiableList(new ArrayList<>(seen));
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    String pattern(int i) {
+        return patterns[i];
+    }
+
+    List<String> patternList() {
+        return Collections.unmodifiableList(Arrays.asList(patterns));
+    }
+
+    /** Bit {@code i} is set if pattern {@code i} occurs in {@code key}. */
+    long match(byte[] key) {
+        int s = 0;
+        long m = 0;
+        for (byte b : key) {
+            if (b == 0) continue;
+            s = delta[s << 8 | (b & 0xff)];
+            m |= output[s];
+            if (m == all) break;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,302 @@
+package org.datastealth;
+
+import org.rocksdb.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Deletes the index entries listed in a reviewed orphan CSV. Each key is re-encrypted with the
+ * device crypto of every shard in its index folder and looked up with {@code multiGet}; every shard
+ * that has it gets the delete, since the same key text can sit in several shards of a folder.
+ * Deletes go out in {@code WriteBatch}es of {@code batchSize} keys, and once a shard is done the key
+ * ranges that held them are compacted ({@code compactRange}) so the tombstones do not linger.
+ *
+ * <p>Entries are only deleted if they are still orphans: the current value of every copy found is
+ * decoded again, and a copy is kept if any of its cabinet candidates is in the cabinet set loaded
+ * for this run (the scan's own set, so every key form the scan accepts counts) or is found by a point
+ * read in the cabinet shards (which also sees exact-format cabinets created since the set was loaded). The CSV does not say which shard a row came from, so this
+ * check is also what keeps a related copy of the same key text in another shard. Rows with nothing
+ * deleted go to the skipped report: the key is related, gone, or cannot be found again (the CSV key
+ * is {@code safeUtf8} text, so keys with NUL or invalid UTF-8 bytes do not re-encrypt to the stored
+ * bytes). A dry run opens everything read-only and reports what would be deleted.
+ *
+ * <p>Writing needs the shard opened read-write, i.e. no other process may hold it. {@code offline}
+ * additionally disables the WAL and flushes the memtable explicitly before compacting.
+ */
+class OrphanRemediation {
+
+    static final String REPORT_HEADER = "folder,shard,found,deleted,kept_related,batches,lookup_ms,write_ms,flush_ms,"
+            + "compact_ranges,compact_ms,deletes_per_sec,dry_run";
+    static final String SKIPPED_HEADER = "reason,type,name,key,related,cabinet_id";
+
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final ScanMetrics METRICS = ScanMetrics.get();
+
+    private final File indexBase;
+    private final Options options;
+    private final IndexValueDecoder decoder;
+    private final CabinetIdSet cabinetSet;
+    private final CabinetLookup cabinets;
+    private final boolean dryRun;
+    private final boolean offline;
+    private final int batchSize;
+    private final int compactRanges;
+    private final LongAdder deletedCounter = METRICS.counter("orphans_deleted");
+
+    /** Totals: entries deleted over all shards (or deletable, in a dry run), and rows written to the skipped report. */
+    long deleted;
+    long skipped;
+
+    /**
+     * @param cabinetSet    the cabinets as a scan sees them; a copy referencing one is kept
+     * @param cabinets      live point reads, checked for copies that reference nothing in the set
+     * @param compactRanges most ranges compacted per shard; 0 skips compaction
+     */
+    OrphanRemediation(File indexBase, Options options, IndexValueDecoder decoder, CabinetIdSet cabinetSet,
+                      CabinetLookup cabinets, boolean dryRun, boolean offline, int batchSize, int compactRanges) {
+        this.indexBase = indexBase;
+        this.options = options;
+        this.decoder = decoder;
+        this.cabinetSet = cabinetSet;
+        this.cabinets = cabinets;
+        this.dryRun = dryRun;
+        this.offline = offline;
+        this.batchSize = Math.max(1, batchSize);
+        this.compactRanges = compactRanges;
+    }
+
+    /** One CSV row to remove, with its key encrypted for the shard currently being probed. */
+    private static final class Target {
+        final List<String> fields;
+        final byte[] plainKey;
+        byte[] encrypted;
+        boolean deleted;
+        boolean related;
+
+        Target(List<String> fields) {
+            this.fields = fields;
+            this.plainKey = fields.get(2).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // ================= RUN =================
+    void run(File csv, File reportFile, File skippedFile) throws Exception {
+        Map<String, List<Target>> byFolder = read(csv);
+        Map<String, File> folders = new HashMap<>();
+        for (File f : RocksDbFinalExporterOneCSVWithPropertiesFile.findFolders(indexBase)) folders.put(f.getName(), f);
+
+        try (CsvSink report = new CsvSink(reportFile, 0, 1 << 16);
+             CsvSink skips = new CsvSink(skippedFile, 0, 1 << 16)) {
+            report.line(REPORT_HEADER);
+            skips.line(SKIPPED_HEADER);
+            for (Map.Entry<String, List<Target>> e : byFolder.entrySet()) {
+                File folder = folderFor(e.getKey(), folders);
+                if (folder == null) {
+                    for (Target t : e.getValue()) skip(skips, "unknown_folder", t);
+                    continue;
+                }
+                for (File shard : RocksDbFinalExporterOneCSVWithPropertiesFile.findRocksShards(new File(folder, "rocks"))) {
+                    remediateShard(folder.getName(), shard, e.getValue(), report);
+                    METRICS.unitDone();
+                }
+                for (Target t : e.getValue()) {
+                    if (!t.deleted) skip(skips, t.related ? "related" : "not_found", t);
+                }
+            }
+        }
+    }
+
+    /** Index rows that are not already marked related, grouped by the {@code name} column in file order. */
+    private Map<String, List<Target>> read(File csv) throws IOException {
+        Map<String, List<Target>> byFolder = new LinkedHashMap<>();
+        InputStream raw = new FileInputStream(csv);
+        if (csv.getName().endsWith(".gz")) raw = new GZIPInputStream(raw, 1 << 16);
+        long rows = 0, ignored = 0;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8), 1 << 16)) {
+            String header = ResultDiff.readRecord(in);
+            if (header == null || !ResultDiff.parse(header).equals(Arrays.asList("type", "name", "key", "related", "cabinet_id"))) {
+                throw new IllegalStateException(csv + " is not an orphan CSV: " + header);
+            }
+            for (String record = ResultDiff.readRecord(in); record != null; record = ResultDiff.readRecord(in)) {
+                rows++;
+                List<String> f = ResultDiff.parse(record);
+                if (f.size() < 5 || !f.get(0).equals("index") || !f.get(3).equals("false")) {
+                    ignored++;
+                    continue;
+                }
+                byFolder.computeIfAbsent(f.get(1), k -> new ArrayList<>()).add(new Target(f));
+            }
+        }
+        log(String.format("Read %,d rows from %s (%,d not orphan index rows ignored) in %,d folders",
+                rows, csv.getAbsolutePath(), ignored, byFolder.size()));
+        return byFolder;
+    }
+
+    /** {@code name} is the folder, or {@code folder:prefix} for additional key families. */
+    private static File folderFor(String name, Map<String, File> folders) {
+        for (String n = name; ; n = n.substring(0, n.lastIndexOf(':'))) {
+            File f = folders.get(n);
+            if (f != null || n.indexOf(':') < 0) return f;
+        }
+    }
+
+    // ================= SHARD =================
+    /** Deletes the copies of {@code targets} this shard holds that are still orphans. */
+    private void remediateShard(String folder, File shard, List<Target> targets, CsvSink report) throws Exception {
+        RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto =
+                RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(shard.getName());
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(crypto.key, "AES"), new IvParameterSpec(crypto.iv));
+
+        List<byte[]> deletes = new ArrayList<>();
+        long found = 0, related = 0, batches = 0;
+        long lookupNanos = 0, writeNanos = 0, flushNanos = 0, compactNanos = 0;
+        List<byte[][]> ranges = Collections.emptyList();
+
+        String path = shard.getAbsolutePath();
+        try (RocksDB db = dryRun ? RocksDB.openReadOnly(options, path) : RocksDB.open(options, path);
+             WriteOptions writeOptions = new WriteOptions().setDisableWAL(offline)) {
+            for (int from = 0; from < targets.size(); from += batchSize) {
+                List<Target> chunk = targets.subList(from, Math.min(targets.size(), from + batchSize));
+                List<byte[]> keys = new ArrayList<>(chunk.size());
+                for (Target t : chunk) {
+                    t.encrypted = cipher.doFinal(t.plainKey);
+                    keys.add(t.encrypted);
+                    METRICS.record(t.encrypted.length);
+                }
+
+                long start = System.nanoTime();
+                // the map only holds keys that were found, under the same array instances
+                Map<byte[], byte[]> values = db.multiGet(keys);
+                try (WriteBatch batch = new WriteBatch()) {
+                    int inBatch = 0;
+                    for (Target t : chunk) {
+                        byte[] value = values.get(t.encrypted);
+                        if (value == null) continue;
+                        found++;
+                        if (related(decoder.cabinetRefs(RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(value, crypto)))) {
+                            related++;
+                            t.related = true;
+                            continue;
+                        }
+                        t.deleted = true;
+                        batch.remove(t.encrypted);
+                        deletes.add(t.encrypted);
+                        inBatch++;
+                    }
+                    lookupNanos += System.nanoTime() - start;
+
+                    if (!dryRun && inBatch > 0) {
+                        start = System.nanoTime();
+                        db.write(writeOptions, batch);
+                        writeNanos += System.nanoTime() - start;
+                        batches++;
+                        deletedCounter.add(inBatch);
+                    }
+                }
+            }
+
+            ranges = compactionRanges(deletes, compactRanges);
+            if (!dryRun && !deletes.isEmpty()) {
+                long start = System.nanoTime();
+                if (offline) {
+                    // nothing else makes WAL-less deletes durable
+                    try (FlushOptions flush = new FlushOptions().setWaitForFlush(true)) {
+                        db.flush(flush);
+                    }
+                }
+                flushNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (byte[][] r : ranges) db.compactRange(r[0], r[1]);
+                compactNanos = System.nanoTime() - start;
+            }
+        }
+
+        deleted += deletes.size();
+        double rate = writeNanos > 0 ? deletes.size() * 1e9 / writeNanos : 0;
+        report.field(folder).field(shard.getName()).field(found).field(deletes.size()).field(related).field(batches)
+                .field(lookupNanos / 1_000_000).field(writeNanos / 1_000_000).field(flushNanos / 1_000_000)
+                .field(ranges.size()).field(compactNanos / 1_000_000).field(Math.round(rate)).field(String.valueOf(dryRun));
+        report.endRow();
+        if (found > 0) {
+            log(String.format("%s/%s: %,d found, %,d %s, %,d kept as related | %,d batches, %,.0f deletes/s, "
+                            + "%d ranges compacted in %,dms",
+                    folder, shard.getName(), found, deletes.size(), dryRun ? "would be deleted" : "deleted", related,
+                    batches, rate, dryRun ? 0 : ranges.size(), compactNanos / 1_000_000));
+        }
+    }
+
+    /** Whether a copy with these candidates still references a cabinet. */
+    private boolean related(Collection<String> candidates) throws Exception {
+        for (String u : candidates) if (cabinetSet.contains(u)) return true;
+        return cabinets.containsAny(candidates);
+    }
+
+    /**
+     * At most {@code max} {@code [first, last]} key ranges covering {@code keys}. Encrypted keys are
+     * spread uniformly, so the sorted keys are cut at the {@code max - 1} widest gaps (measured on
+     * their first 8 bytes), leaving the ranges as narrow as they can be.
+     */
+    static List<byte[][]> compactionRanges(List<byte[]> keys, int max) {
+        if (keys.isEmpty() || max <= 0) return Collections.emptyList();
+        List<byte[]> sorted = new ArrayList<>(keys);
+        sorted.sort(OrphanRemediation::compareUnsigned);
+
+        Integer[] gaps = new Integer[sorted.size() - 1];
+        for (int i = 0; i < gaps.length; i++) gaps[i] = i;
+        Arrays.sort(gaps, (a, b) -> Long.compareUnsigned(gap(sorted, b), gap(sorted, a)));
+        int cuts = Math.min(max - 1, gaps.length);
+        int[] after = new int[cuts];
+        for (int i = 0; i < cuts; i++) after[i] = gaps[i];
+        Arrays.sort(after);
+
+        List<byte[][]> ranges = new ArrayList<>(cuts + 1);
+        int start = 0;
+        for (int cut : after) {
+            ranges.add(new byte[][]{sorted.get(start), sorted.get(cut)});
+            start = cut + 1;
+        }
+        ranges.add(new byte[][]{sorted.get(start), sorted.get(sorted.size() - 1)});
+        return ranges;
+    }
+
+    private static long gap(List<byte[]> sorted, int i) {
+        return prefix(sorted.get(i + 1)) - prefix(sorted.get(i));
+    }
+
+    private static long prefix(byte[] key) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = v << 8 | (i < key.length ? key[i] & 0xff : 0);
+        return v;
+    }
+
+    /** RocksDB's default bytewise order. */
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return a.length - b.length;
+    }
+
+    private void skip(CsvSink skips, String reason, Target t) throws IOException {
+        skipped++;
+        skips.quoted(reason);
+        for (String f : t.fields) skips.quoted(f);
+        skips.endRow();
+    }
+
+    private static void log(String message) {
+        System.out.println("[" + LocalDateTime.now().format(LOG_FORMAT) + "] " + message);
+    }
+}
@@ -0,0 +1,292 @@
+package org.datastealth;
+
+import org.rocksdb.RocksIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates the orphan rate of a vault from a random sample instead of a full scan.
+ *
+ * <p>Raw keys are AES-CBC ciphertext with a fixed IV per device, so keys whose first 16 plaintext
+ * bytes agree (every {@code dbidxEntry...} key of one field, say) share their first ciphertext
+ * block and sit together as one "cluster" in key order, while distinct clusters land at random
+ * positions. A bare random seek would therefore keep returning the first key of a few clusters.
+ * Each probe instead:
+ * <ol>
+ *   <li>seeks to 16 random bytes to pick a cluster (the choice is random and independent of what
+ *       the cluster contains),</li>
+ *   <li>seeks to the cluster's block plus 16 more random bytes and reads a run of up to
+ *       {@code SAMPLE_RUN} keys onward (wrapping at the end of the cluster). Second blocks are again
+ *       ciphertext, so the run is a random slice of the cluster,</li>
+ *   <li>estimates the cluster size from how much of the second-block space the run spans (exact
+ *       when the run wraps all the way round), and weights the run's entries by it.</li>
+ * </ol>
+ * Keys of the run that match any {@link KeyPatterns} family are index entries, as in a scan, and are
+ * classified with the caller's {@link CabinetLookup} point reads. Shards are drawn
+ * with probability proportional to their SST + WAL bytes, and each shard's estimates are scaled
+ * to its {@code rocksdb.estimate-num-keys}, so cost depends on the sample size, not on vault size.
+ *
+ * <p>The rate interval is a Wilson score interval on the effective sample size of the weighted
+ * sample; the estimated total carries only the rate's uncertainty.
+ */
+class OrphanSampler {
+
+    private final List<File> indexShards;
+    private final CabinetLookup cabinets;
+    private final ShardHandleManager shards;
+    private final IndexValueDecoder decoder;
+    private final KeyPatterns keyPatterns;
+    private final int sampleSize;
+    private final int run;
+    private final double confidence;
+    private final long deadline;
+    private final Random random;
+
+    OrphanSampler(List<File> indexShards, CabinetLookup cabinets, ShardHandleManager shards, IndexValueDecoder decoder,
+                  KeyPatterns keyPatterns, int sampleSize, int run, double confidence, int maxSeconds, long seed) {
+        this.indexShards = indexShards;
+        this.cabinets = cabinets;
+        this.shards = shards;
+        this.decoder = decoder;
+        this.keyPatterns = keyPatterns;
+        this.sampleSize = sampleSize;
+        this.run = Math.max(2, run);
+        this.confidence = confidence;
+        this.deadline = System.currentTimeMillis() + maxSeconds * 1000L;
+        this.random = new Random(seed);
+    }
+
+    static final class Estimate {
+        long probes;
+        long keysRead;
+        long indexEntries;
+        long orphans;
+        int shardsSampled;
+        double rate, rateLow, rateHigh;
+        double effectiveSampleSize;
+        double estimatedIndexEntries;
+        double estimatedOrphans;
+        boolean timedOut;
+
+        double orphansLow() { return rateLow * estimatedIndexEntries; }
+        double orphansHigh() { return rateHigh * estimatedIndexEntries; }
+    }
+
+    /** Per-shard accumulators; weights are relative until scaled by the shard's key count. */
+    private static final class ShardSample {
+        int probes;
+        long keys;
+        double weight;           // sum over read keys of clusterSize / runLength
+        double indexWeight;
+        double orphanWeight;
+        final List<double[]> entries = new ArrayList<>();   // {relative weight, orphan 0/1} per index entry
+    }
+
+    Estimate run() throws Exception {
+        ScanMetrics metrics = ScanMetrics.get();
+        ScanThrottle throttle = ScanThrottle.get();
+        LongAdder orphanCounter = metrics.counter("sample_orphans");
+        LongAdder indexCounter = metrics.counter("sample_index_entries");
+        Estimate e = new Estimate();
+
+        long totalBytes = 0;
+        long[] cumulative = new long[indexShards.size()];
+        for (int i = 0; i < indexShards.size(); i++) {
+            totalBytes += shardBytes(indexShards.get(i));
+            cumulative[i] = totalBytes;
+        }
+        if (totalBytes == 0) throw new IllegalStateException("No index data under the configured INDEX_BASE");
+
+        Map<Integer, ShardSample> samples = new HashMap<>();
+        byte[] seekKey = new byte[16];
+        metrics.expectRecords(sampleSize);
+
+        // rounds of probes drawn by shard size, grouped so each shard is acquired once per round
+        while (e.indexEntries < sampleSize && !e.timedOut) {
+            int roundProbes = Math.max(1, (sampleSize - (int) e.indexEntries) / run);
+            Map<Integer, Integer> perShard = new HashMap<>();
+            for (int i = 0; i < roundProbes; i++) {
+                int s = Arrays.binarySearch(cumulative, (long) (random.nextDouble() * totalBytes) + 1);
+                perShard.merge(s < 0 ? -s - 1 : s, 1, Integer::sum);
+            }
+            List<Integer> order = new ArrayList<>(perShard.keySet());
+            Collections.shuffle(order, random);
+            long before = e.keysRead;
+
+            for (int s : order) {
+                if (System.currentTimeMillis() > deadline) {
+                    e.timedOut = true;
+                    break;
+                }
+                File shard = indexShards.get(s);
+                RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto =
+                        RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(shard.getName());
+                ShardSample sample = samples.computeIfAbsent(s, k -> new ShardSample());
+                try (ShardHandleManager.Handle handle = shards.acquire(shard);
+                     RocksIterator it = handle.db().newIterator()) {
+                    if (sample.keys == 0) sample.keys = Long.parseLong(handle.db().getProperty("rocksdb.estimate-num-keys"));
+                    for (int p = perShard.get(s); p > 0; p--) {
+                        random.nextBytes(seekKey);
+                        it.seek(seekKey);
+                        if (!it.isValid()) it.seekToFirst();
+                        if (!it.isValid()) break;
+                        sample.probes++;
+                        e.probes++;
+
+                        List<byte[][]> entries = new ArrayList<>();
+                        double clusterSize = readRun(it, it.key(), entries);
+                        double w = clusterSize / entries.size();
+                        for (byte[][] kv : entries) {
+                            e.keysRead++;
+                            sample.weight += w;
+                            metrics.record(kv[0].length);
+                            throttle.acquire(kv[0].length + kv[1].length, 0);
+                            byte[] plainKey = RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(kv[0], crypto);
+                            if (keyPatterns.match(plainKey) == 0) continue;
+                            e.indexEntries++;
+                            indexCounter.increment();
+                            sample.indexWeight += w;
+
+                            boolean related = false;
+                            byte[] value = RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(kv[1], crypto);
+                            for (String u : decoder.cabinetRefs(value)) {
+                                if (cabinets.contains(u)) {
+                                    related = true;
+                                    break;
+                                }
+                            }
+                            if (!related) {
+                                e.orphans++;
+                                orphanCounter.increment();
+                                sample.orphanWeight += w;
+                            }
+                            sample.entries.add(new double[]{w, related ? 0 : 1});
+                        }
+                    }
+                }
+            }
+            // a vault without index entries would otherwise probe until the deadline
+            if (e.keysRead == before || (e.indexEntries == 0 && e.keysRead > 100L * sampleSize)) break;
+        }
+
+        // Hansen-Hurwitz over shard draws: each shard's estimate divided by its draw probability
+        double indexTotal = 0, orphanTotal = 0, sumW = 0, sumW2 = 0;
+        for (Map.Entry<Integer, ShardSample> en : samples.entrySet()) {
+            ShardSample sm = en.getValue();
+            if (sm.probes == 0 || sm.weight == 0) continue;
+            int s = en.getKey();
+            double drawProbability = (double) (cumulative[s] - (s == 0 ? 0 : cumulative[s - 1])) / totalBytes;
+            double scale = (double) sm.probes / e.probes / drawProbability * sm.keys / sm.weight;
+            indexTotal += sm.indexWeight * scale;
+            orphanTotal += sm.orphanWeight * scale;
+            for (double[] entry : sm.entries) {
+                double w = entry[0] * scale;
+                sumW += w;
+                sumW2 += w * w;
+            }
+            e.shardsSampled++;
+        }
+        e.estimatedIndexEntries = indexTotal;
+        e.estimatedOrphans = orphanTotal;
+        e.rate = indexTotal == 0 ? 0 : orphanTotal / indexTotal;
+        e.effectiveSampleSize = sumW2 == 0 ? 0 : sumW * sumW / sumW2;
+
+        double z = zScore(confidence);
+        double n = e.effectiveSampleSize;
+        if (n > 0) {
+            double denom = 1 + z * z / n;
+            double center = (e.rate + z * z / (2 * n)) / denom;
+            double half = z * Math.sqrt(e.rate * (1 - e.rate) / n + z * z / (4 * n * n)) / denom;
+            e.rateLow = Math.max(0, center - half);
+            e.rateHigh = Math.min(1, center + half);
+        } else {
+            e.rateHigh = 1;
+        }
+        return e;
+    }
+
+    /**
+     * Reads a run of keys from a random point inside the cluster of {@code landed} and returns the
+     * estimated cluster size. The run wraps from the end of the cluster to its first key; if it
+     * comes back to where it started the whole cluster was read and the size is exact.
+     */
+    private double readRun(RocksIterator it, byte[] landed, List<byte[][]> out) {
+        int blockLen = Math.min(16, landed.length);
+        byte[] prefix = Arrays.copyOf(landed, blockLen);
+        byte[] start = new byte[blockLen + 16];
+        System.arraycopy(prefix, 0, start, 0, blockLen);
+        byte[] offset = new byte[16];
+        random.nextBytes(offset);
+        System.arraycopy(offset, 0, start, blockLen, 16);
+        double from = fraction(offset, 0);
+
+        it.seek(start);
+        if (!it.isValid() || !startsWith(it.key(), prefix)) it.seek(prefix);
+        byte[] first = it.key();
+        boolean wrapped = false;
+        double span = 0;
+        while (out.size() < run) {
+            byte[] key = it.key();
+            out.add(new byte[][]{key, it.value()});
+            double d = fraction(key, blockLen) - from;
+            // distance travelled through the cluster's second-block space, counting one wrap
+            span = wrapped ? 1 + d : Math.max(0, d);
+            it.next();
+            if (!it.isValid() || !startsWith(it.key(), prefix)) {
+                it.seek(prefix);
+                wrapped = true;
+            }
+            if (Arrays.equals(it.key(), first)) return out.size();
+        }
+        // run-th arrival of a uniform process: (run - 1) / span is unbiased for the cluster size
+        return span <= 0 ? out.size() : Math.max(out.size(), (run - 1) / span);
+    }
+
+    /** Bytes {@code [from, from + 8)} of {@code b} as a fraction in [0, 1); missing bytes count as zero. */
+    private static double fraction(byte[] b, int from) {
+        double f = 0, scale = 1.0 / 256;
+        for (int i = from; i < from + 8; i++, scale /= 256) {
+            if (i < b.length) f += (b[i] & 0xFF) * scale;
+        }
+        return f;
+    }
+
+    private static boolean startsWith(byte[] k, byte[] prefix) {
+        if (k.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) if (k[i] != prefix[i]) return false;
+        return true;
+    }
+
+    private static long shardBytes(File shard) throws IOException {
+        File[] files = shard.listFiles();
+        if (files == null) throw new IOException("Cannot list " + shard);
+        long bytes = 0;
+        for (File f : files) if (f.getName().endsWith(".sst") || f.getName().endsWith(".log")) bytes += f.length();
+        return bytes;
+    }
+
+    /** Two-sided normal quantile for {@code confidence} (Acklam's rational approximation). */
+    static double zScore(double confidence) {
+        if (confidence <= 0 || confidence >= 1) throw new IllegalArgumentException("SAMPLE_CONFIDENCE must be in (0, 1): " + confidence);
+        double p = 1 - (1 - confidence) / 2;
+        double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+        if (p > 1 - 0.02425) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+}
@@ -0,0 +1,509 @@
+package org.datastealth;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * End-to-end regression runner. For every configured synthetic vault it runs the deployed tool
+ * entry points ({@code main} with a properties file) in a fresh child JVM, collects wall time and
+ * records/sec per phase, peak RSS, allocation and an order-independent checksum of each output
+ * CSV, writes a JSON report and compares it with a stored baseline.
+ *
+ * Exit status: 0 when every phase is within the threshold and outputs match, 1 on a throughput
+ * regression or checksum mismatch, 2 on bad usage.
+ */
+public class PerfRegressionHarness {
+
+    private static final SimpleDateFormat LOG_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final Map<String, String> TOOLS = new LinkedHashMap<>();
+    static {
+        TOOLS.put("exporter", RocksDbFinalExporterOneCSVWithPropertiesFile.class.getName());
+        TOOLS.put("counter", RocksDbIndexUuidCounterHuge.class.getName());
+    }
+
+    // ================= CONFIG =================
+    private static List<File> VAULT_CONFIGS;
+    private static List<String> RUN_TOOLS;
+    private static File WORK_DIR;
+    private static File BASELINE;
+    private static File REPORT;
+    private static double THRESHOLD;
+    private static List<String> JVM_ARGS;
+    private static Properties TOOL_OVERRIDES;
+    private static boolean UPDATE_BASELINE;
+
+    // ================= MAIN =================
+    public static void main(String[] args) throws Exception {
+        if (args.length == 4 && "--child".equals(args[0])) {
+            runChild(args[1], args[2], new File(args[3]));
+            return;
+        }
+        if (args.length < 1) {
+            System.err.println("Usage: PerfRegressionHarness <harness.properties>");
+            System.exit(2);
+        }
+        loadConfig(args[0]);
+        WORK_DIR.mkdirs();
+
+        Map<String, Object> runs = new LinkedHashMap<>();
+        for (File vaultConfig : VAULT_CONFIGS) {
+            String vault = baseName(vaultConfig);
+            File vaultBase = ensureVault(vaultConfig);
+            for (String tool : RUN_TOOLS) {
+                String runName = vault + "/" + tool;
+                log("=========== RUN " + runName + " ===========");
+                runs.put(runName, runTool(vaultBase, vault, tool));
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("created", LOG_FORMAT.format(new Date()));
+        report.put("java", System.getProperty("java.version"));
+        report.put("threshold", THRESHOLD);
+        report.put("runs", runs);
+        writeJson(REPORT, report);
+        log("Report written → " + REPORT.getAbsolutePath());
+
+        if (UPDATE_BASELINE || !BASELINE.exists()) {
+            writeJson(BASELINE, report);
+            log("Baseline " + (UPDATE_BASELINE ? "updated" : "created") + " → " + BASELINE.getAbsolutePath());
+            return;
+        }
+
+        int failures = compare(Json.parse(new String(Files.readAllBytes(BASELINE.toPath()), StandardCharsets.UTF_8)), report);
+        if (failures > 0) {
+            log("FAILED: " + failures + " regression(s) against " + BASELINE.getName());
+            System.exit(1);
+        }
+        log("PASSED: no regression beyond " + Math.round(THRESHOLD * 100) + "% against " + BASELINE.getName());
+    }
+
+    private static void loadConfig(String path) throws Exception {
+        log("Loading configuration from: " + path);
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            props.load(in);
+        }
+
+        VAULT_CONFIGS = new ArrayList<>();
+        for (String s : require(props, "HARNESS_VAULTS").split(",")) {
+            if (!s.trim().isEmpty()) VAULT_CONFIGS.add(new File(s.trim()));
+        }
+        RUN_TOOLS = new ArrayList<>();
+        for (String s : props.getProperty("HARNESS_TOOLS", "exporter,counter").split(",")) {
+            String tool = s.trim();
+            if (tool.isEmpty()) continue;
+            if (!TOOLS.containsKey(tool)) throw new IllegalArgumentException("Unknown tool in HARNESS_TOOLS: " + tool);
+            RUN_TOOLS.add(tool);
+        }
+        WORK_DIR = new File(props.getProperty("HARNESS_WORK_DIR", "perf-runs").trim());
+        BASELINE = new File(props.getProperty("HARNESS_BASELINE", "perf-baseline.json").trim());
+        REPORT = new File(props.getProperty("HARNESS_REPORT", new File(WORK_DIR, "perf-report.json").getPath()).trim());
+        THRESHOLD = Double.parseDouble(props.getProperty("HARNESS_THRESHOLD", "0.10").trim());
+        JVM_ARGS = new ArrayList<>();
+        for (String s : props.getProperty("HARNESS_JVM_ARGS", "").trim().split("\\s+")) {
+            if (!s.isEmpty()) JVM_ARGS.add(s);
+        }
+        TOOL_OVERRIDES = new Properties();
+        String overrides = props.getProperty("HARNESS_TOOL_PROPERTIES", "").trim();
+        if (!overrides.isEmpty()) {
+            try (InputStream in = new FileInputStream(overrides)) {
+                TOOL_OVERRIDES.load(in);
+            }
+        }
+        UPDATE_BASELINE = Boolean.parseBoolean(props.getProperty("HARNESS_UPDATE_BASELINE", "false").trim());
+        log("Configuration loaded successfully");
+    }
+
+    private static String require(Properties p, String key) {
+        String v = p.getProperty(key);
+        if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException("Missing required config: " + key);
+        return v.trim();
+    }
+
+    // ================= VAULTS =================
+    /** Generates the vault described by a generator config unless it already exists. */
+    private static File ensureVault(File generatorConfig) throws Exception {
+        Properties gen = new Properties();
+        try (InputStream in = new FileInputStream(generatorConfig)) {
+            gen.load(in);
+        }
+        File vaultBase = new File(require(gen, "VAULT_BASE"));
+        if (new File(vaultBase, "vault-manifest.properties").exists()) {
+            log("Reusing vault " + vaultBase.getAbsolutePath());
+            return vaultBase;
+        }
+        log("Generating vault " + vaultBase.getAbsolutePath());
+        File logFile = new File(WORK_DIR, baseName(generatorConfig) + "-generate.log");
+        int exit = runJava(logFile, SyntheticVaultGenerator.class.getName(), generatorConfig.getAbsolutePath());
+        if (exit != 0) throw new IllegalStateException("Vault generation failed (exit " + exit + "), see " + logFile);
+        return vaultBase;
+    }
+
+    // ================= RUNS =================
+    private static Map<String, Object> runTool(File vaultBase, String vault, String tool) throws Exception {
+        File runDir = new File(WORK_DIR, vault + "/" + tool);
+        deleteRecursively(runDir);
+        File outputDir = new File(runDir, "out");
+        outputDir.mkdirs();
+
+        Properties toolProps = new Properties();
+        try (InputStream in = new FileInputStream(new File(vaultBase, "rocks-exporter.properties"))) {
+            toolProps.load(in);
+        }
+        toolProps.putAll(TOOL_OVERRIDES);
+        toolProps.setProperty("OUTPUT_DIR", outputDir.getAbsolutePath());
+        File propsFile = new File(runDir, tool + ".properties");
+        try (OutputStream out = new FileOutputStream(propsFile)) {
+            toolProps.store(out, "Harness run " + vault + "/" + tool);
+        }
+
+        File statsFile = new File(runDir, "stats.properties");
+        File logFile = new File(runDir, tool + ".log");
+        int exit = runJava(logFile, PerfRegressionHarness.class.getName(),
+                "--child", TOOLS.get(tool), propsFile.getAbsolutePath(), statsFile.getAbsolutePath());
+        if (exit != 0) throw new IllegalStateException(tool + " failed on " + vault + " (exit " + exit + "), see " + logFile);
+
+        Properties stats = new Properties();
+        try (InputStream in = new FileInputStream(statsFile)) {
+            stats.load(in);
+        }
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("wall_ms", Long.parseLong(stats.getProperty("wall_ms")));
+        run.put("peak_rss_bytes", Long.parseLong(stats.getProperty("peak_rss_bytes")));
+        run.put("allocated_bytes", Long.parseLong(stats.getProperty("allocated_bytes")));
+        run.put("gc_time_ms", Long.parseLong(stats.getProperty("gc_time_ms")));
+
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (String phase : stats.getProperty("phases", "").split(",")) {
+            if (phase.isEmpty()) continue;
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("ms", Long.parseLong(stats.getProperty("phase." + phase + ".ms")));
+            p.put("records", Long.parseLong(stats.getProperty("phase." + phase + ".records")));
+            p.put("records_per_sec", Double.parseDouble(stats.getProperty("phase." + phase + ".records_per_sec")));
+            phases.put(phase, p);
+        }
+        run.put("phases", phases);
+
+        Map<String, Object> outputs = new TreeMap<>();
+        // gzip output is keyed by the plain name so CSV_GZIP on/off compares against the same baseline
+        File[] csvs = outputDir.listFiles((d, n) -> n.endsWith(".csv") || n.endsWith(".csv.gz"));
+        for (File csv : csvs == null ? new File[0] : csvs) outputs.put(csv.getName().replaceAll("\\.gz$", ""), checksum(csv));
+        run.put("outputs", outputs);
+
+        log(vault + "/" + tool + ": " + run.get("wall_ms") + "ms, peak RSS " + ((Long) run.get("peak_rss_bytes") / 1024 / 1024) + "MB");
+        return run;
+    }
+
+    private static int runJava(File logFile, String mainClass, String... args) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        cmd.addAll(JVM_ARGS);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(mainClass);
+        cmd.addAll(Arrays.asList(args));
+        logFile.getAbsoluteFile().getParentFile().mkdirs();
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(logFile).start();
+        return p.waitFor();
+    }
+
+    // ================= CHILD =================
+    /** Runs one tool in this JVM and records what the parent needs. */
+    private static void runChild(String mainClass, String toolProps, File statsFile) throws Exception {
+        long start = System.nanoTime();
+        Class.forName(mainClass).getMethod("main", String[].class).invoke(null, (Object) new String[]{toolProps});
+        long wallMs = (System.nanoTime() - start) / 1_000_000;
+
+        ScanMetrics metrics = ScanMetrics.get();
+        Properties stats = new Properties();
+        stats.setProperty("wall_ms", String.valueOf(wallMs));
+        stats.setProperty("peak_rss_bytes", String.valueOf(peakRssBytes()));
+        stats.setProperty("allocated_bytes", String.valueOf(metrics.getAllocatedBytes()));
+        stats.setProperty("gc_time_ms", String.valueOf(metrics.getGcTimeMillis()));
+
+        Map<String, Long> records = metrics.getPhaseRecords();
+        Map<String, Long> millis = metrics.getPhaseMillis();
+        Map<String, Double> rates = metrics.getPhaseRecordsPerSecond();
+        stats.setProperty("phases", String.join(",", records.keySet()));
+        for (String phase : records.keySet()) {
+            stats.setProperty("phase." + phase + ".records", String.valueOf(records.get(phase)));
+            stats.setProperty("phase." + phase + ".ms", String.valueOf(millis.get(phase)));
+            stats.setProperty("phase." + phase + ".records_per_sec", String.valueOf(rates.get(phase)));
+        }
+        try (OutputStream out = new FileOutputStream(statsFile)) {
+            stats.store(out, mainClass);
+        }
+        // tools leave daemon and prefetch threads behind; the run is over
+        System.exit(0);
+    }
+
+    /** VmHWM from /proc (Linux); -1 where it is not available. */
+    private static long peakRssBytes() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) return -1;
+        try (BufferedReader r = new BufferedReader(new FileReader(status))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    String kb = line.substring(6).trim().split("\\s+")[0];
+                    return Long.parseLong(kb) * 1024;
+                }
+            }
+        } catch (IOException ignored) {
+            // fall through
+        }
+        return -1;
+    }
+
+    // ================= CHECKSUM =================
+    /** Line count plus the sum of per-line 64-bit hashes, so row order does not matter. */
+    private static Map<String, Object> checksum(File csv) throws IOException {
+        long lines = 0;
+        long sum = 0;
+        InputStream in = new FileInputStream(csv);
+        if (csv.getName().endsWith(".gz")) in = new GZIPInputStream(in, 1 << 16);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                long h = 0xcbf29ce484222325L;
+                for (int i = 0; i < line.length(); i++) {
+                    h ^= line.charAt(i);
+                    h *= 0x100000001b3L;
+                }
+                h ^= h >>> 33;
+                h *= 0xff51afd7ed558ccdL;
+                h ^= h >>> 33;
+                sum += h;
+                lines++;
+            }
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("lines", lines);
+        out.put("checksum", String.format("%016x", sum));
+        return out;
+    }
+
+    // ================= COMPARISON =================
+    @SuppressWarnings("unchecked")
+    private static int compare(Object baselineJson, Map<String, Object> current) {
+        Map<String, Object> baseRuns = (Map<String, Object>) ((Map<String, Object>) baselineJson).get("runs");
+        Map<String, Object> curRuns = (Map<String, Object>) current.get("runs");
+        int failures = 0;
+
+        for (Map.Entry<String, Object> e : curRuns.entrySet()) {
+            Map<String, Object> base = (Map<String, Object>) baseRuns.get(e.getKey());
+            if (base == null) {
+                log(e.getKey() + ": no baseline, skipped");
+                continue;
+            }
+            Map<String, Object> cur = (Map<String, Object>) e.getValue();
+
+            Map<String, Object> basePhases = (Map<String, Object>) base.get("phases");
+            Map<String, Object> curPhases = (Map<String, Object>) cur.get("phases");
+            for (Map.Entry<String, Object> p : curPhases.entrySet()) {
+                Map<String, Object> bp = (Map<String, Object>) basePhases.get(p.getKey());
+                if (bp == null) continue;
+                double was = ((Number) bp.get("records_per_sec")).doubleValue();
+                double now = ((Number) ((Map<String, Object>) p.getValue()).get("records_per_sec")).doubleValue();
+                double change = was > 0 ? (now - was) / was : 0;
+                boolean regressed = now < was * (1 - THRESHOLD);
+                log(String.format("%s %-14s %,12.0f → %,12.0f rec/s (%+.1f%%)%s",
+                        e.getKey(), p.getKey(), was, now, change * 100, regressed ? "  REGRESSION" : ""));
+                if (regressed) failures++;
+            }
+
+            Map<String, Object> baseOut = (Map<String, Object>) base.get("outputs");
+            Map<String, Object> curOut = (Map<String, Object>) cur.get("outputs");
+            for (Map.Entry<String, Object> o : curOut.entrySet()) {
+                Map<String, Object> bo = (Map<String, Object>) baseOut.get(o.getKey());
+                if (bo == null) continue;
+                Map<String, Object> co = (Map<String, Object>) o.getValue();
+                if (!bo.get("checksum").equals(co.get("checksum")) || ((Number) bo.get("lines")).longValue() != ((Number) co.get("lines")).longValue()) {
+                    log(e.getKey() + " " + o.getKey() + ": OUTPUT CHANGED (" + bo.get("lines") + " → " + co.get("lines") + " lines)");
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    // ================= JSON =================
+    private static void writeJson(File file, Object value) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        StringBuilder sb = new StringBuilder();
+        Json.write(value, sb, "");
+        sb.append('\n');
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Just enough JSON for the report: objects, strings, numbers, booleans and null. */
+    static final class Json {
+        private final String s;
+        private int pos;
+
+        private Json(String s) { this.s = s; }
+
+        static Object parse(String text) {
+            Json j = new Json(text);
+            Object v = j.value();
+            j.ws();
+            if (j.pos != text.length()) throw j.error("trailing data");
+            return v;
+        }
+
+        private Object value() {
+            ws();
+            if (pos >= s.length()) throw error("unexpected end");
+            char c = s.charAt(pos);
+            if (c == '{') return object();
+            if (c == '[') return array();
+            if (c == '"') return string();
+            if (s.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+            if (s.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+            if (s.startsWith("null", pos)) { pos += 4; return null; }
+            return number();
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            pos++;
+            ws();
+            if (s.charAt(pos) == '}') { pos++; return out; }
+            while (true) {
+                ws();
+                String key = string();
+                ws();
+                expect(':');
+                out.put(key, value());
+                ws();
+                if (s.charAt(pos) == ',') { pos++; continue; }
+                expect('}');
+                return out;
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> out = new ArrayList<>();
+            pos++;
+            ws();
+            if (s.charAt(pos) == ']') { pos++; return out; }
+            while (true) {
+                out.add(value());
+                ws();
+                if (s.charAt(pos) == ',') { pos++; continue; }
+                expect(']');
+                return out;
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = s.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') { sb.append(c); continue; }
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u': sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16)); pos += 4; break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private Number number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+            String n = s.substring(start, pos);
+            if (n.isEmpty()) throw error("unexpected character");
+            return n.contains(".") || n.contains("e") || n.contains("E") ? (Number) Double.parseDouble(n) : (Number) Long.parseLong(n);
+        }
+
+        private void ws() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        private void expect(char c) {
+            if (pos >= s.length() || s.charAt(pos) != c) throw error("expected '" + c + "'");
+            pos++;
+        }
+
+        private IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("Invalid JSON at offset " + pos + ": " + msg);
+        }
+
+        @SuppressWarnings("unchecked")
+        static void write(Object v, StringBuilder sb, String indent) {
+            if (v instanceof Map) {
+                Map<String, Object> m = (Map<String, Object>) v;
+                if (m.isEmpty()) { sb.append("{}"); return; }
+                String inner = indent + "  ";
+                sb.append("{\n");
+                int i = 0;
+                for (Map.Entry<String, Object> e : m.entrySet()) {
+                    sb.append(inner);
+                    quote(e.getKey(), sb);
+                    sb.append(": ");
+                    write(e.getValue(), sb, inner);
+                    sb.append(++i < m.size() ? ",\n" : "\n");
+                }
+                sb.append(indent).append('}');
+            } else if (v instanceof List) {
+                List<Object> l = (List<Object>) v;
+                sb.append('[');
+                for (int i = 0; i < l.size(); i++) {
+                    if (i > 0) sb.append(", ");
+                    write(l.get(i), sb, indent);
+                }
+                sb.append(']');
+            } else if (v instanceof String) {
+                quote((String) v, sb);
+            } else if (v instanceof Double) {
+                double d = (Double) v;
+                sb.append(Double.isFinite(d) ? String.format(Locale.ROOT, "%.3f", d) : "0");
+            } else {
+                sb.append(v);
+            }
+        }
+
+        private static void quote(String s, StringBuilder sb) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') sb.append('\\').append(c);
+                else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                else sb.append(c);
+            }
+            sb.append('"');
+        }
+    }
+
+    // ================= UTILITIES =================
+    private static String baseName(File f) {
+        String n = f.getName();
+        int dot = n.lastIndexOf('.');
+        return dot > 0 ? n.substring(0, dot) : n;
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        f.delete();
+    }
+
+    private static void log(String message) {
+        System.out.println("[" + LOG_FORMAT.format(new Date()) + "] " + message);
+    }
+}
@@ -0,0 +1,92 @@
+package org.datastealth;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints scan progress on a fixed wall-clock interval from a daemon thread. Scan loops never log
+ * progress themselves; they only bump {@link ScanMetrics} counters, which this thread samples.
+ */
+public class ProgressReporter implements AutoCloseable {
+
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final ScanMetrics metrics = ScanMetrics.get();
+    private final ScheduledExecutorService timer;
+
+    private String lastPhase;
+    private long lastRecords;
+    private long lastNanos;
+
+    private ProgressReporter(long intervalSeconds) {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "progress-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        if (intervalSeconds > 0) timer.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Starts reporting every {@code intervalSeconds}; 0 disables periodic output. */
+    public static ProgressReporter start(long intervalSeconds) {
+        return new ProgressReporter(intervalSeconds);
+    }
+
+    private void report() {
+        try {
+            ScanMetrics.Progress p = metrics.progress();
+            long now = System.nanoTime();
+            if (!p.phase.equals(lastPhase)) {
+                lastPhase = p.phase;
+                lastRecords = 0;
+                lastNanos = now - p.elapsedNanos;
+            }
+
+            double intervalSec = (now - lastNanos) / 1e9;
+            double rate = intervalSec > 0 ? (p.records - lastRecords) / intervalSec : 0;
+            double avgRate = p.elapsedNanos > 0 ? p.records * 1e9 / p.elapsedNanos : 0;
+            lastRecords = p.records;
+            lastNanos = now;
+
+            StringBuilder sb = new StringBuilder();
+            sb.append('[').append(p.phase).append("] ")
+                    .append(String.format("%,d records | %,.0f rec/s (avg %,.0f)", p.records, rate, avgRate));
+            if (p.expectedUnits > 0) sb.append(String.format(" | units %,d/%,d", p.unitsDone, p.expectedUnits));
+            sb.append(" | ETA ").append(eta(p, avgRate));
+            for (Map.Entry<String, Long> c : metrics.getCounters().entrySet()) {
+                sb.append(String.format(" | %s=%,d", c.getKey(), c.getValue()));
+            }
+            Runtime rt = Runtime.getRuntime();
+            long usedMb = (rt.totalMemory() - rt.freeMemory()) / 1024 / 1024;
+            sb.append(" | Mem used=").append(usedMb).append("MB free=").append(rt.freeMemory() / 1024 / 1024).append("MB");
+
+            System.out.println("[" + LocalDateTime.now().format(LOG_FORMAT) + "] " + sb);
+        } catch (RuntimeException e) {
+            // never let a formatting problem kill the reporter thread
+            System.err.println("Progress report failed: " + e);
+        }
+    }
+
+    private static String eta(ScanMetrics.Progress p, double avgRate) {
+        double seconds;
+        if (p.expectedRecords > 0 && avgRate > 0) {
+            seconds = Math.max(0, p.expectedRecords - p.records) / avgRate;
+        } else if (p.expectedUnits > 0 && p.unitsDone > 0) {
+            double elapsed = p.elapsedNanos / 1e9;
+            seconds = elapsed * (p.expectedUnits - p.unitsDone) / p.unitsDone;
+        } else {
+            return "n/a";
+        }
+        long s = (long) seconds;
+        return String.format("%02d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
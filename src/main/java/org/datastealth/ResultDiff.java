@@ -0,0 +1,397 @@
+package org.datastealth;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming diff of two runs' CSV results, e.g. yesterday's and today's OUTPUT_DIR. Both sides are
+ * read in the same sorted order and merged like {@code diff} on sorted files, so memory does not
+ * grow with the size of the outputs:
+ * <ul>
+ *   <li>{@code index_uuid_counts.csv} is already sorted by {@code indexName|value}, the order
+ *       {@code mergeAndCount} emits groups in; groups whose count moved, appeared or disappeared go
+ *       to {@code counts_delta.csv}.</li>
+ *   <li>{@code orphan_indexes.csv} is in shard order unless the exporter ran with
+ *       {@code SORT_ORPHANS=true}; an unsorted side is first sorted by (type, name, key) in chunks of
+ *       {@link #CHUNK_RECORDS} rows. New, resolved and changed orphans go to {@code orphans_delta.csv}.</li>
+ * </ul>
+ * Either file may be gzip ({@code .csv.gz}). Totals are logged and written to {@code diff_summary.csv}.
+ *
+ * Exit status: 0 when the results are identical, 1 when they differ, 2 on bad usage or missing inputs.
+ */
+public class ResultDiff {
+
+    private static final SimpleDateFormat LOG_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    static final int CHUNK_RECORDS = 500_000;
+
+    static final String COUNTS = "index_uuid_counts";
+    static final String ORPHANS = "orphan_indexes";
+    private static final String COUNTS_DELTA_HEADER = "indexName,value,old_count,new_count,delta";
+    private static final String ORPHANS_DELTA_HEADER = "change,type,name,key,related,cabinet_id";
+    private static final String SUMMARY_HEADER = "file,old_rows,new_rows,added,removed,changed";
+
+    /** Merge key of a counts row: the {@code indexName|value} string the counter sorts by. */
+    static final RowKey COUNT_KEY = f -> f.get(0) + "|" + f.get(1);
+
+    /** Merge key of an orphan row: what identifies the orphan, not what was found about it. */
+    static final RowKey ORPHAN_KEY = f -> f.get(0) + '\0' + f.get(1) + '\0' + f.get(2);
+
+    interface RowKey {
+        String of(List<String> fields);
+    }
+
+    // ================= MAIN =================
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ResultDiff <old OUTPUT_DIR> <new OUTPUT_DIR> <report dir>");
+            System.exit(2);
+        }
+        File oldDir = new File(args[0]);
+        File newDir = new File(args[1]);
+        File reportDir = new File(args[2]);
+        reportDir.mkdirs();
+
+        File oldCounts = find(oldDir, COUNTS), newCounts = find(newDir, COUNTS);
+        File oldOrphans = find(oldDir, ORPHANS), newOrphans = find(newDir, ORPHANS);
+        List<long[]> totals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+
+        if (oldCounts != null && newCounts != null) {
+            log("=========== COUNTS ===========");
+            names.add(COUNTS);
+            totals.add(diffCounts(oldCounts, newCounts, new File(reportDir, "counts_delta.csv"), reportDir));
+        } else if (oldCounts != null || newCounts != null) {
+            log("Skipping counts: " + COUNTS + " exists on one side only");
+        }
+        if (oldOrphans != null && newOrphans != null) {
+            log("=========== ORPHANS ===========");
+            names.add(ORPHANS);
+            totals.add(diffOrphans(oldOrphans, newOrphans, new File(reportDir, "orphans_delta.csv"), reportDir));
+        } else if (oldOrphans != null || newOrphans != null) {
+            log("Skipping orphans: " + ORPHANS + " exists on one side only");
+        }
+        if (names.isEmpty()) {
+            System.err.println("No CSV results to compare in both " + oldDir + " and " + newDir);
+            System.exit(2);
+        }
+
+        boolean differ = false;
+        File summary = new File(reportDir, "diff_summary.csv");
+        try (CsvSink out = new CsvSink(summary, 0, 64 * 1024)) {
+            out.line(SUMMARY_HEADER);
+            for (int i = 0; i < names.size(); i++) {
+                long[] t = totals.get(i);
+                out.field(names.get(i));
+                for (long v : t) out.field(v);
+                out.endRow();
+                differ |= t[2] + t[3] + t[4] > 0;
+            }
+        }
+        log("Summary written → " + summary.getAbsolutePath());
+        System.exit(differ ? 1 : 0);
+    }
+
+    /** {@code <name>.csv} or {@code <name>.csv.gz} in {@code dir}, or null. */
+    private static File find(File dir, String name) {
+        for (String ext : new String[]{".csv", ".csv.gz"}) {
+            File f = new File(dir, name + ext);
+            if (f.isFile()) return f;
+        }
+        return null;
+    }
+
+    // ================= DIFF =================
+    /** Returns old rows, new rows, added, removed and changed groups. */
+    static long[] diffCounts(File oldCsv, File newCsv, File out, File tmpDir) throws IOException {
+        long[] t = new long[5];
+        try (RowSource a = sorted(oldCsv, COUNT_KEY, tmpDir);
+             RowSource b = sorted(newCsv, COUNT_KEY, tmpDir);
+             CsvSink delta = new CsvSink(out, 0, 1 << 20)) {
+            delta.line(COUNTS_DELTA_HEADER);
+            Row x = a.next(), y = b.next();
+            while (x != null || y != null) {
+                int c = x == null ? 1 : y == null ? -1 : x.key.compareTo(y.key);
+                long before = c <= 0 ? Long.parseLong(x.fields.get(2)) : 0;
+                long after = c >= 0 ? Long.parseLong(y.fields.get(2)) : 0;
+                Row r = c <= 0 ? x : y;
+                if (c < 0) t[3]++;
+                else if (c > 0) t[2]++;
+                else if (before != after) t[4]++;
+                if (before != after) {
+                    delta.field(r.fields.get(0)).field(r.fields.get(1)).field(before).field(after).field(after - before);
+                    delta.endRow();
+                }
+                if (c <= 0) { t[0]++; x = a.next(); }
+                if (c >= 0) { t[1]++; y = b.next(); }
+            }
+        }
+        log(String.format("Counts: %,d → %,d groups | %,d new, %,d gone, %,d changed count → %s",
+                t[0], t[1], t[2], t[3], t[4], out.getAbsolutePath()));
+        return t;
+    }
+
+    /** Returns old rows, new rows, new, resolved and changed orphans. */
+    static long[] diffOrphans(File oldCsv, File newCsv, File out, File tmpDir) throws IOException {
+        long[] t = new long[5];
+        try (RowSource a = sorted(oldCsv, ORPHAN_KEY, tmpDir);
+             RowSource b = sorted(newCsv, ORPHAN_KEY, tmpDir);
+             CsvSink delta = new CsvSink(out, 0, 1 << 20)) {
+            delta.line(ORPHANS_DELTA_HEADER);
+            Row x = a.next(), y = b.next();
+            while (x != null || y != null) {
+                int c = x == null ? 1 : y == null ? -1 : x.key.compareTo(y.key);
+                String change = null;
+                if (c < 0) {
+                    change = "resolved";
+                    t[3]++;
+                } else if (c > 0) {
+                    change = "new";
+                    t[2]++;
+                } else if (!x.fields.equals(y.fields)) {
+                    // same orphan, different related flag or cabinet
+                    change = "changed";
+                    t[4]++;
+                }
+                if (change != null) {
+                    delta.quoted(change);
+                    for (String f : (c < 0 ? x : y).fields) delta.quoted(f);
+                    delta.endRow();
+                }
+                if (c <= 0) { t[0]++; x = a.next(); }
+                if (c >= 0) { t[1]++; y = b.next(); }
+            }
+        }
+        log(String.format("Orphans: %,d → %,d | %,d new, %,d resolved, %,d changed → %s",
+                t[0], t[1], t[2], t[3], t[4], out.getAbsolutePath()));
+        return t;
+    }
+
+    // ================= SORTING =================
+    /**
+     * Rows of {@code csv} (header skipped) in key order. A file that is already sorted is streamed
+     * as-is; otherwise it is cut into sorted chunks in {@code tmpDir}, merged on the fly and the
+     * chunks are deleted on close.
+     */
+    static RowSource sorted(File csv, RowKey key, File tmpDir) throws IOException {
+        if (isSorted(csv, key)) {
+            log(csv.getName() + " is sorted; streaming it directly");
+            return new FileRows(csv, true, key, false);
+        }
+        List<File> chunks = sortChunks(csv, key, tmpDir);
+        log(csv.getName() + " sorted into " + chunks.size() + " chunks");
+        List<FileRows> sources = new ArrayList<>();
+        try {
+            for (File chunk : chunks) sources.add(new FileRows(chunk, false, key, true));
+        } catch (IOException e) {
+            for (FileRows s : sources) s.close();
+            for (File chunk : chunks) chunk.delete();
+            throw e;
+        }
+        return new MergedRows(sources);
+    }
+
+    private static boolean isSorted(File csv, RowKey key) throws IOException {
+        try (FileRows rows = new FileRows(csv, true, key, false)) {
+            String last = null;
+            for (Row r = rows.next(); r != null; r = rows.next()) {
+                if (last != null && last.compareTo(r.key) > 0) return false;
+                last = r.key;
+            }
+            return true;
+        }
+    }
+
+    private static List<File> sortChunks(File csv, RowKey key, File tmpDir) throws IOException {
+        List<File> chunks = new ArrayList<>();
+        List<Row> buffer = new ArrayList<>(CHUNK_RECORDS);
+        try (FileRows rows = new FileRows(csv, true, key, false)) {
+            for (Row r = rows.next(); r != null; r = rows.next()) {
+                buffer.add(r);
+                if (buffer.size() >= CHUNK_RECORDS) {
+                    chunks.add(writeChunk(buffer, tmpDir));
+                    buffer.clear();
+                }
+            }
+            if (!buffer.isEmpty() || chunks.isEmpty()) chunks.add(writeChunk(buffer, tmpDir));
+        } catch (IOException | RuntimeException e) {
+            for (File chunk : chunks) chunk.delete();
+            throw e;
+        }
+        return chunks;
+    }
+
+    private static File writeChunk(List<Row> rows, File tmpDir) throws IOException {
+        rows.sort(ROW_ORDER);
+        File chunk = File.createTempFile("diff_chunk_", ".tmp", tmpDir);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(chunk), StandardCharsets.UTF_8), 1 << 20)) {
+            for (Row r : rows) {
+                w.write(r.text);
+                w.write('\n');
+            }
+        }
+        return chunk;
+    }
+
+    /** Key order; whole-row text breaks ties so the sort is deterministic. */
+    private static final Comparator<Row> ROW_ORDER = (p, q) -> {
+        int c = p.key.compareTo(q.key);
+        return c != 0 ? c : p.text.compareTo(q.text);
+    };
+
+    /**
+     * Rewrites an orphan CSV in place in {@link #ORPHAN_KEY} order, header first, so later runs can
+     * be diffed without sorting. Used by the exporter's {@code SORT_ORPHANS}.
+     */
+    static void sortOrphanCsv(File csv, String header, int gzipThreads, int bufferSize) throws IOException {
+        if (isSorted(csv, ORPHAN_KEY)) return;
+        List<File> chunks = sortChunks(csv, ORPHAN_KEY, csv.getAbsoluteFile().getParentFile());
+        List<FileRows> sources = new ArrayList<>();
+        for (File chunk : chunks) sources.add(new FileRows(chunk, false, ORPHAN_KEY, true));
+        File tmp = new File(csv.getPath() + ".sorting");
+        try (RowSource rows = new MergedRows(sources);
+             CsvSink out = new CsvSink(tmp, gzipThreads, bufferSize)) {
+            out.line(header);
+            for (Row r = rows.next(); r != null; r = rows.next()) out.line(r.text);
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!csv.delete() || !tmp.renameTo(csv)) throw new IOException("Could not replace " + csv + " with " + tmp);
+    }
+
+    // ================= ROWS =================
+    static final class Row {
+        /** The record as it appears in the file, without its line terminator. */
+        final String text;
+        final List<String> fields;
+        final String key;
+
+        Row(String text, RowKey key) {
+            this.text = text;
+            this.fields = parse(text);
+            this.key = key.of(fields);
+        }
+    }
+
+    interface RowSource extends Closeable {
+        /** Next row, or null at the end. */
+        Row next() throws IOException;
+    }
+
+    private static final class FileRows implements RowSource {
+        private final BufferedReader in;
+        private final RowKey key;
+        private final File deleteOnClose;
+
+        FileRows(File file, boolean header, RowKey key, boolean temporary) throws IOException {
+            InputStream raw = new FileInputStream(file);
+            if (file.getName().endsWith(".gz")) raw = new GZIPInputStream(raw, 1 << 16);
+            this.in = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8), 1 << 16);
+            this.key = key;
+            this.deleteOnClose = temporary ? file : null;
+            if (header) readRecord(in);
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String text = readRecord(in);
+            return text == null ? null : new Row(text, key);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            if (deleteOnClose != null) deleteOnClose.delete();
+        }
+    }
+
+    /** K-way merge of sorted chunks. */
+    private static final class MergedRows implements RowSource {
+        private final List<FileRows> sources;
+        private final PriorityQueue<Map.Entry<Row, FileRows>> heads =
+                new PriorityQueue<>((p, q) -> ROW_ORDER.compare(p.getKey(), q.getKey()));
+
+        MergedRows(List<FileRows> sources) throws IOException {
+            this.sources = sources;
+            for (FileRows s : sources) push(s);
+        }
+
+        private void push(FileRows s) throws IOException {
+            Row r = s.next();
+            if (r != null) heads.add(new AbstractMap.SimpleImmutableEntry<>(r, s));
+        }
+
+        @Override
+        public Row next() throws IOException {
+            Map.Entry<Row, FileRows> head = heads.poll();
+            if (head == null) return null;
+            push(head.getValue());
+            return head.getKey();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (FileRows s : sources) s.close();
+        }
+    }
+
+    // ================= CSV =================
+    /**
+     * One CSV record, which spans several lines when a quoted field holds a line break; null at the
+     * end of input.
+     */
+    static String readRecord(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null || !openQuote(line, false)) return line;
+        StringBuilder sb = new StringBuilder(line);
+        boolean open = true;
+        while (open && (line = in.readLine()) != null) {
+            sb.append('\n').append(line);
+            open = openQuote(line, true);
+        }
+        return sb.toString();
+    }
+
+    /** Whether a quoted field is still open at the end of {@code line}. */
+    private static boolean openQuote(String line, boolean open) {
+        for (int i = 0; i < line.length(); i++) if (line.charAt(i) == '"') open = !open;
+        return open;
+    }
+
+    /** Fields of a record, quotes removed and doubled quotes collapsed. */
+    static List<String> parse(String record) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char ch = record.charAt(i);
+            if (quoted) {
+                if (ch != '"') {
+                    sb.append(ch);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(ch);
+            }
+        }
+        fields.add(sb.toString());
+        return fields;
+    }
+
+    private static void log(String message) {
+        System.out.println("[" + LOG_FORMAT.format(new Date()) + "] " + message);
+    }
+}
@@ -0,0 +1,221 @@
+package org.datastealth;
+
+import org.rocksdb.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Local RocksDB copy of a tool's results for point lookups and prefix scans.
+ *
+ * <p>Keys are {@code name \0 value} in UTF-8 (index name and UUID for the counter, folder name and
+ * decrypted key for the exporter); counts are 8-byte big-endian values, orphans have empty values.
+ * The key {@code \0kind} records which tool wrote the store. Writes are bulk-load style: WAL off,
+ * batched, flushed and compacted once on close.
+ *
+ * <p>Query usage:
+ * <pre>
+ *   ResultStore &lt;store-dir&gt; get &lt;name&gt; &lt;value&gt;
+ *   ResultStore &lt;store-dir&gt; scan &lt;name&gt; [valuePrefix] [limit]
+ *   ResultStore &lt;store-dir&gt; stats
+ * </pre>
+ */
+public class ResultStore implements AutoCloseable {
+
+    public static final String KIND_COUNTS = "counts";
+    public static final String KIND_ORPHANS = "orphans";
+
+    private static final byte[] KIND_KEY = {0, 'k', 'i', 'n', 'd'};
+    private static final byte[] EMPTY = new byte[0];
+    private static final int BATCH_SIZE = 10_000;
+
+    private final Options options;
+    private final RocksDB db;
+    private final WriteOptions writeOptions = new WriteOptions().setDisableWAL(true);
+    private WriteBatch batch = new WriteBatch();
+    private int pending;
+    private long written;
+
+    private ResultStore(File dir, String kind) throws Exception {
+        RocksDB.loadLibrary();
+        if (new File(dir, "CURRENT").exists()) deleteRecursively(dir);
+        dir.mkdirs();
+        options = new Options().setCreateIfMissing(true).setErrorIfExists(true).prepareForBulkLoad();
+        db = RocksDB.open(options, dir.getAbsolutePath());
+        db.put(writeOptions, KIND_KEY, kind.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Creates (or replaces) a store at {@code dir}. */
+    public static ResultStore create(File dir, String kind) throws Exception {
+        return new ResultStore(dir, kind);
+    }
+
+    // ================= WRITE =================
+    /** {@code combined} is a Phase 3 line, {@code indexName|uuid}. */
+    public void putCount(String combined, long count) throws RocksDBException {
+        byte[] key = combined.getBytes(StandardCharsets.UTF_8);
+        // '|' never occurs inside a multi-byte UTF-8 sequence, so the first one is the separator
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == '|') {
+                key[i] = 0;
+                break;
+            }
+        }
+        byte[] value = new byte[8];
+        for (int i = 7; i >= 0; i--, count >>>= 8) value[i] = (byte) count;
+        put(key, value);
+    }
+
+    public void putOrphan(String folder, String key) throws RocksDBException {
+        put(key(folder, key), EMPTY);
+    }
+
+    /** Copies every row of another store (e.g. a worker's part) into this one. */
+    public void putAll(File otherStore) throws RocksDBException {
+        try (Options readOptions = new Options();
+             RocksDB other = RocksDB.openReadOnly(readOptions, otherStore.getAbsolutePath());
+             RocksIterator it = other.newIterator()) {
+            for (it.seekToFirst(); it.isValid(); it.next()) {
+                byte[] key = it.key();
+                if (!Arrays.equals(key, KIND_KEY)) put(key, it.value());
+            }
+        }
+    }
+
+    private void put(byte[] key, byte[] value) throws RocksDBException {
+        batch.put(key, value);
+        if (++pending >= BATCH_SIZE) flushBatch();
+    }
+
+    private void flushBatch() throws RocksDBException {
+        if (pending == 0) return;
+        db.write(writeOptions, batch);
+        written += pending;
+        batch.close();
+        batch = new WriteBatch();
+        pending = 0;
+    }
+
+    public long written() {
+        return written + pending;
+    }
+
+    @Override
+    public void close() throws RocksDBException {
+        try {
+            flushBatch();
+            try (FlushOptions flush = new FlushOptions().setWaitForFlush(true)) {
+                db.flush(flush);
+            }
+            // bulk-load options leave everything in L0; one compaction makes lookups cheap
+            db.compactRange();
+        } finally {
+            batch.close();
+            writeOptions.close();
+            db.close();
+            options.close();
+        }
+    }
+
+    // ================= QUERY CLI =================
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: ResultStore <store-dir> get <name> <value> | scan <name> [valuePrefix] [limit] | stats");
+            System.exit(2);
+        }
+        RocksDB.loadLibrary();
+        File dir = new File(args[0]);
+        if (!new File(dir, "CURRENT").exists()) {
+            System.err.println("Not a result store: " + dir.getAbsolutePath());
+            System.exit(2);
+        }
+
+        try (Options options = new Options();
+             RocksDB db = RocksDB.openReadOnly(options, dir.getAbsolutePath())) {
+            byte[] kindBytes = db.get(KIND_KEY);
+            String kind = kindBytes == null ? "?" : new String(kindBytes, StandardCharsets.UTF_8);
+
+            switch (args[1]) {
+                case "get": {
+                    if (args.length < 4) throw new IllegalArgumentException("get needs <name> <value>");
+                    // UUIDs are stored as found in the value, so fall back to the usual casings
+                    for (String v : new String[]{args[3], args[3].toLowerCase(), args[3].toUpperCase()}) {
+                        byte[] value = db.get(key(args[2], v));
+                        if (value != null) {
+                            System.out.println(row(args[2], v, value));
+                            return;
+                        }
+                    }
+                    System.out.println(KIND_COUNTS.equals(kind) ? args[2] + "," + args[3] + ",0" : "not found");
+                    System.exit(1);
+                    break;
+                }
+                case "scan": {
+                    String valuePrefix = args.length > 3 ? args[3] : "";
+                    long limit = args.length > 4 ? Long.parseLong(args[4]) : Long.MAX_VALUE;
+                    byte[] prefix = key(args[2], valuePrefix);
+                    long n = 0;
+                    try (RocksIterator it = db.newIterator()) {
+                        for (it.seek(prefix); it.isValid() && n < limit && startsWith(it.key(), prefix); it.next(), n++) {
+                            byte[] k = it.key();
+                            int sep = indexOf0(k);
+                            System.out.println(row(args[2], new String(k, sep + 1, k.length - sep - 1, StandardCharsets.UTF_8), it.value()));
+                        }
+                    }
+                    System.err.println(n + " rows");
+                    break;
+                }
+                case "stats":
+                    System.out.println("kind=" + kind);
+                    System.out.println("estimate-num-keys=" + db.getProperty("rocksdb.estimate-num-keys"));
+                    System.out.println("total-sst-bytes=" + sstBytes(dir));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + args[1]);
+            }
+        }
+    }
+
+    private static String row(String name, String value, byte[] stored) {
+        if (stored.length != 8) return RocksDbFinalExporterOneCSVWithPropertiesFile.csv(name) + ","
+                + RocksDbFinalExporterOneCSVWithPropertiesFile.csv(value);
+        long count = 0;
+        for (byte b : stored) count = (count << 8) | (b & 0xFF);
+        return name + "," + value + "," + count;
+    }
+
+    // ================= HELPERS =================
+    private static byte[] key(String name, String value) {
+        byte[] a = name.getBytes(StandardCharsets.UTF_8);
+        byte[] b = value.getBytes(StandardCharsets.UTF_8);
+        byte[] k = Arrays.copyOf(a, a.length + 1 + b.length);
+        System.arraycopy(b, 0, k, a.length + 1, b.length);
+        return k;
+    }
+
+    private static boolean startsWith(byte[] k, byte[] prefix) {
+        if (k.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) if (k[i] != prefix[i]) return false;
+        return true;
+    }
+
+    private static int indexOf0(byte[] k) {
+        for (int i = 0; i < k.length; i++) if (k[i] == 0) return i;
+        return -1;
+    }
+
+    private static long sstBytes(File dir) {
+        long total = 0;
+        for (File f : Objects.requireNonNull(dir.listFiles())) if (f.getName().endsWith(".sst")) total += f.length();
+        return total;
+    }
+
+    private static void deleteRecursively(File f) throws IOException {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        if (!f.delete()) throw new IOException("Cannot delete " + f);
+    }
+}
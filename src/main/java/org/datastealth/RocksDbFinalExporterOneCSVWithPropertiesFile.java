@@ -8,79 +8,404 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.MessageDigest;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class RocksDbFinalExporterOneCSVWithPropertiesFile {
 
     // ================= DEFAULTS =================
     private static final int DEFAULT_ORPHAN_LIMIT = 10;
     private static final String DEFAULT_INDEX_PREFIX = "dbidxEntry";
+    private static final int DEFAULT_SHARD_CACHE_MB = 256;
+    private static final int DEFAULT_SHARD_MAX_OPEN = 8;
+    private static final int DEFAULT_SHARD_PREFETCH = 2;
+    private static final int DEFAULT_PROGRESS_INTERVAL_SECONDS = 10;
+    private static final int DEFAULT_CSV_BUFFER_KB = 1024;
+    private static final String DEFAULT_OUTPUT_FORMAT = "csv";
+    private static final String CSV_HEADER = "type,name,key,related,cabinet_id";
+    private static final String DEFAULT_VALUE_DECODER = "window";
+    private static final String DANGLING_HEADER = "cabinet_id,folder";
+    private static final String FAMILIES_HEADER = "prefix,index_keys,cabinet_refs,orphans";
+    private static final double DEFAULT_SAMPLE_CONFIDENCE = 0.95;
+    private static final int DEFAULT_SAMPLE_MAX_SECONDS = 300;
+    private static final int DEFAULT_SAMPLE_RUN = 32;
 
     private static String INDEX_BASE;
     private static String CABINET_BASE;
     private static String OUTPUT_DIR;
     private static int ORPHAN_LIMIT;
     private static String INDEX_PREFIX;
+    private static KeyPatterns KEY_PATTERNS;
+    private static int PROGRESS_INTERVAL_SECONDS;
+    private static boolean CSV_GZIP;
+    private static int CSV_GZIP_THREADS;
+    private static int CSV_BUFFER_KB;
+    private static String OUTPUT_FORMAT;
+    private static WorkPartition PARTITION;
+    private static IndexValueDecoder VALUE_DECODER;
+    private static String WORKER_PARTS_DIR;
+    private static boolean DANGLING_CABINETS;
+    private static boolean SORT_ORPHANS; // rewrite orphan_indexes.csv in ResultDiff order at the end
+    private static String CABINET_SNAPSHOT_DIR;
+    private static String CABINET_LOOKUP;
+    private static double CABINET_LOOKUP_RATIO;
+    private static int CABINET_LOOKUP_SAMPLE; // cabinet keys per shard checked for the exact format before lookups
+    private static long cabinetLookupBudget; // probes allowed before the scan falls back to loading the set
+    private static ShardResultCache RESULT_CACHE;
+    private static ScanCoverage COVERAGE; // MAX_RUNTIME_SECONDS deadline and RESUME_COVERAGE manifest
+    private static String REMEDIATE_CSV; // reviewed orphan CSV to delete; null when not remediating
+    private static boolean REMEDIATE_DRY_RUN;
+    private static boolean REMEDIATE_OFFLINE;
+    private static int REMEDIATE_BATCH_SIZE;
+    private static int REMEDIATE_COMPACT_RANGES;
+    private static boolean INVENTORY_ONLY;
+    private static int INVENTORY_THREADS;
+    private static VaultInventory INVENTORY; // from INVENTORY_FILE; null when not configured
+    private static int SAMPLE_SIZE;
+    private static double SAMPLE_CONFIDENCE;
+    private static int SAMPLE_MAX_SECONDS;
+    private static int SAMPLE_RUN;
+    private static long SAMPLE_SEED;
+    private static ShardHandleManager SHARDS;
+    private static final ScanMetrics METRICS = ScanMetrics.get();
+    private static final ScanThrottle THROTTLE = ScanThrottle.get();
 
     private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F\\-]{36}");
     private static final Pattern HEX32_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
-    private static final SimpleDateFormat LOG_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
 
     // ================= CRYPTO CACHE =================
-    private static class Crypto {
+    // Crypto and the hot-path helpers are package-private so benchmarks/ can call them directly
+    static class Crypto {
         final byte[] key;
         final byte[] iv;
         Crypto(byte[] key, byte[] iv) { this.key = key; this.iv = iv; }
     }
-    private static final Map<String, Crypto> CRYPTO_CACHE = new HashMap<>();
+    private static final Map<String, Crypto> CRYPTO_CACHE = new ConcurrentHashMap<>();
 
     // ================= MAIN =================
     public static void main(String[] args) throws Exception {
         String configPath = args.length>0?args[0]:"/Users/rrashi/IdeaProjects/gitMaven/dss/rocks-exporter.properties";
-        loadConfig(configPath);
+        loadConfig(configPath, args);
 
         log("Orphan limit = " + ORPHAN_LIMIT);
         log("Index prefix = " + INDEX_PREFIX);
+        for (int f = 1; f < KEY_PATTERNS.size(); f++) log("Additional index prefix = " + KEY_PATTERNS.pattern(f));
+        if (PARTITION.count > 1) log("Partition: " + PARTITION);
+        log("Byte scanner = " + ByteScan.get().name());
 
         File outDir = new File(OUTPUT_DIR);
         outDir.mkdirs();
-        File csvFile = new File(outDir, "orphan_indexes.csv");
+        String csvExt = CSV_GZIP ? ".csv.gz" : ".csv";
+        boolean toCsv = !OUTPUT_FORMAT.equals("rocksdb");
+        boolean toStore = !OUTPUT_FORMAT.equals("csv");
 
-        try (PrintWriter writer = new PrintWriter(csvFile)) {
-            writer.println("type,name,key,related,cabinet_id");
+        if (REMEDIATE_CSV != null) {
+            try (ShardHandleManager shards = SHARDS;
+                 ProgressReporter progress = ProgressReporter.start(PROGRESS_INTERVAL_SECONDS)) {
+                remediate(outDir);
+            }
+            METRICS.stop();
+            return;
+        }
 
-            log("=========== LOADING CABINETS ===========");
-            long startTime = System.currentTimeMillis();
-            Set<String> cabinetIds = scanCabinets();
-            log("Loaded " + cabinetIds.size() + " cabinet IDs in " + (System.currentTimeMillis() - startTime) + "ms");
+        if (INVENTORY_ONLY) {
+            try (ShardHandleManager shards = SHARDS) {
+                inventory(outDir);
+            }
+            METRICS.stop();
+            return;
+        }
+
+        if (SAMPLE_SIZE > 0) {
+            try (ShardHandleManager shards = SHARDS;
+                 ProgressReporter progress = ProgressReporter.start(PROGRESS_INTERVAL_SECONDS)) {
+                sampleOrphanRate(outDir);
+            }
+            METRICS.stop();
+            return;
+        }
+
+        if (PARTITION.coordinator) {
+            try (ShardHandleManager shards = SHARDS) {
+                mergeWorkers(outDir, csvExt, toCsv, toStore);
+            }
+            return;
+        }
+
+        // workers write headerless parts; the coordinator adds the header once
+        boolean worker = PARTITION.isWorker();
+        File csvFile = new File(outDir, worker ? PARTITION.partName("orphan_indexes", csvExt) : "orphan_indexes" + csvExt);
+        File storeDir = new File(outDir, worker ? PARTITION.partName("orphan_indexes", ".db") : "orphan_indexes.db");
+        File danglingFile = new File(outDir, worker ? PARTITION.partName("dangling_cabinets", csvExt) : "dangling_cabinets" + csvExt);
+        File familiesFile = new File(outDir, worker ? PARTITION.partName("key_families", ".csv") : "key_families.csv");
+        File coverageFile = new File(outDir, worker ? PARTITION.partName("orphan_indexes_coverage", ".csv") : "orphan_indexes_coverage.csv");
+        long[][] families = new long[3][KEY_PATTERNS.size()];
+
+        try (ShardHandleManager shards = SHARDS;
+             ProgressReporter progress = ProgressReporter.start(PROGRESS_INTERVAL_SECONDS);
+             CsvSink writer = toCsv ? new CsvSink(csvFile, CSV_GZIP ? CSV_GZIP_THREADS : 0, CSV_BUFFER_KB * 1024) : null;
+             ResultStore store = toStore ? ResultStore.create(storeDir, ResultStore.KIND_ORPHANS) : null) {
+            if (writer != null && !worker) writer.line(CSV_HEADER);
+
+            CabinetLookup lookup = openCabinetLookup();
+            CabinetIdSet cabinetIds = null;
+            long startTime;
+            if (lookup == null) {
+                log("=========== LOADING CABINETS ===========");
+                METRICS.startPhase("cabinet_scan");
+                startTime = System.currentTimeMillis();
+                cabinetIds = scanCabinets(true);
+                log("Loaded " + cabinetIds.size() + " cabinet IDs in " + (System.currentTimeMillis() - startTime) + "ms");
+                if (COVERAGE.expired()) log("MAX_RUNTIME_SECONDS reached while loading cabinets; no index shard will be scanned");
+            }
 
             log("=========== SCANNING INDEXES ===========");
+            METRICS.startPhase(lookup != null ? "index_lookup" : "index_scan");
             startTime = System.currentTimeMillis();
-            int written = scanIndexes(writer, cabinetIds, ORPHAN_LIMIT);
+            IndexScan scan = new IndexScan(writer, store, cabinetIds, lookup, ORPHAN_LIMIT, families);
+            int written;
+            try {
+                written = scanIndexes(scan);
+            } finally {
+                if (scan.lookup != null) scan.lookup.close();
+            }
             log("Exported " + written + " orphan indexes in " + (System.currentTimeMillis() - startTime) + "ms");
+            if (KEY_PATTERNS.size() > 1) writeFamilies(familiesFile, families, !worker);
+
+            if (DANGLING_CABINETS && !COVERAGE.whole()) {
+                log("Dangling-cabinet report skipped: it needs every index shard scanned in full in one run");
+            } else if (DANGLING_CABINETS) {
+                cabinetIds = scan.cabinetIds;
+                METRICS.startPhase("dangling_report");
+                long dangling = writeDangling(cabinetIds, danglingFile, !worker);
+                log("Exported " + dangling + " dangling cabinets (" + cabinetIds.referencedCount() + " of "
+                        + cabinetIds.size() + " referenced) → " + danglingFile.getAbsolutePath());
+            }
         }
 
-        log("CSV written → " + csvFile.getAbsolutePath());
+        // workers leave it to the coordinator, which sorts the concatenated parts
+        if (toCsv && SORT_ORPHANS && !worker) sortOrphans(csvFile);
+        // written last: a manifest means the outputs it describes are final
+        if (COVERAGE.enabled()) COVERAGE.write(coverageFile);
+        METRICS.stop();
+        if (toCsv) log("CSV written → " + csvFile.getAbsolutePath());
+        if (toStore) log("Result store written → " + storeDir.getAbsolutePath());
+        if (COVERAGE.enabled()) log("Coverage " + COVERAGE.summary() + " → " + coverageFile.getAbsolutePath());
+    }
+
+    // ================= COORDINATOR =================
+    /**
+     * Concatenates worker CSV parts behind a single header and copies worker result stores into one.
+     * Parts cover disjoint shards, so no de-duplication is needed; DEFAULT_ORPHAN_LIMIT applies per
+     * worker. Gzip parts are whole gzip members and are appended as-is.
+     */
+    private static void mergeWorkers(File outDir, String csvExt, boolean toCsv, boolean toStore) throws Exception {
+        File partsDir = new File(WORKER_PARTS_DIR);
+        METRICS.startPhase("merge_workers");
+
+        if (toCsv) {
+            List<File> parts = PARTITION.parts(partsDir, "orphan_indexes", csvExt);
+            File csvFile = new File(outDir, "orphan_indexes" + csvExt);
+            try (OutputStream out = new FileOutputStream(csvFile)) {
+                byte[] header = (CSV_HEADER + "\n").getBytes(StandardCharsets.UTF_8);
+                if (CSV_GZIP) {
+                    try (GZIPOutputStream gz = new GZIPOutputStream(new NonClosingOutputStream(out))) {
+                        gz.write(header);
+                    }
+                } else {
+                    out.write(header);
+                }
+                for (File part : parts) {
+                    long n = Files.copy(part.toPath(), out);
+                    METRICS.record(n);
+                }
+            }
+            log("CSV written → " + csvFile.getAbsolutePath() + " from " + parts.size() + " worker parts");
+            if (SORT_ORPHANS) sortOrphans(csvFile);
+        }
+
+        if (toStore) {
+            List<File> parts = PARTITION.parts(partsDir, "orphan_indexes", ".db");
+            File storeDir = new File(outDir, "orphan_indexes.db");
+            try (ResultStore store = ResultStore.create(storeDir, ResultStore.KIND_ORPHANS)) {
+                for (File part : parts) store.putAll(part);
+            }
+            log("Result store written → " + storeDir.getAbsolutePath() + " from " + parts.size() + " worker parts");
+        }
+
+        if (KEY_PATTERNS.size() > 1) {
+            long[][] families = new long[3][KEY_PATTERNS.size()];
+            for (File part : PARTITION.parts(partsDir, "key_families", ".csv")) readFamilies(part, families);
+            File familiesFile = new File(outDir, "key_families.csv");
+            writeFamilies(familiesFile, families, true);
+            log("Key family totals written → " + familiesFile.getAbsolutePath());
+        }
+
+        boolean whole = !COVERAGE.resuming();
+        if (COVERAGE.enabled()) {
+            File coverageFile = new File(outDir, "orphan_indexes_coverage.csv");
+            whole &= ScanCoverage.merge(PARTITION.parts(partsDir, "orphan_indexes_coverage", ".csv"), coverageFile);
+            log("Coverage manifest written → " + coverageFile.getAbsolutePath());
+        }
+
+        if (DANGLING_CABINETS && !whole) {
+            log("Dangling-cabinet report skipped: it needs every index shard scanned in full in one run");
+        } else if (DANGLING_CABINETS) {
+            List<File> parts = PARTITION.parts(partsDir, "dangling_cabinets", csvExt);
+            File danglingFile = new File(outDir, "dangling_cabinets" + csvExt);
+            long n = intersectDangling(parts, danglingFile);
+            log("Dangling cabinets written → " + danglingFile.getAbsolutePath() + " (" + n + " rows from "
+                    + parts.size() + " worker parts)");
+        }
+        METRICS.stop();
+    }
+
+    /** Sorts the orphan CSV by (type, name, key) so {@link ResultDiff} can stream it without sorting. */
+    private static void sortOrphans(File csvFile) throws IOException {
+        METRICS.startPhase("sort_orphans");
+        long startTime = System.currentTimeMillis();
+        ResultDiff.sortOrphanCsv(csvFile, CSV_HEADER, CSV_GZIP ? CSV_GZIP_THREADS : 0, CSV_BUFFER_KB * 1024);
+        log("Sorted orphan CSV in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * A cabinet is dangling only if no worker saw a reference to it, i.e. it appears in every
+     * worker's list. Parts are sorted by cabinet ID, so this is a streaming k-way intersection.
+     */
+    private static long intersectDangling(List<File> parts, File out) throws IOException {
+        List<BufferedReader> readers = new ArrayList<>();
+        try (CsvSink sink = new CsvSink(out, CSV_GZIP ? CSV_GZIP_THREADS : 0, CSV_BUFFER_KB * 1024)) {
+            sink.line(DANGLING_HEADER);
+            String[] heads = new String[parts.size()];
+            for (int i = 0; i < parts.size(); i++) {
+                InputStream in = new FileInputStream(parts.get(i));
+                if (CSV_GZIP) in = new GZIPInputStream(in, 1 << 16);
+                readers.add(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16));
+                heads[i] = readers.get(i).readLine();
+            }
+            long written = 0;
+            while (true) {
+                String max = null;
+                for (String h : heads) {
+                    if (h == null) return written;
+                    if (max == null || h.compareTo(max) > 0) max = h;
+                }
+                boolean all = true;
+                for (int i = 0; i < heads.length; i++) {
+                    while (heads[i] != null && heads[i].compareTo(max) < 0) heads[i] = readers.get(i).readLine();
+                    if (heads[i] == null) return written;
+                    if (!heads[i].equals(max)) all = false;
+                }
+                if (all) {
+                    sink.line(max);
+                    written++;
+                    METRICS.record(max.length());
+                    for (int i = 0; i < heads.length; i++) heads[i] = readers.get(i).readLine();
+                }
+            }
+        } finally {
+            for (BufferedReader r : readers) r.close();
+        }
+    }
+
+    /** Lets the header's gzip member finish without closing the file underneath it. */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) { super(out); }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+        @Override public void close() throws IOException { flush(); }
     }
 
     // ================= CONFIG =================
-    private static void loadConfig(String path) throws Exception {
+    private static void loadConfig(String path, String[] args) throws Exception {
         log("Loading configuration from: " + path);
         Properties props = new Properties();
         try (InputStream in = new FileInputStream(path)) {
             props.load(in);
         }
+        WorkPartition.applyOverrides(props, args);
 
         INDEX_BASE = require(props, "INDEX_BASE");
         CABINET_BASE = require(props, "CABINET_BASE");
         OUTPUT_DIR = require(props, "OUTPUT_DIR");
 
         ORPHAN_LIMIT = Integer.parseInt(props.getProperty("DEFAULT_ORPHAN_LIMIT", String.valueOf(DEFAULT_ORPHAN_LIMIT)));
-        INDEX_PREFIX = props.getProperty("INDEX_PREFIX", DEFAULT_INDEX_PREFIX);
+        KEY_PATTERNS = new KeyPatterns(KeyPatterns.parse(props.getProperty("INDEX_PREFIX", DEFAULT_INDEX_PREFIX)));
+        INDEX_PREFIX = KEY_PATTERNS.pattern(0);
+        PROGRESS_INTERVAL_SECONDS = Integer.parseInt(props.getProperty("PROGRESS_INTERVAL_SECONDS",
+                String.valueOf(DEFAULT_PROGRESS_INTERVAL_SECONDS)).trim());
+        CSV_GZIP = Boolean.parseBoolean(props.getProperty("CSV_GZIP", "false").trim());
+        OUTPUT_FORMAT = props.getProperty("OUTPUT_FORMAT", DEFAULT_OUTPUT_FORMAT).trim().toLowerCase();
+        if (!Arrays.asList("csv", "rocksdb", "both").contains(OUTPUT_FORMAT)) {
+            throw new IllegalArgumentException("OUTPUT_FORMAT must be csv, rocksdb or both: " + OUTPUT_FORMAT);
+        }
+        CSV_GZIP_THREADS = Integer.parseInt(props.getProperty("CSV_GZIP_THREADS",
+                String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        CSV_BUFFER_KB = Integer.parseInt(props.getProperty("CSV_BUFFER_KB", String.valueOf(DEFAULT_CSV_BUFFER_KB)).trim());
+        PARTITION = WorkPartition.from(props);
+        String remediateCsv = props.getProperty("REMEDIATE_CSV", "").trim();
+        REMEDIATE_CSV = remediateCsv.isEmpty() ? null : remediateCsv;
+        REMEDIATE_DRY_RUN = Boolean.parseBoolean(props.getProperty("REMEDIATE_DRY_RUN", "true").trim());
+        REMEDIATE_OFFLINE = Boolean.parseBoolean(props.getProperty("REMEDIATE_OFFLINE", "false").trim());
+        REMEDIATE_BATCH_SIZE = Integer.parseInt(props.getProperty("REMEDIATE_BATCH_SIZE", "10000").trim());
+        REMEDIATE_COMPACT_RANGES = Integer.parseInt(props.getProperty("REMEDIATE_COMPACT_RANGES", "16").trim());
+        INVENTORY_ONLY = Boolean.parseBoolean(props.getProperty("INVENTORY_ONLY", "false").trim());
+        INVENTORY_THREADS = Integer.parseInt(props.getProperty("INVENTORY_THREADS",
+                String.valueOf(4 * Runtime.getRuntime().availableProcessors())).trim());
+        String inventoryFile = props.getProperty("INVENTORY_FILE", "").trim();
+        if (!inventoryFile.isEmpty()) {
+            INVENTORY = VaultInventory.load(new File(inventoryFile));
+            PARTITION = PARTITION.balancedBy(INVENTORY);
+        }
+        VALUE_DECODER = IndexValueDecoder.forName(
+                props.getProperty("VALUE_DECODER", DEFAULT_VALUE_DECODER).trim().toLowerCase(),
+                IndexValueDecoder.fieldIds(props.getProperty("VALUE_THRIFT_FIELDS", "")));
+        WORKER_PARTS_DIR = props.getProperty("WORKER_PARTS_DIR", OUTPUT_DIR).trim();
+        DANGLING_CABINETS = Boolean.parseBoolean(props.getProperty("DANGLING_CABINETS", "false").trim());
+        SORT_ORPHANS = Boolean.parseBoolean(props.getProperty("SORT_ORPHANS", "false").trim());
+        String snapshotDir = props.getProperty("CABINET_SNAPSHOT_DIR", "").trim();
+        CABINET_SNAPSHOT_DIR = snapshotDir.isEmpty() ? null : snapshotDir;
+        CABINET_LOOKUP = props.getProperty("CABINET_LOOKUP", "scan").trim().toLowerCase();
+        if (!Arrays.asList("auto", "scan", "lookup").contains(CABINET_LOOKUP)) {
+            throw new IllegalArgumentException("CABINET_LOOKUP must be auto, scan or lookup: " + CABINET_LOOKUP);
+        }
+        CABINET_LOOKUP_RATIO = Double.parseDouble(props.getProperty("CABINET_LOOKUP_RATIO", "0.05").trim());
+        CABINET_LOOKUP_SAMPLE = Integer.parseInt(props.getProperty("CABINET_LOOKUP_SAMPLE", "1000").trim());
+        String resultCacheDir = props.getProperty("SHARD_RESULT_CACHE_DIR", "").trim();
+        // the entry holds matched keys and decoded candidates, so the prefixes and decoder are part of its key
+        RESULT_CACHE = resultCacheDir.isEmpty() ? null : new ShardResultCache(new File(resultCacheDir, "exporter"),
+                "exporter-v1", String.join(",", KEY_PATTERNS.patternList()),
+                props.getProperty("VALUE_DECODER", DEFAULT_VALUE_DECODER).trim().toLowerCase(),
+                props.getProperty("VALUE_THRIFT_FIELDS", "").trim());
+        COVERAGE = ScanCoverage.from(props);
+        SAMPLE_SIZE = Integer.parseInt(props.getProperty("SAMPLE_SIZE", "0").trim());
+        SAMPLE_CONFIDENCE = Double.parseDouble(props.getProperty("SAMPLE_CONFIDENCE", String.valueOf(DEFAULT_SAMPLE_CONFIDENCE)).trim());
+        SAMPLE_MAX_SECONDS = Integer.parseInt(props.getProperty("SAMPLE_MAX_SECONDS", String.valueOf(DEFAULT_SAMPLE_MAX_SECONDS)).trim());
+        SAMPLE_RUN = Integer.parseInt(props.getProperty("SAMPLE_RUN", String.valueOf(DEFAULT_SAMPLE_RUN)).trim());
+        String seed = props.getProperty("SAMPLE_SEED", "").trim();
+        SAMPLE_SEED = seed.isEmpty() ? System.nanoTime() : Long.parseLong(seed);
+
+        long cacheMb = Long.parseLong(props.getProperty("SHARD_CACHE_MB", String.valueOf(DEFAULT_SHARD_CACHE_MB)));
+        int maxOpen = Integer.parseInt(props.getProperty("SHARD_MAX_OPEN", String.valueOf(DEFAULT_SHARD_MAX_OPEN)));
+        int prefetch = Integer.parseInt(props.getProperty("SHARD_PREFETCH", String.valueOf(DEFAULT_SHARD_PREFETCH)));
+        int maxOpenFiles = Integer.parseInt(props.getProperty("SHARD_MAX_OPEN_FILES", "-1"));
+        SHARDS = new ShardHandleManager(cacheMb * 1024 * 1024, maxOpen, prefetch, maxOpenFiles);
+
+        String promFile = props.getProperty("METRICS_PROMETHEUS_FILE", "").trim();
+        METRICS.start(Boolean.parseBoolean(props.getProperty("METRICS_JMX", "true").trim()),
+                promFile.isEmpty() ? null : new File(promFile),
+                Integer.parseInt(props.getProperty("METRICS_DUMP_SECONDS", "15").trim()));
+        if (Boolean.parseBoolean(props.getProperty("METRICS_ROCKSDB_STATS", "false").trim())) SHARDS.enableStatistics();
+        THROTTLE.configure(props, Boolean.parseBoolean(props.getProperty("METRICS_JMX", "true").trim()));
 
         log("Configuration loaded successfully");
     }
@@ -92,10 +417,26 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
     }
 
     // ================= CABINET SCAN =================
-    private static Set<String> scanCabinets() throws Exception {
-        Set<String> allCabinetIds = new HashSet<>();
+    private static CabinetIdSet scanCabinets() throws Exception {
+        return scanCabinets(false);
+    }
+
+    /**
+     * With {@code timeBoxed}, a passed MAX_RUNTIME_SECONDS deadline ends the scan early with the
+     * cabinets read so far; the index scan then stops before its first shard. The fall-back load in
+     * the middle of an index scan is not time-boxed, since the key in flight needs the whole set.
+     */
+    private static CabinetIdSet scanCabinets(boolean timeBoxed) throws Exception {
         List<File> folders = findFolders(new File(CABINET_BASE));
         log("Found " + folders.size() + " cabinet folders to process");
+        if (CABINET_SNAPSHOT_DIR != null) return loadCabinetSnapshot(folders);
+
+        CabinetIdSet allCabinetIds = new CabinetIdSet();
+        List<File> shardOrder = shardsInOrder(folders);
+        SHARDS.schedule(shardOrder);
+        METRICS.expectUnits(shardOrder.size());
+        expectKeys(shardOrder);
+        LongAdder cabinetCounter = METRICS.counter("cabinet_keys");
 
         int folderCount = 0;
         long totalKeys = 0;
@@ -106,100 +447,631 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
             log("Processing cabinet folder " + folderCount + "/" + folders.size() + ": " + folder.getName());
 
             for (File shard : findRocksShards(new File(folder, "rocks"))) {
-                String deviceUuid = shard.getName();
-                Crypto crypto = getCrypto(deviceUuid);
-
-                try (RocksDB db = RocksDB.openReadOnly(shard.getAbsolutePath());
-                     RocksIterator it = db.newIterator()) {
-                    for (it.seekToFirst(); it.isValid(); it.next()) {
-                        byte[] key = decrypt(it.key(), crypto);
-                        String uuid = bytesToUuidIfPossible(key);
-                        if (uuid != null) {
-                            allCabinetIds.add(uuid.toLowerCase());
-                            folderKeys++;
-                            totalKeys++;
-                        }
-                    }
-                }
+                if (timeBoxed && COVERAGE.expired()) break;
+                folderKeys += scanCabinetShard(shard, folder.getName(), allCabinetIds, cabinetCounter, timeBoxed);
+                METRICS.unitDone();
             }
 
+            totalKeys += folderKeys;
             log("Folder '" + folder.getName() + "' processed: " + folderKeys + " keys");
         }
 
+        allCabinetIds.seal();
         log("Cabinet loading complete: " + allCabinetIds.size() + " unique cabinet IDs from " + totalKeys + " total keys");
         return allCabinetIds;
     }
 
+    private static long scanCabinetShard(File shard, String folder, CabinetIdSet into, LongAdder cabinetCounter,
+                                         boolean timeBoxed) throws Exception {
+        Crypto crypto = getCrypto(shard.getName());
+        long keys = 0;
+        try (ShardHandleManager.Handle handle = SHARDS.acquire(shard);
+             RocksIterator it = handle.db().newIterator()) {
+            long mark = System.nanoTime();
+            for (it.seekToFirst(); it.isValid(); mark = System.nanoTime(), it.next()) {
+                if (timeBoxed && COVERAGE.expired()) break;
+                byte[] rawKey = it.key();
+                long step = System.nanoTime() - mark;
+                METRICS.iteration(step);
+                METRICS.record(rawKey.length);
+                THROTTLE.acquire(rawKey.length, step);
+
+                byte[] key = decrypt(rawKey, crypto);
+                String uuid = bytesToUuidIfPossible(key);
+                if (uuid != null) {
+                    into.add(uuid.toLowerCase(), folder);
+                    cabinetCounter.increment();
+                    keys++;
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * With {@code CABINET_SNAPSHOT_DIR} set, maps {@code cabinets.snap} when every cabinet shard still
+     * has the fingerprint it was built from. Otherwise rescans only the shards whose per-shard run in
+     * {@code shards/} is out of date, merges all runs into a new snapshot and maps that.
+     */
+    private static CabinetIdSet loadCabinetSnapshot(List<File> folders) throws Exception {
+        File dir = new File(CABINET_SNAPSHOT_DIR);
+        File snapFile = new File(dir, "cabinets.snap");
+        List<File> shards = new ArrayList<>();
+        List<String> shardFolders = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Long> fingerprints = new ArrayList<>();
+        for (File folder : folders) {
+            for (File shard : findRocksShards(new File(folder, "rocks"))) {
+                shards.add(shard);
+                shardFolders.add(folder.getName());
+                keys.add(folder.getName() + "/" + shard.getName());
+                fingerprints.add(ShardFingerprint.of(shard));
+            }
+        }
+
+        CabinetSnapshot snapshot = CabinetSnapshot.open(snapFile);
+        if (snapshot != null && snapshot.covers(keys, fingerprints)) {
+            CabinetIdSet mapped = new CabinetIdSet(snapshot);
+            log("Cabinet snapshot is current: mapped " + mapped.size() + " cabinet IDs from " + snapFile.getAbsolutePath());
+            return mapped;
+        }
+
+        List<CabinetSnapshot> runs = new ArrayList<>();
+        List<Integer> stale = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            CabinetSnapshot run = CabinetSnapshot.open(runFile(dir, keys.get(i)));
+            boolean current = run != null && run.covers(keys.subList(i, i + 1), fingerprints.subList(i, i + 1));
+            runs.add(current ? run : null);
+            if (!current) stale.add(i);
+        }
+        log("Cabinet snapshot out of date: rescanning " + stale.size() + " of " + shards.size() + " cabinet shards");
+
+        List<File> staleShards = new ArrayList<>();
+        for (int i : stale) staleShards.add(shards.get(i));
+        SHARDS.schedule(staleShards);
+        METRICS.expectUnits(staleShards.size());
+        expectKeys(staleShards);
+        LongAdder cabinetCounter = METRICS.counter("cabinet_keys");
+        for (int i : stale) {
+            CabinetIdSet one = new CabinetIdSet();
+            scanCabinetShard(shards.get(i), shardFolders.get(i), one, cabinetCounter, false);
+            File run = runFile(dir, keys.get(i));
+            CabinetSnapshot.write(run, one.seal(), keys.get(i), fingerprints.get(i));
+            runs.set(i, CabinetSnapshot.open(run));
+            METRICS.unitDone();
+        }
+
+        CabinetSnapshot.merge(runs, snapFile, keys, fingerprints);
+        pruneRuns(new File(dir, "shards"), new HashSet<>(keys));
+        CabinetIdSet mapped = new CabinetIdSet(Objects.requireNonNull(CabinetSnapshot.open(snapFile), snapFile.toString()));
+        log("Cabinet loading complete: " + mapped.size() + " unique cabinet IDs, snapshot written to " + snapFile.getAbsolutePath());
+        return mapped;
+    }
+
+    private static File runFile(File dir, String key) {
+        return new File(new File(dir, "shards"), key + ".snap");
+    }
+
+    /** Deletes runs of shards that no longer exist, so the directory does not grow with shard churn. */
+    private static void pruneRuns(File shardsDir, Set<String> keys) {
+        File[] folderDirs = shardsDir.listFiles(File::isDirectory);
+        if (folderDirs == null) return;
+        for (File folderDir : folderDirs) {
+            File[] runs = folderDir.listFiles((d, name) -> name.endsWith(".snap"));
+            if (runs == null) continue;
+            for (File run : runs) {
+                String key = folderDir.getName() + "/" + run.getName().substring(0, run.getName().length() - ".snap".length());
+                if (!keys.contains(key) && !run.delete()) System.err.println("Could not delete stale cabinet run " + run);
+            }
+        }
+    }
+
+    // ================= CABINET LOOKUP =================
+    /**
+     * {@code CABINET_LOOKUP}: returns point lookups to answer the index scan with, or null to load the
+     * cabinet set first. {@code auto} picks lookups only when even the cheapest run, DEFAULT_ORPHAN_LIMIT
+     * orphans with one candidate each, stays within CABINET_LOOKUP_RATIO of the estimated cabinet keys;
+     * that budget then also bounds the scan, which loads the set once it is used up. The dangling report
+     * needs every cabinet and a current snapshot maps faster than any lookup, so both keep the load.
+     */
+    private static CabinetLookup openCabinetLookup() throws Exception {
+        if (CABINET_LOOKUP.equals("scan")) return null;
+        if (DANGLING_CABINETS) {
+            if (CABINET_LOOKUP.equals("lookup")) log("CABINET_LOOKUP=lookup ignored: DANGLING_CABINETS needs every cabinet ID");
+            return null;
+        }
+        if (CABINET_LOOKUP.equals("auto") && CABINET_SNAPSHOT_DIR != null) return null;
+
+        CabinetLookup lookup = new CabinetLookup(shardsInOrder(findFolders(new File(CABINET_BASE))), SHARDS.options());
+        // lookups only find exact lower/upper-case keys; a scan also accepts NUL padding and mixed case
+        String inexact = lookup.inexactKey(CABINET_LOOKUP_SAMPLE);
+        if (CABINET_LOOKUP.equals("lookup")) {
+            cabinetLookupBudget = Long.MAX_VALUE;
+            log("Cabinet lookups: point reads in " + lookup.shardCount() + " cabinet shards");
+            if (inexact != null) log("WARNING: found a " + inexact + "; lookups will report its references as orphans");
+            return lookup;
+        }
+        if (inexact != null) {
+            lookup.close();
+            log("Cabinet lookups: found a " + inexact + " that lookups cannot find, loading the set");
+            return null;
+        }
+        long cabinets = lookup.estimatedKeys();
+        long budget = (long) (cabinets * CABINET_LOOKUP_RATIO);
+        long minimum = (long) ORPHAN_LIMIT * lookup.probesPerCandidate();
+        if (minimum > budget) {
+            lookup.close();
+            log(String.format("Cabinet lookups: at least %,d probes against ~%,d cabinet keys, loading the set", minimum, cabinets));
+            return null;
+        }
+        cabinetLookupBudget = budget;
+        log(String.format("Cabinet lookups: point reads in %d cabinet shards (~%,d keys), budget %,d probes; "
+                        + "first %,d keys per shard sampled, all exact lower/upper case",
+                lookup.shardCount(), cabinets, budget, CABINET_LOOKUP_SAMPLE));
+        return lookup;
+    }
+
     // ================= INDEX SCAN =================
-    private static int scanIndexes(PrintWriter writer, Set<String> cabinetIds, int limit) throws Exception {
+    /**
+     * With {@code DANGLING_CABINETS=true} every index value has to be seen, so reaching the orphan
+     * limit only stops writing orphans; the scan carries on marking referenced cabinets.
+     *
+     * <p>Keys are classified against every configured prefix at once. Orphans of the first prefix
+     * are named after their folder as before, others {@code folder:prefix}; {@code families} receives
+     * per-prefix index keys, cabinet references and orphans.
+     *
+     * <p>With {@code SHARD_RESULT_CACHE_DIR} set, every fully scanned shard leaves its matched keys
+     * and candidate cabinet IDs in the cache; an unchanged shard is then replayed from there against
+     * the current cabinet set instead of being decrypted again.
+     *
+     * <p>Candidates are checked against {@code scan.cabinetIds}, or by {@code scan.lookup} until its
+     * budget runs out (see {@link #openCabinetLookup}).
+     */
+    private static int scanIndexes(IndexScan scan) throws Exception {
         List<File> folders = findFolders(new File(INDEX_BASE));
         log("Found " + folders.size() + " index folders to scan");
+        List<File> shardOrder = shardsInOrder(folders);
+        shardOrder.removeIf(s -> !PARTITION.claims(s));
+        COVERAGE.register(shardOrder);
+        shardOrder.removeIf(COVERAGE::done);
+        METRICS.expectUnits(shardOrder.size());
+        scan.shards = shardOrder.size();
 
-        int orphanCount = 0;
-        long totalKeys = 0;
-        long indexKeys = 0;
+        Map<File, ShardResultCache.Entry> cached = new HashMap<>();
+        if (RESULT_CACHE != null) {
+            // a shard resumed part-way can neither replay nor become an entry
+            for (File shard : shardOrder) cached.put(shard, COVERAGE.resumeAfter(shard) == null ? RESULT_CACHE.open(shard) : null);
+            // only shards that will actually be opened are worth prefetching
+            scan.toOpen = new ArrayList<>();
+            for (File shard : shardOrder) if (cached.get(shard) == null || !cached.get(shard).hit()) scan.toOpen.add(shard);
+            log("Shard result cache: " + (shardOrder.size() - scan.toOpen.size()) + " of " + shardOrder.size()
+                    + " index shards unchanged");
+        } else {
+            scan.toOpen = shardOrder;
+        }
+        SHARDS.schedule(scan.toOpen);
+        expectKeys(scan.toOpen);
 
         for (File folder : folders) {
+            List<File> shards = findRocksShards(new File(folder, "rocks"));
+            shards.removeIf(s -> !PARTITION.claims(s) || COVERAGE.done(s));
+            if (shards.isEmpty()) continue;
+
             log("Scanning index folder: " + folder.getName());
-            long folderKeys = 0;
-            long folderIndexKeys = 0;
-            long folderOrphans = 0;
+            scan.startFolder(folder.getName());
 
-            for (File shard : findRocksShards(new File(folder, "rocks"))) {
-                // Correct DEVICE_UUID for this shard
-                String deviceUuid = shard.getName();
-                Crypto crypto = getCrypto(deviceUuid);
-
-                try (RocksDB db = RocksDB.openReadOnly(shard.getAbsolutePath());
-                     RocksIterator it = db.newIterator()) {
-                    for (it.seekToFirst(); it.isValid(); it.next()) {
-                        folderKeys++;
-                        totalKeys++;
-
-                        byte[] keyBytes = it.key();
-                        byte[] valBytes = it.value();
-                        String keyStr = safeUtf8(decrypt(keyBytes, crypto));
-
-                        if (!keyStr.contains(INDEX_PREFIX)) continue;
-
-                        folderIndexKeys++;
-                        indexKeys++;
-
-                        byte[] decryptedVal = decrypt(valBytes, crypto);
-                        Set<String> uuids = extractUuidsFromBytes(decryptedVal);
-                        uuids.addAll(extractUuidsFromString(safeUtf8(decryptedVal)));
-
-                        boolean related = uuids.stream().anyMatch(u -> cabinetIds.contains(u.toLowerCase()));
-
-                        if (!related) {
-                            writer.println(csv("index") + "," + csv(folder.getName()) + "," + csv(keyStr)
-                                    + "," + csv("false") + "," + csv(""));
-                            orphanCount++;
-                            folderOrphans++;
-
-                            if (orphanCount >= limit) {
-                                log("Reached orphan limit (" + limit + "). Stopping scan.");
-                                return orphanCount;
-                            }
-                        }
-
-                        if (totalKeys % 10000 == 0) {
-                            log("Progress: " + totalKeys + " keys processed, " + indexKeys + " index keys, " + orphanCount + " orphans");
-                        }
+            for (File shard : shards) {
+                ShardResultCache.Entry entry = cached.get(shard);
+                boolean complete = !COVERAGE.expired() && (entry != null && entry.hit()
+                        ? replayIndexShard(shard, entry.file, scan)
+                        : scanIndexShard(shard, scan, entry));
+                if (!complete) {
+                    if (COVERAGE.expired()) {
+                        log("MAX_RUNTIME_SECONDS reached. Stopping scan after " + scan.totalKeys + " keys, "
+                                + scan.shardsDone + " of " + scan.shards + " shards complete");
                     }
+                    return scan.orphanCount;
+                }
+                METRICS.unitDone();
+                scan.shardsDone++;
+            }
+
+            log("Folder '" + folder.getName() + "' complete: " + scan.folderKeys + " keys (" + scan.folderIndexKeys
+                    + " index keys), " + scan.folderOrphans + " orphans found");
+        }
+
+        log("Index scan complete: processed " + scan.totalKeys + " total keys, " + scan.indexKeys
+                + " index keys, found " + scan.orphanCount + " orphans");
+        return scan.orphanCount;
+    }
+
+    /** Returns false if the orphan limit or the MAX_RUNTIME_SECONDS deadline ended the scan inside this shard. */
+    private static boolean scanIndexShard(File shard, IndexScan scan, ShardResultCache.Entry cacheEntry) throws Exception {
+        Crypto crypto = getCrypto(shard.getName());
+        scan.opened++;
+        File tmp = cacheEntry != null ? cacheEntry.newTemp() : null;
+        boolean complete = false;
+        long shardKeys = 0;
+        try (DataOutputStream cache = tmp != null
+                ? new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)) : null;
+             ShardHandleManager.Handle handle = SHARDS.acquire(shard);
+             RocksIterator it = handle.db().newIterator()) {
+            long mark = System.nanoTime();
+            byte[] keyBytes = null;
+            for (COVERAGE.seek(it, shard); it.isValid(); mark = System.nanoTime(), it.next()) {
+                // every key before this one is done, so the manifest can resume after it
+                if (COVERAGE.expired()) {
+                    COVERAGE.partial(shard, shardKeys, keyBytes);
+                    return false;
+                }
+                shardKeys++;
+                scan.key();
+
+                keyBytes = it.key();
+                byte[] valBytes = it.value();
+                long step = System.nanoTime() - mark;
+                METRICS.iteration(step);
+                METRICS.record(keyBytes.length + valBytes.length);
+                THROTTLE.acquire(keyBytes.length + valBytes.length, step);
+
+                byte[] plainKey = decrypt(keyBytes, crypto);
+                long matched = KEY_PATTERNS.match(plainKey);
+                if (matched == 0) continue;
+
+                byte[] decryptedVal = decrypt(valBytes, crypto);
+                Set<String> uuids = VALUE_DECODER.cabinetRefs(decryptedVal);
+
+                boolean related = scan.related(uuids);
+                if (cache != null) writeCachedEntry(cache, matched, plainKey, uuids);
+
+                if (!scan.indexEntry(plainKey, matched, related, uuids.size())) {
+                    COVERAGE.partial(shard, shardKeys, keyBytes);
+                    return false;
+                }
+            }
+            if (cache != null) {
+                cache.writeLong(0);
+                cache.writeLong(shardKeys);
+            }
+            complete = true;
+            COVERAGE.complete(shard, shardKeys);
+        } finally {
+            if (tmp != null) {
+                if (complete) cacheEntry.commit(tmp);
+                else Files.deleteIfExists(tmp.toPath());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cache entry layout: per matched key {@code mask:long, key, canonical candidates as (msb, lsb),
+     * other candidates as UTF}, then {@code 0L} and the shard's total key count.
+     */
+    private static void writeCachedEntry(DataOutputStream out, long matched, byte[] plainKey, Set<String> uuids)
+            throws IOException {
+        out.writeLong(matched);
+        out.writeInt(plainKey.length);
+        out.write(plainKey);
+        int canonical = 0;
+        for (String u : uuids) if (CabinetIdSet.isCanonical(u)) canonical++;
+        out.writeInt(canonical);
+        for (String u : uuids) {
+            if (!CabinetIdSet.isCanonical(u)) continue;
+            out.writeLong(CabinetIdSet.msb(u));
+            out.writeLong(CabinetIdSet.lsb(u));
+        }
+        out.writeInt(uuids.size() - canonical);
+        for (String u : uuids) if (!CabinetIdSet.isCanonical(u)) out.writeUTF(u);
+    }
+
+    private static boolean replayIndexShard(File shard, File cacheFile, IndexScan scan) throws Exception {
+        METRICS.counter("cached_shards").increment();
+        long replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16))) {
+            while (true) {
+                long matched = in.readLong();
+                if (matched == 0) break;
+                byte[] plainKey = new byte[in.readInt()];
+                in.readFully(plainKey);
+                boolean related = false;
+                // without a loaded set the candidates go to the lookups as text, like a live scan's
+                List<String> candidates = scan.cabinetIds == null ? new ArrayList<>() : null;
+                int refs = in.readInt();
+                for (int i = 0; i < refs; i++) {
+                    long m = in.readLong(), l = in.readLong();
+                    if (candidates != null) candidates.add(new UUID(m, l).toString());
+                    else related |= scan.cabinetIds.mark(m, l);
+                }
+                int irregular = in.readInt();
+                for (int i = 0; i < irregular; i++) {
+                    String u = in.readUTF();
+                    if (candidates != null) candidates.add(u);
+                    else related |= scan.cabinetIds.mark(u);
+                }
+                if (candidates != null) related = scan.related(candidates);
+                METRICS.record(plainKey.length);
+                replayed++;
+                if (!scan.indexEntry(plainKey, matched, related, refs + irregular)) {
+                    // entries hold plain keys only, so there is no raw key to resume after
+                    COVERAGE.partial(shard, replayed, null);
+                    return false;
+                }
+            }
+            long keys = in.readLong();
+            scan.cachedKeys(keys);
+            COVERAGE.complete(shard, keys);
+        }
+        return true;
+    }
+
+    /** Orphan bookkeeping shared by live scans and cache replays. */
+    private static final class IndexScan {
+        final CsvSink writer;
+        final ResultStore store;
+        CabinetIdSet cabinetIds; // null while candidates are answered by lookup
+        CabinetLookup lookup;
+        final int limit;
+        final long[][] families;
+        final LongAdder indexCounter = METRICS.counter("index_keys");
+        final LongAdder orphanCounter = METRICS.counter("orphans");
+
+        String folder;
+        int orphanCount;
+        long totalKeys;
+        long indexKeys;
+        long folderKeys;
+        long folderIndexKeys;
+        long folderOrphans;
+        boolean limitReached;
+
+        // where the scan is, so a fall-back load can hand prefetching and progress back to the index shards
+        List<File> toOpen;
+        int opened;
+        int shards;
+        int shardsDone;
+
+        IndexScan(CsvSink writer, ResultStore store, CabinetIdSet cabinetIds, CabinetLookup lookup, int limit,
+                  long[][] families) {
+            this.writer = writer;
+            this.store = store;
+            this.cabinetIds = cabinetIds;
+            this.lookup = lookup;
+            this.limit = limit;
+            this.families = families;
+        }
+
+        void startFolder(String name) {
+            folder = name;
+            folderKeys = 0;
+            folderIndexKeys = 0;
+            folderOrphans = 0;
+        }
+
+        void key() {
+            folderKeys++;
+            totalKeys++;
+        }
+
+        /**
+         * Whether any candidate is a cabinet. With the loaded set every candidate is marked, not just
+         * the first hit, so the dangling report is exact.
+         */
+        boolean related(Collection<String> uuids) throws Exception {
+            if (cabinetIds == null && lookup.probes() > cabinetLookupBudget) loadCabinets();
+            if (cabinetIds == null) return lookup.containsAny(uuids);
+            boolean related = false;
+            for (String u : uuids) related |= cabinetIds.mark(u);
+            return related;
+        }
+
+        private void loadCabinets() throws Exception {
+            log(String.format("Cabinet lookups used up their budget (%,d probes); loading cabinets for the rest of the scan",
+                    lookup.probes()));
+            lookup.close();
+            lookup = null;
+            METRICS.startPhase("cabinet_scan");
+            long startTime = System.currentTimeMillis();
+            cabinetIds = scanCabinets();
+            log("Loaded " + cabinetIds.size() + " cabinet IDs in " + (System.currentTimeMillis() - startTime) + "ms");
+            METRICS.startPhase("index_scan");
+            METRICS.expectUnits(shards - shardsDone);
+            SHARDS.schedule(toOpen.subList(opened, toOpen.size()));
+            expectKeys(toOpen.subList(opened, toOpen.size()));
+        }
+
+        /** All keys of a replayed shard, matched or not. */
+        void cachedKeys(long n) {
+            folderKeys += n;
+            totalKeys += n;
+        }
+
+        /**
+         * Returns false once the orphan limit ends the scan. The key's families are all written first, so
+         * the scan stops between keys and a partial shard can resume after this one.
+         */
+        boolean indexEntry(byte[] plainKey, long matched, boolean related, int refs) throws Exception {
+            folderIndexKeys++;
+            indexKeys++;
+            indexCounter.increment();
+
+            String keyStr = related ? null : safeUtf8(plainKey);
+            boolean stop = false;
+            for (int f = 0; f < KEY_PATTERNS.size(); f++) {
+                if ((matched & 1L << f) == 0) continue;
+                families[0][f]++;
+                families[1][f] += refs;
+                if (related) continue;
+                families[2][f]++;
+                if (limitReached) continue;
+
+                String name = f == 0 ? folder : folder + ":" + KEY_PATTERNS.pattern(f);
+                if (writer != null) writer.quoted("index").quoted(name).quoted(keyStr)
+                        .quoted("false").quoted("").endRow();
+                if (store != null) store.putOrphan(name, keyStr);
+                orphanCount++;
+                folderOrphans++;
+                orphanCounter.increment();
+
+                if (orphanCount < limit || stop) continue;
+                if (!DANGLING_CABINETS) {
+                    log("Reached orphan limit (" + limit + "). Stopping scan.");
+                    stop = true;
+                    continue;
                 }
+                log("Reached orphan limit (" + limit + "). Continuing scan for the dangling-cabinet report.");
+                limitReached = true;
             }
+            return !stop;
+        }
+    }
+
+    // ================= REMEDIATION =================
+    /**
+     * {@code REMEDIATE_CSV} set: deletes the reviewed orphans it lists (or, by default, only reports
+     * what would be deleted) and writes {@code remediation_report.csv} and {@code remediation_skipped.csv}.
+     */
+    private static void remediate(File outDir) throws Exception {
+        log("=========== REMEDIATING " + REMEDIATE_CSV + (REMEDIATE_DRY_RUN ? " (DRY RUN)" : "")
+                + (REMEDIATE_OFFLINE && !REMEDIATE_DRY_RUN ? " (offline, WAL disabled)" : "") + " ===========");
+        METRICS.startPhase("cabinet_scan");
+        long startTime = System.currentTimeMillis();
+        File report = new File(outDir, "remediation_report.csv");
+        File skipped = new File(outDir, "remediation_skipped.csv");
+        // every copy of a key is checked against the cabinets as they are now before it is deleted: the set
+        // as a scan loads it (point reads alone miss mixed-case and NUL-padded keys), then live lookups
+        CabinetIdSet cabinetSet = scanCabinets();
+        log("Loaded " + cabinetSet.size() + " cabinet IDs in " + (System.currentTimeMillis() - startTime) + "ms");
+        METRICS.startPhase("remediate");
+        CabinetLookup cabinets = new CabinetLookup(shardsInOrder(findFolders(new File(CABINET_BASE))), SHARDS.options());
+        try {
+            OrphanRemediation r = new OrphanRemediation(new File(INDEX_BASE), SHARDS.options(), VALUE_DECODER, cabinetSet,
+                    cabinets, REMEDIATE_DRY_RUN, REMEDIATE_OFFLINE, REMEDIATE_BATCH_SIZE, REMEDIATE_COMPACT_RANGES);
+            r.run(new File(REMEDIATE_CSV), report, skipped);
+            log(String.format("%s %,d orphan index entries in %dms; %,d rows skipped → %s",
+                    REMEDIATE_DRY_RUN ? "Would delete" : "Deleted", r.deleted, System.currentTimeMillis() - startTime,
+                    r.skipped, skipped.getAbsolutePath()));
+        } finally {
+            cabinets.close();
+        }
+        log("Per-shard report written → " + report.getAbsolutePath());
+    }
+
+    // ================= INVENTORY =================
+    /**
+     * {@code INVENTORY_ONLY=true}: writes {@code vault_inventory.csv} (one row per index and cabinet
+     * shard) and {@code vault_inventory_folders.csv} from RocksDB properties and file sizes only.
+     */
+    private static void inventory(File outDir) throws Exception {
+        log("=========== INVENTORY (" + INVENTORY_THREADS + " threads) ===========");
+        METRICS.startPhase("inventory");
+        long startTime = System.currentTimeMillis();
+        List<VaultInventory.Shard> shards = new ArrayList<>();
+        shards.addAll(VaultInventory.collect("index", findFolders(new File(INDEX_BASE)), SHARDS.options(), INVENTORY_THREADS));
+        shards.addAll(VaultInventory.collect("cabinet", findFolders(new File(CABINET_BASE)), SHARDS.options(), INVENTORY_THREADS));
+
+        long keys = 0, sst = 0, wal = 0, failed = 0;
+        for (VaultInventory.Shard s : shards) {
+            keys += s.estimatedKeys;
+            sst += s.sstBytes;
+            wal += s.walBytes;
+            if (!s.error.isEmpty()) failed++;
+        }
+        File shardFile = new File(outDir, "vault_inventory.csv");
+        File folderFile = new File(outDir, "vault_inventory_folders.csv");
+        VaultInventory.write(shards, shardFile, folderFile);
+        log(String.format("Inventoried %,d shards in %dms: ~%,d keys, %,d SST bytes, %,d WAL bytes%s",
+                shards.size(), System.currentTimeMillis() - startTime, keys, sst, wal,
+                failed > 0 ? ", " + failed + " could not be opened" : ""));
+        log("Inventory written → " + shardFile.getAbsolutePath() + ", " + folderFile.getAbsolutePath());
+    }
+
+    /** With {@code INVENTORY_FILE}, the current phase's ETA goes by the estimated keys of {@code shards}. */
+    private static void expectKeys(List<File> shards) {
+        if (INVENTORY != null) METRICS.expectRecords(INVENTORY.estimatedKeys(shards));
+    }
+
+    // ================= SAMPLING =================
+    /** {@code SAMPLE_SIZE > 0}: estimate the orphan rate from random index entries instead of exporting. */
+    private static void sampleOrphanRate(File outDir) throws Exception {
+        log("=========== SAMPLING " + SAMPLE_SIZE + " INDEX ENTRIES (seed " + SAMPLE_SEED + ") ===========");
+        METRICS.startPhase("sample");
+        long startTime = System.currentTimeMillis();
+        List<File> indexShards = shardsInOrder(findFolders(new File(INDEX_BASE)));
+        OrphanSampler.Estimate e;
+        try (CabinetLookup cabinets = new CabinetLookup(shardsInOrder(findFolders(new File(CABINET_BASE))), SHARDS.options())) {
+            // the sample is classified with point reads, which miss cabinet keys a scan would accept
+            String inexact = cabinets.inexactKey(CABINET_LOOKUP_SAMPLE);
+            if (inexact != null) log("WARNING: found a " + inexact + "; the sample counts its references as orphans,"
+                    + " so the estimate is too high");
+            e = new OrphanSampler(indexShards, cabinets, SHARDS, VALUE_DECODER, KEY_PATTERNS,
+                    SAMPLE_SIZE, SAMPLE_RUN, SAMPLE_CONFIDENCE, SAMPLE_MAX_SECONDS, SAMPLE_SEED).run();
+        }
+        long seconds = (System.currentTimeMillis() - startTime) / 1000;
+
+        if (e.timedOut) log("SAMPLE_MAX_SECONDS reached; estimate uses " + e.indexEntries + " of " + SAMPLE_SIZE + " entries");
+        log(String.format("Orphan rate %.4f%% (%.0f%% CI %.4f%% - %.4f%%) from %d orphans in %d index entries"
+                        + " (effective n %.0f), %d probes over %d/%d shards",
+                e.rate * 100, SAMPLE_CONFIDENCE * 100, e.rateLow * 100, e.rateHigh * 100, e.orphans, e.indexEntries,
+                e.effectiveSampleSize, e.probes, e.shardsSampled, indexShards.size()));
+        log(String.format("Estimated orphans %.0f (%.0f - %.0f) of ~%.0f index entries",
+                e.estimatedOrphans, e.orphansLow(), e.orphansHigh(), e.estimatedIndexEntries));
+
+        File file = new File(outDir, "orphan_estimate.csv");
+        try (CsvSink out = new CsvSink(file, 0, 1 << 16)) {
+            out.line("sampled_index_entries,sampled_orphans,orphan_rate,rate_low,rate_high,confidence,"
+                    + "estimated_index_entries,estimated_orphans,orphans_low,orphans_high,shards_sampled,shards_total,seconds");
+            out.field(e.indexEntries).field(e.orphans)
+                    .field(String.format("%.6f", e.rate)).field(String.format("%.6f", e.rateLow)).field(String.format("%.6f", e.rateHigh))
+                    .field(String.valueOf(SAMPLE_CONFIDENCE))
+                    .field(Math.round(e.estimatedIndexEntries)).field(Math.round(e.estimatedOrphans))
+                    .field(Math.round(e.orphansLow())).field(Math.round(e.orphansHigh()))
+                    .field(e.shardsSampled).field(indexShards.size()).field(seconds).endRow();
+        }
+        log("Estimate written → " + file.getAbsolutePath());
+    }
+
+    // ================= DANGLING CABINETS =================
+    /** Writes cabinets no scanned index referenced, sorted by ID; workers write headerless parts. */
+    private static long writeDangling(CabinetIdSet cabinetIds, File file, boolean header) throws IOException {
+        long[] n = {0};
+        try (CsvSink out = new CsvSink(file, CSV_GZIP ? CSV_GZIP_THREADS : 0, CSV_BUFFER_KB * 1024)) {
+            if (header) out.line(DANGLING_HEADER);
+            cabinetIds.forEachUnreferenced((id, folder) -> {
+                out.quoted(id).quoted(folder).endRow();
+                n[0]++;
+            });
+        }
+        METRICS.counter("dangling_cabinets").add(n[0]);
+        return n[0];
+    }
 
-            log("Folder '" + folder.getName() + "' complete: " + folderKeys + " keys (" + folderIndexKeys
-                    + " index keys), " + folderOrphans + " orphans found");
+    /** One row per configured prefix: {@code prefix,index_keys,cabinet_refs,orphans}. */
+    private static void writeFamilies(File file, long[][] families, boolean header) throws IOException {
+        try (CsvSink out = new CsvSink(file, 0, 1 << 16)) {
+            if (header) out.line(FAMILIES_HEADER);
+            for (int f = 0; f < KEY_PATTERNS.size(); f++) {
+                out.quoted(KEY_PATTERNS.pattern(f)).field(families[0][f]).field(families[1][f]).field(families[2][f]).endRow();
+            }
         }
+    }
 
-        log("Index scan complete: processed " + totalKeys + " total keys, " + indexKeys + " index keys, found " + orphanCount + " orphans");
-        return orphanCount;
+    /** Adds a worker's headerless {@link #writeFamilies} part; rows are in configuration order. */
+    private static void readFamilies(File part, long[][] families) throws IOException {
+        List<String> lines = Files.readAllLines(part.toPath(), StandardCharsets.UTF_8);
+        if (lines.size() != KEY_PATTERNS.size()) {
+            throw new IllegalStateException(part + " has " + lines.size() + " prefixes, expected " + KEY_PATTERNS.size());
+        }
+        for (int f = 0; f < lines.size(); f++) {
+            String line = lines.get(f);
+            // the quoted prefix may itself contain commas; the three counts follow its closing quote
+            String[] counts = line.substring(line.lastIndexOf('"') + 2).split(",");
+            for (int c = 0; c < 3; c++) families[c][f] += Long.parseLong(counts[c]);
+        }
     }
 
     // ================= DECRYPTION =================
-    private static Crypto getCrypto(String deviceUuid) throws Exception {
+    static Crypto getCrypto(String deviceUuid) throws Exception {
         Crypto c = CRYPTO_CACHE.get(deviceUuid);
         if (c != null) return c;
 
@@ -210,19 +1082,22 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
         return c;
     }
 
-    private static byte[] decrypt(byte[] data, Crypto crypto) {
+    static byte[] decrypt(byte[] data, Crypto crypto) {
         if (data == null || data.length % 16 != 0) return data;
+        long start = System.nanoTime();
         try {
             Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
             c.init(Cipher.DECRYPT_MODE, new SecretKeySpec(crypto.key, "AES"), new IvParameterSpec(crypto.iv));
             return c.doFinal(data);
         } catch (Exception e) {
             return data;
+        } finally {
+            METRICS.decrypt(System.nanoTime() - start);
         }
     }
 
     // ================= UTILITIES =================
-    private static List<File> findFolders(File root) {
+    static List<File> findFolders(File root) {
         List<File> out = new ArrayList<>();
         if (!root.exists()) return out;
         for (File f : Objects.requireNonNull(root.listFiles())) {
@@ -232,7 +1107,7 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
         return out;
     }
 
-    private static List<File> findRocksShards(File rocks) {
+    static List<File> findRocksShards(File rocks) {
         List<File> out = new ArrayList<>();
         if (!rocks.exists()) return out;
         for (File f : Objects.requireNonNull(rocks.listFiles())) {
@@ -241,23 +1116,24 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
         return out;
     }
 
-    private static String safeUtf8(byte[] b) {
+    private static List<File> shardsInOrder(List<File> folders) {
+        List<File> out = new ArrayList<>();
+        for (File folder : folders) out.addAll(findRocksShards(new File(folder, "rocks")));
+        return out;
+    }
+
+    static String safeUtf8(byte[] b) {
         if (b == null) return "";
-        int len = 0;
-        for (byte value : b) if (value != 0) len++;
-        byte[] cleaned = new byte[len];
-        int j = 0;
-        for (byte value : b) if (value != 0) cleaned[j++] = value;
-        return new String(cleaned, StandardCharsets.UTF_8);
+        return ByteScan.get().utf8WithoutNul(b);
     }
 
-    private static String bytesToUuidIfPossible(byte[] b) {
+    static String bytesToUuidIfPossible(byte[] b) {
         if (b == null) return null;
         String s = safeUtf8(b);
         return UUID_PATTERN.matcher(s).matches() ? s : null;
     }
 
-    private static Set<String> extractUuidsFromBytes(byte[] bytes) {
+    static Set<String> extractUuidsFromBytes(byte[] bytes) {
         Set<String> uuids = new LinkedHashSet<>();
         if (bytes == null) return uuids;
         for (int i = 0; i + 16 <= bytes.length; i++) {
@@ -276,11 +1152,37 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
         return uuids;
     }
 
-    private static Set<String> extractUuidsFromString(String s) {
+    static Set<String> extractUuidsFromString(String s) {
         Set<String> uuids = new LinkedHashSet<>();
         if (s == null) return uuids;
+        addUuidMatches(s, uuids);
+        addHex32Matches(s, uuids);
+        return uuids;
+    }
+
+    /**
+     * Same as {@code extractUuidsFromString(safeUtf8(bytes))}, but the regexes only see the hex runs
+     * {@link ByteScan} finds; a match cannot span anything else, and most buffers have no such run.
+     */
+    static Set<String> extractUuidsFromText(byte[] bytes) {
+        Set<String> uuids = new LinkedHashSet<>();
+        if (bytes == null) return uuids;
+        int[] runs = ByteScan.get().hexRuns(bytes, 32);
+        if (runs.length == 0) return uuids;
+        String[] texts = new String[runs.length / 2];
+        for (int i = 0; i < texts.length; i++) texts[i] = ByteScan.runText(bytes, runs[2 * i], runs[2 * i + 1]);
+        // all dashed matches before all 32-digit ones, as in the whole-string version
+        for (String t : texts) addUuidMatches(t, uuids);
+        for (String t : texts) addHex32Matches(t, uuids);
+        return uuids;
+    }
+
+    private static void addUuidMatches(String s, Set<String> uuids) {
         Matcher matcher = UUID_PATTERN.matcher(s);
         while (matcher.find()) uuids.add(matcher.group().toLowerCase());
+    }
+
+    private static void addHex32Matches(String s, Set<String> uuids) {
         Matcher m32 = HEX32_PATTERN.matcher(s);
         while (m32.find()) {
             String h = m32.group();
@@ -288,7 +1190,6 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
                     + "-" + h.substring(16,20) + "-" + h.substring(20,32);
             uuids.add(dashed.toLowerCase());
         }
-        return uuids;
     }
 
     private static String bytesToUuidBe(byte[] b) {
@@ -308,17 +1209,18 @@ public class RocksDbFinalExporterOneCSVWithPropertiesFile {
         return bytesToUuidBe(out).toLowerCase();
     }
 
-    private static String bytesToHex(byte[] bytes) {
+    static String bytesToHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
         for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
         return sb.toString();
     }
 
-    private static String csv(String s) {
+    // superseded by CsvSink.quoted in the export path; kept for the csv() benchmark baseline
+    static String csv(String s) {
         return "\"" + (s == null ? "" : s.replace("\"","\"\"")) + "\"";
     }
 
     private static void log(String message) {
-        System.out.println("[" + LOG_FORMAT.format(new Date()) + "] " + message);
+        System.out.println("[" + LocalDateTime.now().format(LOG_FORMAT) + "] " + message);
     }
 }
\ No newline at end of file
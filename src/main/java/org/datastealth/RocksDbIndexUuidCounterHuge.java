@@ -8,9 +8,12 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,27 +21,72 @@ public class RocksDbIndexUuidCounterHuge {
 
     private static String INDEX_BASE;
     private static String OUTPUT_DIR;
-    private static String INDEX_PREFIX;
+    private static KeyPatterns KEY_PATTERNS;
 
     private static final Pattern UUID_PATTERN =
             Pattern.compile("[0-9a-fA-F\\-]{36}");
 
-    private static final SimpleDateFormat LOG_FORMAT =
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter LOG_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
 
     private static final int CHUNK_SIZE = 500_000;
 
-    // Logging and threshold
-    private static final int LOG_INTERVAL = 10_000;
+    // Progress reporting and threshold
+    private static int PROGRESS_INTERVAL_SECONDS;
     private static long DEFAULT_ORPHAN_LIMIT; // Change if needed
 
+    // Result CSV encoding (defaults apply when mergeAndCount is called without loadConfig)
+    private static boolean CSV_GZIP = false;
+    private static int CSV_GZIP_THREADS = Runtime.getRuntime().availableProcessors();
+    private static int CSV_BUFFER_KB = 1024;
+
+    // csv | rocksdb | both; rocksdb bulk-loads Phase 3 output into OUTPUT_DIR/index_uuid_counts.db
+    private static String OUTPUT_FORMAT = "csv";
+
+    // Heavy-hitter modes, applied in the Phase 3 merge stream
+    private static long COUNT_MIN = 1;          // only emit groups with count >= COUNT_MIN
+    private static int TOP_K_PER_INDEX = 0;     // 0 = off; else index_uuid_topk_per_index.csv
+    private static int TOP_K_GLOBAL = 0;        // 0 = off; else index_uuid_topk_global.csv
+    private static boolean WRITE_COUNTS = true; // false = only the top-K files
+
+    // exact = three-phase external sort; sketch = one pass into HyperLogLog / Count-Min sketches
+    private static String COUNT_MODE;
+    private static double SKETCH_DISTINCT_ERROR;
+    private static double SKETCH_CMS_EPSILON;
+    private static double SKETCH_CMS_DELTA;
+    private static int SKETCH_TOP_K;
+
+    // Multi-process split (WORKER_INDEX/WORKER_COUNT) and where the coordinator finds worker parts
+    private static WorkPartition PARTITION;
+    private static String WORKER_PARTS_DIR;
+
+    // Shard inventory from the exporter's INVENTORY_ONLY mode: record totals for the ETA, balanced partitions
+    private static VaultInventory INVENTORY;
+
+    // Shard handles (shared block cache + background open prefetching)
+    private static ShardHandleManager SHARDS;
+    private static final ScanMetrics METRICS = ScanMetrics.get();
+    private static final ScanThrottle THROTTLE = ScanThrottle.get();
+
+    // Per-shard sorted runs kept across runs (SHARD_RESULT_CACHE_DIR); null = off
+    private static ShardResultCache RESULT_CACHE;
+    private static final String PARTIAL_RUN = "uuids_partial.run";
+    // most runs merged at once; more are first merged in batches into intermediate runs
+    private static int MERGE_FAN_IN = 256;
+    private static final String RESUMED_RUN = "uuids_resumed"; // + .<n>.run, one per resumed shard
+
+    // MAX_RUNTIME_SECONDS deadline and the coverage manifest (RESUME_COVERAGE continues an earlier one)
+    private static ScanCoverage COVERAGE;
+    private static final String COVERAGE_FILE = "index_uuid_counts_coverage";
+
     // ================= CRYPTO CACHE =================
-    private static class Crypto {
+    // package-private, like decrypt/extractUuid/mergeAndCount, for the JMH benchmarks
+    static class Crypto {
         final byte[] key;
         final byte[] iv;
         Crypto(byte[] key, byte[] iv) { this.key = key; this.iv = iv; }
     }
-    private static final Map<String,Crypto> CRYPTO_CACHE = new HashMap<>();
+    private static final Map<String,Crypto> CRYPTO_CACHE = new ConcurrentHashMap<>();
 
     public static void main(String[] args) throws Exception {
 
@@ -48,140 +96,416 @@ public class RocksDbIndexUuidCounterHuge {
                 ? args[0]
                 : "/Users/rrashi/IdeaProjects/gitMaven/dss/rocks-exporter.properties";
 
-        loadConfig(configPath);
+        loadConfig(configPath, args);
 
         File outDir = new File(OUTPUT_DIR);
         outDir.mkdirs();
+        if (PARTITION.count > 1) log("Partition: " + PARTITION);
+        log("Byte scanner: " + ByteScan.get().name());
+
+        if (PARTITION.coordinator) {
+            try (ShardHandleManager shards = SHARDS) {
+                mergeWorkers(outDir);
+            }
+            return;
+        }
+
+        if (COUNT_MODE.equals("sketch")) {
+            runSketchMode(outDir);
+            return;
+        }
 
         File rawFile = new File(outDir, "uuids_raw.tmp");
 
-        log("PHASE 1: Extract UUIDs with indexName");
-        extractAllUuids(rawFile);
+        File finalCsv = new File(outDir, CSV_GZIP ? "index_uuid_counts.csv.gz" : "index_uuid_counts.csv");
+        File storeDir = new File(outDir, "index_uuid_counts.db");
+        boolean toCsv = !OUTPUT_FORMAT.equals("rocksdb");
+        boolean toStore = !OUTPUT_FORMAT.equals("csv");
+        List<File> chunks;
+        // with the result cache every shard is sorted into its own run during Phase 1
+        List<File> runs = RESULT_CACHE != null ? new ArrayList<>() : null;
+
+        try (ProgressReporter progress = ProgressReporter.start(PROGRESS_INTERVAL_SECONDS)) {
+            log("PHASE 1: Extract UUIDs with indexName");
+            METRICS.startPhase("extract");
+            long extracted;
+            try (ShardHandleManager shards = SHARDS) {
+                extracted = extractAllUuids(runs == null ? rawFile : null, null, runs);
+            }
 
-        log("PHASE 2: Create sorted chunks");
-        List<File> chunks = createSortedChunks(rawFile);
+            if (runs == null) {
+                METRICS.spill(rawFile.length());
+                log("PHASE 2: Create sorted chunks");
+                METRICS.startPhase("sort_chunks");
+                METRICS.expectRecords(extracted);
+                chunks = createSortedChunks(rawFile);
+            } else {
+                chunks = Collections.emptyList();
+            }
 
-        log("PHASE 3: Merge + Count");
-        File finalCsv = new File(outDir, "index_uuid_counts.csv");
-        mergeAndCount(chunks, finalCsv);
+            log("PHASE 3: Merge + Count");
+            METRICS.startPhase("merge_count");
+            METRICS.expectRecords(extracted);
+            if (PARTITION.isWorker()) {
+                // partial counts stay unfiltered; COUNT_MIN/top-K apply after the coordinator sums them
+                finalCsv = new File(outDir, PARTITION.partName("index_uuid_counts", ".run"));
+                try (RunWriter run = new RunWriter(finalCsv, null)) {
+                    if (runs == null) mergeChunks(chunks, run);
+                    else mergeRuns(runs, true, run);
+                }
+                toStore = false;
+            } else if (runs == null) {
+                mergeAndCount(chunks, toCsv && WRITE_COUNTS ? finalCsv : null, toStore && WRITE_COUNTS ? storeDir : null);
+            } else {
+                try (GroupWriter writer = new GroupWriter(toCsv && WRITE_COUNTS ? finalCsv : null,
+                        toStore && WRITE_COUNTS ? storeDir : null)) {
+                    mergeRuns(runs, true, writer);
+                }
+            }
+        }
 
         rawFile.delete();
         for (File f : chunks) f.delete();
+        new File(outDir, PARTIAL_RUN).delete();
+        File[] resumedRuns = outDir.listFiles((d, n) -> n.startsWith(RESUMED_RUN + "."));
+        for (File f : resumedRuns == null ? new File[0] : resumedRuns) f.delete();
+        writeCoverage(outDir);
+
+        METRICS.stop();
+        if (toCsv && WRITE_COUNTS) log("DONE → " + finalCsv.getAbsolutePath());
+        if (toStore && WRITE_COUNTS) log("DONE → " + storeDir.getAbsolutePath());
+        if (TOP_K_PER_INDEX > 0 || TOP_K_GLOBAL > 0) log("Top-K results → " + outDir.getAbsolutePath());
+    }
 
-        log("DONE → " + finalCsv.getAbsolutePath());
+    /** Written after the outputs it describes are final. */
+    private static void writeCoverage(File outDir) throws IOException {
+        if (!COVERAGE.enabled()) return;
+        File file = new File(outDir, PARTITION.isWorker() ? PARTITION.partName(COVERAGE_FILE, ".csv") : COVERAGE_FILE + ".csv");
+        COVERAGE.write(file);
+        log("Coverage " + COVERAGE.summary() + " → " + file.getAbsolutePath());
+    }
+
+    // ================= SKETCH MODE =================
+    private static void runSketchMode(File outDir) throws Exception {
+        UuidSketches sketches = new UuidSketches(SKETCH_DISTINCT_ERROR, SKETCH_CMS_EPSILON, SKETCH_CMS_DELTA, SKETCH_TOP_K);
+
+        try (ProgressReporter progress = ProgressReporter.start(PROGRESS_INTERVAL_SECONDS)) {
+            log("SKETCH MODE: single pass, no temp files");
+            METRICS.startPhase("sketch");
+            try (ShardHandleManager shards = SHARDS) {
+                extractAllUuids(null, sketches, null);
+            }
+            if (PARTITION.isWorker()) {
+                File part = new File(outDir, PARTITION.partName("index_uuid_sketches", ".bin"));
+                sketches.write(part);
+                writeCoverage(outDir);
+                METRICS.stop();
+                log("DONE → " + part.getAbsolutePath());
+                return;
+            }
+            sketches.writeReports(outDir);
+            writeCoverage(outDir);
+        }
+
+        METRICS.stop();
+        log("Heavy-hitter estimates overcount by at most " + sketches.overcountBound(SKETCH_CMS_EPSILON)
+                + " with probability " + (1 - SKETCH_CMS_DELTA));
+        log("DONE → " + new File(outDir, "index_uuid_distinct.csv").getAbsolutePath()
+                + ", " + new File(outDir, "index_uuid_heavy_hitters.csv").getAbsolutePath());
+    }
+
+    // ================= COORDINATOR =================
+    /** Combines the part files of WORKER_COUNT workers into the same outputs a single run writes. */
+    private static void mergeWorkers(File outDir) throws Exception {
+        File partsDir = new File(WORKER_PARTS_DIR);
+        if (COVERAGE.enabled()) {
+            File coverageFile = new File(outDir, COVERAGE_FILE + ".csv");
+            ScanCoverage.merge(PARTITION.parts(partsDir, COVERAGE_FILE, ".csv"), coverageFile);
+            log("Coverage manifest written → " + coverageFile.getAbsolutePath());
+        }
+
+        if (COUNT_MODE.equals("sketch")) {
+            List<File> parts = PARTITION.parts(partsDir, "index_uuid_sketches", ".bin");
+            UuidSketches merged = UuidSketches.read(parts.get(0));
+            for (File f : parts.subList(1, parts.size())) merged.merge(UuidSketches.read(f));
+            merged.writeReports(outDir);
+            log("DONE → merged " + parts.size() + " sketch parts into " + outDir.getAbsolutePath());
+            return;
+        }
+
+        List<File> runs = PARTITION.parts(partsDir, "index_uuid_counts", ".run");
+        File finalCsv = new File(outDir, CSV_GZIP ? "index_uuid_counts.csv.gz" : "index_uuid_counts.csv");
+        File storeDir = new File(outDir, "index_uuid_counts.db");
+        boolean toCsv = !OUTPUT_FORMAT.equals("rocksdb") && WRITE_COUNTS;
+        boolean toStore = !OUTPUT_FORMAT.equals("csv") && WRITE_COUNTS;
+
+        METRICS.startPhase("merge_workers");
+        try (GroupWriter writer = new GroupWriter(toCsv ? finalCsv : null, toStore ? storeDir : null)) {
+            mergeRuns(runs, false, writer);
+        }
+
+        METRICS.stop();
+        log("DONE → merged " + runs.size() + " worker runs into " + (toCsv ? finalCsv : storeDir).getAbsolutePath());
+    }
+
+    private static void logFamilies(long[] keys, long[] uuids) {
+        if (KEY_PATTERNS.size() == 1) return;
+        for (int f = 0; f < keys.length; f++) {
+            log(String.format("Prefix '%s': %,d index keys, %,d UUIDs extracted", KEY_PATTERNS.pattern(f), keys[f], uuids[f]));
+        }
     }
 
     // ================= PHASE 1 =================
-    private static void extractAllUuids(File output) throws Exception {
+    /**
+     * Writes {@code indexName|uuid} lines to {@code output}, or feeds {@code sketches} when it is non-null.
+     * Keys are matched against every configured prefix in one pass; UUIDs under the first prefix are
+     * counted for the index itself, under any other prefix for {@code indexName:prefix}.
+     *
+     * <p>With {@code runs} non-null ({@code SHARD_RESULT_CACHE_DIR} set) each shard instead ends up as
+     * its own sorted {@code index|uuid<TAB>count} run in the cache and is added to {@code runs}; an
+     * unchanged shard reuses the run of an earlier pass without being opened.
+     */
+    private static long extractAllUuids(File output, UuidSketches sketches, List<File> runs) throws Exception {
 
         List<File> folders = findFolders(new File(INDEX_BASE));
         int totalIndexes = folders.size();
         log("Total indexes to process: " + totalIndexes);
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
+        List<File> shardOrder = new ArrayList<>();
+        for (File folder : folders) shardOrder.addAll(findRocksShards(new File(folder, "rocks")));
+        shardOrder.removeIf(s -> !PARTITION.claims(s));
+        COVERAGE.register(shardOrder);
+        shardOrder.removeIf(COVERAGE::done);
+        Map<File, ShardResultCache.Entry> cached = new HashMap<>();
+        if (runs != null) {
+            for (File shard : shardOrder) cached.put(shard, RESULT_CACHE.open(shard));
+            List<File> toOpen = new ArrayList<>();
+            for (File shard : shardOrder) {
+                if (!cached.get(shard).hit() || COVERAGE.resumeAfter(shard) != null) toOpen.add(shard);
+            }
+            log("Shard result cache: " + (shardOrder.size() - toOpen.size()) + " of " + shardOrder.size()
+                    + " index shards unchanged");
+            SHARDS.schedule(toOpen);
+            if (INVENTORY != null) METRICS.expectRecords(INVENTORY.estimatedKeys(toOpen));
+        } else {
+            SHARDS.schedule(shardOrder);
+            if (INVENTORY != null) METRICS.expectRecords(INVENTORY.estimatedKeys(shardOrder));
+        }
+        METRICS.expectUnits(shardOrder.size());
+        Extraction ex = new Extraction(KEY_PATTERNS.size());
+
+        try (BufferedWriter writer = output != null ? new BufferedWriter(new FileWriter(output)) : null) {
 
-            long totalRecords = 0;
             int processedIndexes = 0;
 
-            long startTime = System.currentTimeMillis();
-            long lastLogTime = startTime;
-            long lastLogCount = 0;
-
             for (File folder : folders) {
 
                 processedIndexes++;
                 String indexName = folder.getName();
+                String[] names = new String[KEY_PATTERNS.size()];
+                UuidSketches.IndexSketch[] indexSketches = new UuidSketches.IndexSketch[names.length];
+                for (int f = 0; f < names.length; f++) {
+                    names[f] = f == 0 ? indexName : indexName + ":" + KEY_PATTERNS.pattern(f);
+                    if (sketches != null) indexSketches[f] = sketches.index(names[f]);
+                }
 
                 List<File> shards = findRocksShards(new File(folder, "rocks"));
-                Map<File, Crypto> shardCrypto = new HashMap<>();
-
-                for (File shard : shards) {
-                    String deviceUuid = shard.getName();
-                    shardCrypto.put(shard, getCrypto(deviceUuid));
-                }
+                shards.removeIf(s -> !PARTITION.claims(s) || COVERAGE.done(s));
+                if (shards.isEmpty()) continue;
 
                 log(String.format("Processing index %d/%d: %s",
                         processedIndexes, totalIndexes, indexName));
 
-
-                // ---------- STEP 2: Actual extraction with logging ----------
-                long indexEntryCount = 0;
+                // ---------- Actual extraction (progress comes from ProgressReporter) ----------
+                ex.indexEntryCount = 0;
 
                 for (File shard : shards) {
-
-                    Crypto crypto = shardCrypto.get(shard);
-
-                    try (RocksDB db = RocksDB.openReadOnly(shard.getAbsolutePath());
-                         RocksIterator it = db.newIterator()) {
-
-                        for (it.seekToFirst(); it.isValid(); it.next()) {
-
-                            byte[] keyBytes = it.key();
-                            String keyStr = safeUtf8(decrypt(keyBytes, crypto));
-
-                            if (!keyStr.contains(INDEX_PREFIX)) continue;
-
-                            String uuid = extractUuid(keyStr);
-                            if (uuid == null) continue;
-
-                            writer.write(indexName + "|" + uuid.toLowerCase());
-                            writer.newLine();
-
-                            totalRecords++;
-                            indexEntryCount++;
-
-                            // ---------- LOGGING ----------
-                            if (totalRecords % LOG_INTERVAL == 0) {
-                                long now = System.currentTimeMillis();
-                                long batchTimeMs = now - lastLogTime;
-                                long totalTimeMs = now - startTime;
-                                long batchCount = totalRecords - lastLogCount;
-
-                                double batchRate = (batchCount * 1000.0) / batchTimeMs;
-                                double avgRate = (totalRecords * 1000.0) / totalTimeMs;
-                                long remaining = DEFAULT_ORPHAN_LIMIT - totalRecords;
-                                double etaSec = avgRate > 0 ? remaining / avgRate : 0;
-
-                                Runtime rt = Runtime.getRuntime();
-                                long usedMem = (rt.totalMemory() - rt.freeMemory())/1024/1024;
-                                long freeMem = rt.freeMemory()/1024/1024;
-
-                                log(String.format(
-                                        "Processed records: %,d | Last %d: %.2f sec | Batch rate: %,.0f rec/sec | Avg rate: %,.0f rec/sec | ETA: %.2f sec | Index %d/%d | Index entries so far: %,d | Mem used=%dMB free=%dMB",
-                                        totalRecords,
-                                        LOG_INTERVAL,
-                                        batchTimeMs / 1000.0,
-                                        batchRate,
-                                        avgRate,
-                                        etaSec,
-                                        processedIndexes,
-                                        totalIndexes,
-                                        indexEntryCount,
-                                        usedMem,
-                                        freeMem
-                                ));
-
-                                lastLogTime = now;
-                                lastLogCount = totalRecords;
-                            }
-
-                            // ---------- THRESHOLD CHECK ----------
-                            if (totalRecords >= DEFAULT_ORPHAN_LIMIT) {
-                                log("Reached threshold of " + DEFAULT_ORPHAN_LIMIT + " records. Stopping extraction.");
-                                return;
-                            }
-
-                        } // end iterator
-                    } // end db
+                    boolean complete = !COVERAGE.expired() && ex.totalRecords < DEFAULT_ORPHAN_LIMIT && (runs != null
+                            ? extractShardRun(shard, names, cached.get(shard), runs, ex)
+                            : extractShard(shard, names, indexSketches, writer, ex));
+                    // ---------- THRESHOLD CHECK ----------
+                    if (!complete) {
+                        log(COVERAGE.expired() ? "MAX_RUNTIME_SECONDS reached. Stopping extraction."
+                                : "Reached threshold of " + DEFAULT_ORPHAN_LIMIT + " records. Stopping extraction.");
+                        logFamilies(ex.familyKeys, ex.familyUuids);
+                        return ex.totalRecords;
+                    }
+                    METRICS.unitDone();
                 } // end shard loop
 
                 log(String.format("Finished index %d/%d: %s | Total extracted entries: %,d",
-                        processedIndexes, totalIndexes, indexName, indexEntryCount));
+                        processedIndexes, totalIndexes, indexName, ex.indexEntryCount));
 
             } // end folder loop
+            logFamilies(ex.familyKeys, ex.familyUuids);
+            return ex.totalRecords;
         } // end writer
     }
 
+    /**
+     * Extracts one shard into {@code writer}, or into {@code indexSketches} when the writer is null.
+     * Returns false if DEFAULT_ORPHAN_LIMIT or the MAX_RUNTIME_SECONDS deadline stopped it part-way.
+     * Both are checked between keys, so a key's families are written together and a partial shard
+     * can resume after its last key; the limit is passed by fewer records than there are families.
+     */
+    private static boolean extractShard(File shard, String[] names, UuidSketches.IndexSketch[] indexSketches,
+                                        BufferedWriter writer, Extraction ex) throws Exception {
+        Crypto crypto = getCrypto(shard.getName());
+
+        try (ShardHandleManager.Handle handle = SHARDS.acquire(shard);
+             RocksIterator it = handle.db().newIterator()) {
+
+            long mark = System.nanoTime();
+            long shardKeys = 0;
+            byte[] keyBytes = null;
+            for (COVERAGE.seek(it, shard); it.isValid(); mark = System.nanoTime(), it.next()) {
+                // every key before this one is done, so the manifest can resume after it
+                if (COVERAGE.expired() || ex.totalRecords >= DEFAULT_ORPHAN_LIMIT) {
+                    COVERAGE.partial(shard, shardKeys, keyBytes);
+                    return false;
+                }
+                shardKeys++;
+
+                keyBytes = it.key();
+                long step = System.nanoTime() - mark;
+                METRICS.iteration(step);
+                METRICS.record(keyBytes.length);
+                THROTTLE.acquire(keyBytes.length, step);
+                byte[] plainKey = decrypt(keyBytes, crypto);
+                long matched = KEY_PATTERNS.match(plainKey);
+                if (matched == 0) continue;
+
+                String uuid = extractUuid(plainKey);
+                for (int f = 0; f < names.length; f++) {
+                    if ((matched & 1L << f) != 0) ex.familyKeys[f]++;
+                }
+                if (uuid == null) continue;
+                uuid = uuid.toLowerCase();
+
+                for (int f = 0; f < names.length; f++) {
+                    if ((matched & 1L << f) == 0) continue;
+                    ex.familyUuids[f]++;
+                    if (writer == null) {
+                        indexSketches[f].add(uuid);
+                    } else {
+                        writer.write(names[f] + "|" + uuid);
+                        writer.newLine();
+                    }
+
+                    ex.totalRecords++;
+                    ex.indexEntryCount++;
+                    ex.extractedCounter.increment();
+                }
+
+            } // end iterator
+            COVERAGE.complete(shard, shardKeys);
+        } // end db
+        return true;
+    }
+
+    /**
+     * Adds the sorted run of {@code shard} to {@code runs}, from the cache if the shard is unchanged.
+     * A changed shard is extracted, sorted and merged into a new cache entry; if the record limit cuts
+     * it short, the run goes to a scratch file in OUTPUT_DIR instead and false is returned. So does a
+     * shard resumed part-way from RESUME_COVERAGE, whose run lacks the keys an earlier run counted.
+     */
+    private static boolean extractShardRun(File shard, String[] names, ShardResultCache.Entry entry,
+                                           List<File> runs, Extraction ex) throws Exception {
+        boolean resumed = COVERAGE.resumeAfter(shard) != null;
+        if (entry.hit() && !resumed) {
+            long[] counts = readRunHeader(entry.file);
+            // a cached run cannot be cut short, so a shard that crosses the limit is extracted again
+            if (ex.totalRecords + counts[0] < DEFAULT_ORPHAN_LIMIT) {
+                METRICS.counter("cached_shards").increment();
+                ex.add(counts);
+                runs.add(entry.file);
+                // a cached run records UUIDs, not the keys read
+                COVERAGE.complete(shard, 0);
+                return true;
+            }
+        }
+
+        File raw = new File(OUTPUT_DIR, "uuids_shard.tmp");
+        long[] before = ex.totals();
+        boolean complete;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(raw))) {
+            complete = extractShard(shard, names, null, writer, ex);
+        }
+        List<File> chunks = createSortedChunks(raw);
+        raw.delete();
+
+        File run = !complete ? new File(OUTPUT_DIR, PARTIAL_RUN)
+                : resumed ? new File(OUTPUT_DIR, RESUMED_RUN + "." + runs.size() + ".run") : entry.newTemp();
+        boolean written = false;
+        try (RunWriter out = new RunWriter(run, ex.header(before))) {
+            mergeChunks(chunks, out);
+            written = true;
+        } finally {
+            for (File f : chunks) f.delete();
+            if (!written) run.delete();
+        }
+        if (complete && !resumed) {
+            entry.commit(run);
+            run = entry.file;
+        }
+        runs.add(run);
+        return complete;
+    }
+
+    /** Counts from the first line of a shard run: records, then keys and UUIDs per prefix. */
+    private static long[] readRunHeader(File run) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(run), StandardCharsets.UTF_8))) {
+            String[] parts = in.readLine().substring(1).split(" ");
+            long[] counts = new long[parts.length];
+            for (int i = 0; i < parts.length; i++) counts[i] = Long.parseLong(parts[i]);
+            return counts;
+        }
+    }
+
+    /** Phase 1 totals, shared by live extraction and cached runs. */
+    private static final class Extraction {
+        final long[] familyKeys;
+        final long[] familyUuids;
+        final LongAdder extractedCounter = METRICS.counter("uuids_extracted");
+        long totalRecords;
+        long indexEntryCount;
+
+        Extraction(int families) {
+            familyKeys = new long[families];
+            familyUuids = new long[families];
+        }
+
+        /** Same layout as a run header. */
+        long[] totals() {
+            long[] t = new long[1 + 2 * familyKeys.length];
+            t[0] = totalRecords;
+            System.arraycopy(familyKeys, 0, t, 1, familyKeys.length);
+            System.arraycopy(familyUuids, 0, t, 1 + familyKeys.length, familyUuids.length);
+            return t;
+        }
+
+        /** Header line for a run holding everything extracted since {@code before} was taken. */
+        String header(long[] before) {
+            long[] now = totals();
+            StringBuilder sb = new StringBuilder("#");
+            for (int i = 0; i < now.length; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(now[i] - before[i]);
+            }
+            return sb.toString();
+        }
+
+        void add(long[] counts) {
+            totalRecords += counts[0];
+            indexEntryCount += counts[0];
+            extractedCounter.add(counts[0]);
+            for (int f = 0; f < familyKeys.length; f++) {
+                familyKeys[f] += counts[1 + f];
+                familyUuids[f] += counts[1 + familyKeys.length + f];
+            }
+        }
+    }
+
     // ================= PHASE 2 =================
     private static List<File> createSortedChunks(File rawFile) throws Exception {
         List<File> chunks = new ArrayList<>();
@@ -191,6 +515,7 @@ public class RocksDbIndexUuidCounterHuge {
             String line;
             int chunkIndex = 0;
             while ((line = reader.readLine()) != null) {
+                METRICS.record();
                 buffer.add(line);
                 if (buffer.size() >= CHUNK_SIZE) {
                     chunks.add(writeChunk(buffer, chunkIndex++));
@@ -213,11 +538,23 @@ public class RocksDbIndexUuidCounterHuge {
                 writer.newLine();
             }
         }
+        METRICS.spill(chunk.length());
         return chunk;
     }
 
     // ================= PHASE 3 =================
-    private static void mergeAndCount(List<File> chunks, File output) throws Exception {
+    static void mergeAndCount(List<File> chunks, File output) throws Exception {
+        mergeAndCount(chunks, output, null);
+    }
+
+    /** Either destination may be null; the store gets the same rows as the CSV. */
+    static void mergeAndCount(List<File> chunks, File output, File storeDir) throws Exception {
+        try (GroupWriter writer = new GroupWriter(output, storeDir)) {
+            mergeChunks(chunks, writer);
+        }
+    }
+
+    private static void mergeChunks(List<File> chunks, GroupSink writer) throws Exception {
         PriorityQueue<ChunkReader> pq =
                 new PriorityQueue<>(Comparator.comparing(cr -> cr.current));
 
@@ -225,45 +562,243 @@ public class RocksDbIndexUuidCounterHuge {
             ChunkReader cr = new ChunkReader(chunk);
             if (cr.current != null) pq.add(cr);
         }
+        METRICS.mergeFanIn(chunks.size());
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
+        String prev = null;
+        long count = 0;
 
-            writer.write("indexName,value,count");
-            writer.newLine();
+        while (!pq.isEmpty()) {
 
-            String prev = null;
-            long count = 0;
+            ChunkReader cr = pq.poll();
+            String val = cr.current;
+            METRICS.record();
 
-            while (!pq.isEmpty()) {
+            if (!val.equals(prev)) {
+                if (prev != null) writer.group(prev, count);
+                prev = val;
+                count = 1;
+            } else {
+                count++;
+            }
+
+            if (cr.next()) {
+                pq.add(cr);
+            } else {
+                cr.close();
+            }
+        }
 
-                ChunkReader cr = pq.poll();
-                String val = cr.current;
+        if (prev != null) writer.group(prev, count);
+    }
 
-                if (!val.equals(prev)) {
-                    if (prev != null) writeResult(writer, prev, count);
-                    prev = val;
-                    count = 1;
-                } else {
-                    count++;
+    /**
+     * Sums the counts of sorted {@code index|uuid<TAB>count} runs into {@code writer}; {@code headers}
+     * skips each input run's first line. At most MERGE_FAN_IN runs are open at once: with more (one per
+     * shard under the result cache), batches are first merged into headerless intermediate runs in
+     * OUTPUT_DIR, level by level, and deleted once merged further.
+     */
+    private static void mergeRuns(List<File> runs, boolean headers, GroupSink writer) throws Exception {
+        Set<File> intermediate = new HashSet<>();
+        int written = 0;
+        try {
+            while (runs.size() > MERGE_FAN_IN) {
+                List<File> next = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                    File out = new File(OUTPUT_DIR, "uuids_merge." + written++ + ".run");
+                    intermediate.add(out);
+                    try (RunWriter w = new RunWriter(out, null)) {
+                        mergeBatch(runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN)), headers, w, false);
+                    }
+                    next.add(out);
                 }
+                for (File f : runs) if (intermediate.remove(f)) f.delete();
+                runs = next;
+                headers = false;
+            }
+            mergeBatch(runs, headers, writer, true);
+        } finally {
+            for (File f : intermediate) f.delete();
+        }
+    }
+
+    /** One k-way merge; only the final pass counts toward the records metric. */
+    private static void mergeBatch(List<File> runs, boolean headers, GroupSink writer, boolean last) throws Exception {
+        PriorityQueue<RunReader> pq = new PriorityQueue<>(Comparator.comparing(r -> r.key));
+        for (File run : runs) {
+            RunReader r = new RunReader(run, headers);
+            if (r.key != null) pq.add(r);
+            else r.close();
+        }
+        METRICS.mergeFanIn(runs.size());
+
+        String prev = null;
+        long count = 0;
+        while (!pq.isEmpty()) {
+            RunReader r = pq.poll();
+            if (last) METRICS.record();
+            if (!r.key.equals(prev)) {
+                if (prev != null) writer.group(prev, count);
+                prev = r.key;
+                count = r.count;
+            } else {
+                count += r.count;
+            }
+            if (r.next()) pq.add(r);
+            else r.close();
+        }
+        if (prev != null) writer.group(prev, count);
+    }
+
+    // ================= GROUP OUTPUT =================
+    /** Receives (index|uuid, count) groups in sorted order from a merge. */
+    private interface GroupSink {
+        void group(String combined, long count) throws Exception;
+    }
+
+    /**
+     * Worker output and cached shard runs: unfiltered {@code index|uuid<TAB>count} lines, still in merge
+     * order, after an optional header line.
+     */
+    private static final class RunWriter implements GroupSink, AutoCloseable {
+        private final BufferedWriter out;
+
+        RunWriter(File file, String header) throws IOException {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20);
+            if (header != null) {
+                out.write(header);
+                out.newLine();
+            }
+        }
+
+        @Override
+        public void group(String combined, long count) throws IOException {
+            out.write(combined);
+            out.write('\t');
+            out.write(Long.toString(count));
+            out.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
 
-                if (cr.next()) {
-                    pq.add(cr);
-                } else {
-                    cr.close();
+    /**
+     * Receives each (index, uuid) group from the merge in sorted order and applies COUNT_MIN and
+     * the top-K heaps. Groups arrive index by index, so the per-index heap is written out and
+     * cleared whenever the index name changes; memory stays O(K) regardless of input size.
+     */
+    private static final class GroupWriter implements GroupSink, AutoCloseable {
+        private final CsvSink counts;
+        private final ResultStore store;
+        private final TopK perIndex;
+        private final TopK global;
+        private final CsvSink perIndexOut;
+        private final File globalFile;
+        private final LongAdder groups = METRICS.counter("groups");
+        private final LongAdder emitted = METRICS.counter("groups_emitted");
+        private String currentIndex;
+
+        GroupWriter(File output, File storeDir) throws Exception {
+            File dir = OUTPUT_DIR != null ? new File(OUTPUT_DIR) : null;
+            counts = output != null ? new CsvSink(output, CSV_GZIP ? CSV_GZIP_THREADS : 0, CSV_BUFFER_KB * 1024) : null;
+            store = storeDir != null ? ResultStore.create(storeDir, ResultStore.KIND_COUNTS) : null;
+            perIndex = TOP_K_PER_INDEX > 0 ? new TopK(TOP_K_PER_INDEX) : null;
+            global = TOP_K_GLOBAL > 0 ? new TopK(TOP_K_GLOBAL) : null;
+            perIndexOut = perIndex != null ? new CsvSink(new File(dir, "index_uuid_topk_per_index.csv"), 0, 1 << 20) : null;
+            globalFile = global != null ? new File(dir, "index_uuid_topk_global.csv") : null;
+
+            if (counts != null) counts.line("indexName,value,count");
+            if (perIndexOut != null) perIndexOut.line("indexName,value,count,rank");
+        }
+
+        @Override
+        public void group(String combined, long count) throws Exception {
+            groups.increment();
+            if (count < COUNT_MIN) return;
+            emitted.increment();
+
+            if (counts != null) writeRow(counts, combined, count);
+            if (store != null) store.putCount(combined, count);
+            if (global != null) global.offer(combined, count);
+            if (perIndex != null) {
+                int sep = combined.indexOf('|');
+                if (currentIndex == null || sep != currentIndex.length() || !combined.startsWith(currentIndex)) {
+                    flushPerIndex();
+                    currentIndex = combined.substring(0, sep);
                 }
+                perIndex.offer(combined, count);
+            }
+        }
+
+        private void flushPerIndex() throws Exception {
+            writeRanked(perIndexOut, perIndex.drainDescending());
+        }
+
+        private static void writeRow(CsvSink out, String combined, long count) throws Exception {
+            int sep = combined.indexOf('|');
+            out.field(combined, 0, sep).field(combined, sep + 1, combined.length()).field(count);
+            out.endRow();
+        }
+
+        private static void writeRanked(CsvSink out, List<TopK.Entry> entries) throws Exception {
+            int rank = 1;
+            for (TopK.Entry e : entries) {
+                int sep = e.combined.indexOf('|');
+                out.field(e.combined, 0, sep).field(e.combined, sep + 1, e.combined.length()).field(e.count).field(rank++);
+                out.endRow();
             }
+        }
 
-            if (prev != null) writeResult(writer, prev, count);
+        @Override
+        public void close() throws Exception {
+            try (CsvSink c = counts; ResultStore s = store; CsvSink p = perIndexOut) {
+                if (perIndex != null) flushPerIndex();
+                if (global != null) {
+                    try (CsvSink g = new CsvSink(globalFile, 0, 1 << 20)) {
+                        g.line("indexName,value,count,rank");
+                        writeRanked(g, global.drainDescending());
+                    }
+                }
+            }
         }
     }
 
-    private static void writeResult(BufferedWriter writer, String combined, long count) throws Exception {
-        int sep = combined.indexOf('|');
-        String indexName = combined.substring(0, sep);
-        String uuid = combined.substring(sep + 1);
-        writer.write(indexName + "," + uuid + "," + count);
-        writer.newLine();
+    // ================= TOP-K =================
+    /** Bounded min-heap of the K largest counts; on ties the earlier (smaller) key is kept. */
+    static final class TopK {
+        static final class Entry {
+            final String combined;
+            final long count;
+            Entry(String combined, long count) { this.combined = combined; this.count = count; }
+        }
+
+        private final int k;
+        private final PriorityQueue<Entry> heap;
+
+        TopK(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<>(Math.min(k, 1 << 16),
+                    Comparator.<Entry>comparingLong(e -> e.count).thenComparing(e -> e.combined, Comparator.reverseOrder()));
+        }
+
+        void offer(String combined, long count) {
+            if (heap.size() < k) {
+                heap.add(new Entry(combined, count));
+            } else if (count > heap.peek().count) {
+                heap.poll();
+                heap.add(new Entry(combined, count));
+            }
+        }
+
+        /** Largest first, then by key; empties the heap. */
+        List<Entry> drainDescending() {
+            List<Entry> out = new ArrayList<>(heap);
+            heap.clear();
+            out.sort(Comparator.<Entry>comparingLong(e -> -e.count).thenComparing(e -> e.combined));
+            return out;
+        }
     }
 
     // ================= CHUNK READER =================
@@ -281,8 +816,31 @@ public class RocksDbIndexUuidCounterHuge {
         void close() throws Exception { reader.close(); }
     }
 
+    private static class RunReader {
+        final BufferedReader reader;
+        String key;
+        long count;
+        RunReader(File file, boolean header) throws IOException {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+            if (header) reader.readLine();
+            next();
+        }
+        boolean next() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                key = null;
+                return false;
+            }
+            int tab = line.lastIndexOf('\t');
+            key = line.substring(0, tab);
+            count = Long.parseLong(line.substring(tab + 1));
+            return true;
+        }
+        void close() throws IOException { reader.close(); }
+    }
+
     // ================= CRYPTO =================
-    private static Crypto getCrypto(String deviceUuid) throws Exception {
+    static Crypto getCrypto(String deviceUuid) throws Exception {
         Crypto c = CRYPTO_CACHE.get(deviceUuid);
         if (c != null) return c;
 
@@ -298,8 +856,9 @@ public class RocksDbIndexUuidCounterHuge {
         return c;
     }
 
-    private static byte[] decrypt(byte[] data, Crypto crypto) {
+    static byte[] decrypt(byte[] data, Crypto crypto) {
         if (data == null || data.length % 16 != 0) return data;
+        long start = System.nanoTime();
         try {
             Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
             c.init(Cipher.DECRYPT_MODE,
@@ -308,33 +867,85 @@ public class RocksDbIndexUuidCounterHuge {
             return c.doFinal(data);
         } catch (Exception e) {
             return data;
+        } finally {
+            METRICS.decrypt(System.nanoTime() - start);
         }
     }
 
-    private static String safeUtf8(byte[] b) {
+    static String safeUtf8(byte[] b) {
         if (b == null) return "";
-        int len = 0;
-        for (byte value : b) if (value != 0) len++;
-        byte[] cleaned = new byte[len];
-        int j = 0;
-        for (byte value : b) if (value != 0) cleaned[j++] = value;
-        return new String(cleaned, StandardCharsets.UTF_8);
+        return ByteScan.get().utf8WithoutNul(b);
     }
 
     // ================= HELPERS =================
-    private static String extractUuid(String key) {
+    static String extractUuid(String key) {
         Matcher m = UUID_PATTERN.matcher(key);
         return m.find() ? m.group() : null;
     }
 
-    private static void loadConfig(String path) throws Exception {
+    /** {@code extractUuid(safeUtf8(key))} without decoding the key: any 36-byte hex run holds the first match. */
+    static String extractUuid(byte[] key) {
+        int[] runs = ByteScan.get().hexRuns(key, 36);
+        return runs.length == 0 ? null : extractUuid(ByteScan.runText(key, runs[0], runs[1]));
+    }
+
+    private static void loadConfig(String path, String[] args) throws Exception {
         Properties props = new Properties();
         try (InputStream in = new FileInputStream(path)) { props.load(in); }
+        WorkPartition.applyOverrides(props, args);
 
         INDEX_BASE = props.getProperty("INDEX_BASE").trim();
         OUTPUT_DIR = props.getProperty("OUTPUT_DIR").trim();
-        INDEX_PREFIX = props.getProperty("INDEX_PREFIX", "dbidxEntry");
+        KEY_PATTERNS = new KeyPatterns(KeyPatterns.parse(props.getProperty("INDEX_PREFIX", "dbidxEntry")));
         DEFAULT_ORPHAN_LIMIT = Long.parseLong(props.getProperty("DEFAULT_ORPHAN_LIMIT", "205000000"));
+        PROGRESS_INTERVAL_SECONDS = Integer.parseInt(props.getProperty("PROGRESS_INTERVAL_SECONDS", "10").trim());
+        CSV_GZIP = Boolean.parseBoolean(props.getProperty("CSV_GZIP", "false").trim());
+        CSV_GZIP_THREADS = Integer.parseInt(props.getProperty("CSV_GZIP_THREADS", String.valueOf(CSV_GZIP_THREADS)).trim());
+        CSV_BUFFER_KB = Integer.parseInt(props.getProperty("CSV_BUFFER_KB", String.valueOf(CSV_BUFFER_KB)).trim());
+        COUNT_MIN = Long.parseLong(props.getProperty("COUNT_MIN", "1").trim());
+        TOP_K_PER_INDEX = Integer.parseInt(props.getProperty("TOP_K_PER_INDEX", "0").trim());
+        TOP_K_GLOBAL = Integer.parseInt(props.getProperty("TOP_K_GLOBAL", "0").trim());
+        WRITE_COUNTS = Boolean.parseBoolean(props.getProperty("WRITE_COUNTS", "true").trim());
+        COUNT_MODE = props.getProperty("COUNT_MODE", "exact").trim().toLowerCase();
+        if (!COUNT_MODE.equals("exact") && !COUNT_MODE.equals("sketch")) {
+            throw new IllegalArgumentException("COUNT_MODE must be exact or sketch: " + COUNT_MODE);
+        }
+        SKETCH_DISTINCT_ERROR = Double.parseDouble(props.getProperty("SKETCH_DISTINCT_ERROR", "0.01").trim());
+        SKETCH_CMS_EPSILON = Double.parseDouble(props.getProperty("SKETCH_CMS_EPSILON", "0.00001").trim());
+        SKETCH_CMS_DELTA = Double.parseDouble(props.getProperty("SKETCH_CMS_DELTA", "0.001").trim());
+        SKETCH_TOP_K = Integer.parseInt(props.getProperty("SKETCH_TOP_K", "100").trim());
+        PARTITION = WorkPartition.from(props);
+        String inventoryFile = props.getProperty("INVENTORY_FILE", "").trim();
+        if (!inventoryFile.isEmpty()) {
+            INVENTORY = VaultInventory.load(new File(inventoryFile));
+            PARTITION = PARTITION.balancedBy(INVENTORY);
+        }
+        WORKER_PARTS_DIR = props.getProperty("WORKER_PARTS_DIR", OUTPUT_DIR).trim();
+        COVERAGE = ScanCoverage.from(props);
+        OUTPUT_FORMAT = props.getProperty("OUTPUT_FORMAT", OUTPUT_FORMAT).trim().toLowerCase();
+        if (!Arrays.asList("csv", "rocksdb", "both").contains(OUTPUT_FORMAT)) {
+            throw new IllegalArgumentException("OUTPUT_FORMAT must be csv, rocksdb or both: " + OUTPUT_FORMAT);
+        }
+
+        SHARDS = new ShardHandleManager(
+                Long.parseLong(props.getProperty("SHARD_CACHE_MB", "256")) * 1024 * 1024,
+                Integer.parseInt(props.getProperty("SHARD_MAX_OPEN", "8")),
+                Integer.parseInt(props.getProperty("SHARD_PREFETCH", "2")),
+                Integer.parseInt(props.getProperty("SHARD_MAX_OPEN_FILES", "-1")));
+
+        String promFile = props.getProperty("METRICS_PROMETHEUS_FILE", "").trim();
+        METRICS.start(Boolean.parseBoolean(props.getProperty("METRICS_JMX", "true").trim()),
+                promFile.isEmpty() ? null : new File(promFile),
+                Integer.parseInt(props.getProperty("METRICS_DUMP_SECONDS", "15").trim()));
+        if (Boolean.parseBoolean(props.getProperty("METRICS_ROCKSDB_STATS", "false").trim())) SHARDS.enableStatistics();
+        THROTTLE.configure(props, Boolean.parseBoolean(props.getProperty("METRICS_JMX", "true").trim()));
+
+        MERGE_FAN_IN = Math.max(2, Integer.parseInt(props.getProperty("MERGE_FAN_IN", String.valueOf(MERGE_FAN_IN)).trim()));
+        String resultCacheDir = props.getProperty("SHARD_RESULT_CACHE_DIR", "").trim();
+        // runs hold index|uuid pairs named after the prefixes; sketch mode always scans
+        RESULT_CACHE = resultCacheDir.isEmpty() || COUNT_MODE.equals("sketch") ? null
+                : new ShardResultCache(new File(resultCacheDir, "counter"), "counter-v1",
+                        String.join(",", KEY_PATTERNS.patternList()));
     }
 
     private static List<File> findFolders(File root) {
@@ -357,6 +968,6 @@ public class RocksDbIndexUuidCounterHuge {
     }
 
     private static void log(String message) {
-        System.out.println("[" + LOG_FORMAT.format(new Date()) + "] " + message);
+        System.out.println("[" + LocalDateTime.now().format(LOG_FORMAT) + "] " + message);
     }
 }
@@ -0,0 +1,205 @@
+package org.datastealth;
+
+import org.rocksdb.RocksIterator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Time box and coverage manifest of an index scan. With {@code MAX_RUNTIME_SECONDS} the scan loops
+ * ask {@link #expired()} before every shard and every key and stop cleanly once the deadline (counted
+ * from the start of the run) has passed; the tool then flushes, merges and finalizes its outputs as
+ * usual, and {@link #write} lists every shard of the run as {@code complete}, {@code partial} (with
+ * the raw key it stopped after) or {@code not_started}.
+ *
+ * <p>With {@code RESUME_COVERAGE} pointing at an earlier manifest, its complete shards are skipped
+ * and its partial shards continue after their resume key, so the outputs of the two runs are
+ * disjoint. The new manifest carries the earlier coverage forward: it always describes everything
+ * scanned so far, and the next window resumes from the latest one. A partial shard without a resume
+ * key (cut by the record limit while replayed from the result cache) is scanned again from the start.
+ */
+final class ScanCoverage {
+
+    static final String HEADER = "folder,shard,status,keys,resume_after";
+
+    private static final class Row {
+        String status = "not_started";
+        long keys;
+        byte[] resumeAfter;
+    }
+
+    private final boolean timeBoxed;
+    private final long deadline; // System.nanoTime() value
+    private final Map<String, Row> earlier;
+    private final Map<String, Row> rows = new LinkedHashMap<>();
+    private volatile boolean expired;
+
+    private ScanCoverage(long maxRuntimeSeconds, Map<String, Row> earlier) {
+        this.timeBoxed = maxRuntimeSeconds > 0;
+        this.deadline = System.nanoTime() + maxRuntimeSeconds * 1_000_000_000L;
+        this.earlier = earlier;
+    }
+
+    /** {@code MAX_RUNTIME_SECONDS} (0 = no limit) and {@code RESUME_COVERAGE} (an earlier manifest). */
+    static ScanCoverage from(Properties props) throws IOException {
+        long seconds = Long.parseLong(props.getProperty("MAX_RUNTIME_SECONDS", "0").trim());
+        String resume = props.getProperty("RESUME_COVERAGE", "").trim();
+        return new ScanCoverage(seconds, resume.isEmpty() ? null : read(new File(resume)));
+    }
+
+    /** Whether a manifest is written: the run is time-boxed or continues an earlier one. */
+    boolean enabled() {
+        return timeBoxed || earlier != null;
+    }
+
+    boolean resuming() {
+        return earlier != null;
+    }
+
+    /** True once the deadline has passed; stays true for the rest of the run. */
+    boolean expired() {
+        if (!timeBoxed) return false;
+        if (!expired && System.nanoTime() - deadline >= 0) expired = true;
+        return expired;
+    }
+
+    /**
+     * Whether every shard of the run was scanned from its first key: nothing resumed, nothing left
+     * out by the deadline. Reports that need every reference, like dangling cabinets, depend on it.
+     */
+    boolean whole() {
+        if (earlier != null) return false;
+        for (Row r : rows.values()) if (!r.status.equals("complete")) return false;
+        return true;
+    }
+
+    // ================= SHARDS =================
+    /** Adds the shards this run is responsible for, with whatever the earlier manifest says of them. */
+    void register(Collection<File> shards) {
+        for (File shard : shards) {
+            Row before = earlier != null ? earlier.get(name(shard)) : null;
+            Row row = new Row();
+            if (before != null) {
+                row.status = before.status;
+                row.keys = before.keys;
+                row.resumeAfter = before.resumeAfter;
+            }
+            rows.put(name(shard), row);
+        }
+    }
+
+    /** Completed by an earlier run, so not scanned again. */
+    boolean done(File shard) {
+        Row before = earlier != null ? earlier.get(name(shard)) : null;
+        return before != null && before.status.equals("complete");
+    }
+
+    /** The raw key an earlier run stopped after in {@code shard}, or null to start at the first key. */
+    byte[] resumeAfter(File shard) {
+        Row before = earlier != null ? earlier.get(name(shard)) : null;
+        return before != null && before.status.equals("partial") ? before.resumeAfter : null;
+    }
+
+    /** Positions {@code it} at the first key of {@code shard} this run has to scan. */
+    void seek(RocksIterator it, File shard) {
+        byte[] after = resumeAfter(shard);
+        if (after == null) {
+            it.seekToFirst();
+            return;
+        }
+        it.seek(after);
+        if (it.isValid() && Arrays.equals(it.key(), after)) it.next();
+    }
+
+    void complete(File shard, long keys) {
+        Row row = rows.get(name(shard));
+        if (row == null) return;
+        row.status = "complete";
+        row.keys += keys;
+        row.resumeAfter = null;
+    }
+
+    /**
+     * {@code shard} stopped after {@code keys} keys, the last of them {@code lastKey}. With no key
+     * scanned the shard keeps its earlier state.
+     */
+    void partial(File shard, long keys, byte[] lastKey) {
+        Row row = rows.get(name(shard));
+        if (row == null || keys == 0 && lastKey == null) return;
+        row.status = "partial";
+        row.keys += keys;
+        row.resumeAfter = lastKey;
+    }
+
+    /** Shards by status, for the log. */
+    Map<String, Integer> summary() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Row r : rows.values()) counts.merge(r.status, 1, Integer::sum);
+        return counts;
+    }
+
+    private static String name(File shard) {
+        return shard.getParentFile().getParentFile().getName() + "/" + shard.getName();
+    }
+
+    // ================= MANIFEST =================
+    void write(File csv) throws IOException {
+        write(rows, csv);
+    }
+
+    /**
+     * Concatenates worker manifests behind a single header; returns whether every shard in them is
+     * complete.
+     */
+    static boolean merge(List<File> parts, File csv) throws IOException {
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (File part : parts) rows.putAll(read(part));
+        write(rows, csv);
+        for (Row r : rows.values()) if (!r.status.equals("complete")) return false;
+        return true;
+    }
+
+    private static void write(Map<String, Row> rows, File csv) throws IOException {
+        try (CsvSink out = new CsvSink(csv, 0, 1 << 16)) {
+            out.line(HEADER);
+            for (Map.Entry<String, Row> e : rows.entrySet()) {
+                int slash = e.getKey().indexOf('/');
+                Row r = e.getValue();
+                out.field(e.getKey().substring(0, slash)).field(e.getKey().substring(slash + 1))
+                        .field(r.status).field(r.keys).field(r.resumeAfter == null ? "" : hex(r.resumeAfter));
+                out.endRow();
+            }
+        }
+    }
+
+    private static Map<String, Row> read(File csv) throws IOException {
+        Map<String, Row> rows = new LinkedHashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8))) {
+            String header = in.readLine();
+            if (!HEADER.equals(header)) throw new IllegalStateException(csv + " is not a coverage manifest: " + header);
+            for (String record = ResultDiff.readRecord(in); record != null; record = ResultDiff.readRecord(in)) {
+                if (record.isEmpty()) continue;
+                List<String> f = ResultDiff.parse(record);
+                Row r = new Row();
+                r.status = f.get(2);
+                r.keys = Long.parseLong(f.get(3));
+                r.resumeAfter = f.get(4).isEmpty() ? null : unhex(f.get(4));
+                rows.put(f.get(0) + "/" + f.get(1), r);
+            }
+        }
+        return rows;
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder(b.length * 2);
+        for (byte x : b) sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static byte[] unhex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
+}
@@ -0,0 +1,326 @@
+package org.datastealth;
+
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide scan counters. Scan loops only bump {@link LongAdder}s; rates, allocation, GC
+ * and RocksDB tickers are computed when JMX or the Prometheus dump asks for them.
+ */
+public class ScanMetrics implements ScanMetricsMXBean {
+
+    private static final ScanMetrics INSTANCE = new ScanMetrics();
+    private static final String PREFIX = "rockshelper_";
+
+    public static ScanMetrics get() { return INSTANCE; }
+
+    // ================= PHASES =================
+    private static final class Phase {
+        final String name;
+        final LongAdder records = new LongAdder();
+        final LongAdder unitsDone = new LongAdder();
+        final long startNanos = System.nanoTime();
+        volatile long endNanos;
+        volatile long expectedRecords;
+        volatile long expectedUnits;
+        Phase(String name) { this.name = name; }
+
+        long elapsedNanos() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return end - startNanos;
+        }
+
+        double recordsPerSecond() {
+            long elapsed = elapsedNanos();
+            return elapsed > 0 ? records.sum() * 1e9 / elapsed : 0;
+        }
+    }
+
+    private final Map<String, Phase> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile Phase current = new Phase("idle");
+
+    /** Point-in-time view of the current phase for progress reporting. */
+    public static final class Progress {
+        public final String phase;
+        public final long records;
+        public final long elapsedNanos;
+        public final long expectedRecords;
+        public final long unitsDone;
+        public final long expectedUnits;
+
+        private Progress(Phase p) {
+            phase = p.name;
+            records = p.records.sum();
+            elapsedNanos = p.elapsedNanos();
+            expectedRecords = p.expectedRecords;
+            unitsDone = p.unitsDone.sum();
+            expectedUnits = p.expectedUnits;
+        }
+    }
+
+    // ================= COUNTERS =================
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder decryptCalls = new LongAdder();
+    private final LongAdder decryptNanos = new LongAdder();
+    private final LongAdder iterationNanos = new LongAdder();
+    private final LongAdder spillBytes = new LongAdder();
+    private final AtomicLong mergeFanIn = new AtomicLong();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private volatile Statistics statistics;
+    private volatile Map<String, Long> frozenTickers = Collections.emptyMap();
+
+    private ScheduledExecutorService dumper;
+    private File prometheusFile;
+    private boolean registered;
+
+    private ScanMetrics() {}
+
+    // ================= LIFECYCLE =================
+    /**
+     * Registers the MXBean and, when {@code prometheusFile} is set, rewrites it every
+     * {@code dumpSeconds} seconds and once more on {@link #stop()}.
+     */
+    public synchronized void start(boolean jmx, File prometheusFile, int dumpSeconds) throws Exception {
+        if (jmx && !registered) {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("org.datastealth:type=ScanMetrics"));
+            registered = true;
+        }
+        this.prometheusFile = prometheusFile;
+        if (prometheusFile != null && dumper == null && dumpSeconds > 0) {
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+            dumper.scheduleAtFixedRate(this::dumpQuietly, dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        endPhase();
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+        dumpQuietly();
+    }
+
+    public void startPhase(String name) {
+        endPhase();
+        Phase p = new Phase(name);
+        phases.put(name, p);
+        current = p;
+    }
+
+    public void endPhase() {
+        Phase p = current;
+        if (p.endNanos == 0) p.endNanos = System.nanoTime();
+    }
+
+    /** Total records the current phase will process, when known up front. */
+    public void expectRecords(long records) { current.expectedRecords = records; }
+
+    /** Total work units (shards, chunks) in the current phase; used for ETA when records are unknown. */
+    public void expectUnits(long units) { current.expectedUnits = units; }
+
+    public Progress progress() { return new Progress(current); }
+
+    /** Named tool-specific counter, created on first use and reported alongside the built-ins. */
+    public LongAdder counter(String name) { return counters.computeIfAbsent(name, k -> new LongAdder()); }
+
+    // ================= HOT PATH =================
+    public void record(long bytes) {
+        current.records.increment();
+        bytesRead.add(bytes);
+    }
+
+    public void record() { current.records.increment(); }
+
+    public void unitDone() { current.unitsDone.increment(); }
+
+    public void decrypt(long nanos) {
+        decryptCalls.increment();
+        decryptNanos.add(nanos);
+    }
+
+    public void iteration(long nanos) { iterationNanos.add(nanos); }
+
+    public void spill(long bytes) { spillBytes.add(bytes); }
+
+    public void mergeFanIn(long fanIn) { mergeFanIn.accumulateAndGet(fanIn, Math::max); }
+
+    // ================= ROCKSDB STATISTICS =================
+    public void attachStatistics(Statistics statistics) { this.statistics = statistics; }
+
+    /** Freezes the ticker values before the native statistics object goes away. */
+    public void detachStatistics() {
+        Statistics s = statistics;
+        if (s == null) return;
+        frozenTickers = readTickers(s);
+        statistics = null;
+    }
+
+    private static Map<String, Long> readTickers(Statistics s) {
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (TickerType t : TickerType.values()) out.put(t.name(), s.getTickerCount(t));
+        return out;
+    }
+
+    // ================= MXBEAN =================
+    @Override
+    public String getCurrentPhase() { return current.name; }
+
+    @Override
+    public Map<String, Long> getPhaseRecords() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        synchronized (phases) {
+            for (Phase p : phases.values()) out.put(p.name, p.records.sum());
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        synchronized (phases) {
+            for (Phase p : phases.values()) out.put(p.name, p.elapsedNanos() / 1_000_000);
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseRecordsPerSecond() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        synchronized (phases) {
+            for (Phase p : phases.values()) out.put(p.name, p.recordsPerSecond());
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> out = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) out.put(e.getKey(), e.getValue().sum());
+        return out;
+    }
+
+    @Override public long getBytesRead() { return bytesRead.sum(); }
+    @Override public long getDecryptCalls() { return decryptCalls.sum(); }
+    @Override public long getDecryptNanos() { return decryptNanos.sum(); }
+    @Override public long getIterationNanos() { return iterationNanos.sum(); }
+    @Override public long getSpillBytes() { return spillBytes.sum(); }
+    @Override public long getMergeFanIn() { return mergeFanIn.get(); }
+
+    @Override
+    public long getAllocatedBytes() {
+        long total = 0;
+        for (long b : getThreadAllocatedBytes().values()) total += b;
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getThreadAllocatedBytes() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return out;
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+        long[] ids = sun.getAllThreadIds();
+        long[] bytes = sun.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = sun.getThreadInfo(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] == null || bytes[i] < 0) continue;
+            out.merge(infos[i].getThreadName(), bytes[i], Long::sum);
+        }
+        return out;
+    }
+
+    @Override
+    public long getGcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) total += Math.max(0, gc.getCollectionCount());
+        return total;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getRocksDbTickers() {
+        Statistics s = statistics;
+        return s != null ? readTickers(s) : frozenTickers;
+    }
+
+    // ================= PROMETHEUS =================
+    @Override
+    public void dumpPrometheus(String path) throws Exception {
+        File target = new File(path);
+        File tmp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        try (PrintWriter w = new PrintWriter(tmp, StandardCharsets.UTF_8.name())) {
+            metric(w, "phase_records_total", "counter", "Records processed per phase", getPhaseRecords(), "phase");
+            metric(w, "phase_milliseconds", "gauge", "Wall time per phase", getPhaseMillis(), "phase");
+            metric(w, "phase_records_per_second", "gauge", "Records per second per phase", getPhaseRecordsPerSecond(), "phase");
+            metric(w, "counter_total", "counter", "Tool-specific counters", getCounters(), "name");
+            metric(w, "bytes_read_total", "counter", "Key and value bytes read from shards", getBytesRead());
+            metric(w, "decrypt_calls_total", "counter", "AES decrypt calls", getDecryptCalls());
+            metric(w, "decrypt_nanoseconds_total", "counter", "Time spent in AES decrypt", getDecryptNanos());
+            metric(w, "iteration_nanoseconds_total", "counter", "Time spent in JNI iterator calls", getIterationNanos());
+            metric(w, "spill_bytes_total", "counter", "Bytes written to temporary spill files", getSpillBytes());
+            metric(w, "merge_fan_in", "gauge", "Largest number of runs merged at once", getMergeFanIn());
+            metric(w, "allocated_bytes", "gauge", "Bytes allocated by live threads", getAllocatedBytes());
+            metric(w, "gc_collections_total", "counter", "GC collections", getGcCount());
+            metric(w, "gc_time_milliseconds_total", "counter", "Time spent in GC", getGcTimeMillis());
+            metric(w, "rocksdb_ticker", "counter", "RocksDB statistics tickers", getRocksDbTickers(), "name");
+        }
+        if (!tmp.renameTo(target)) {
+            target.delete();
+            tmp.renameTo(target);
+        }
+    }
+
+    private void dumpQuietly() {
+        File f = prometheusFile;
+        if (f == null) return;
+        try {
+            dumpPrometheus(f.getPath());
+        } catch (Exception e) {
+            System.err.println("Metrics dump failed: " + e.getMessage());
+        }
+    }
+
+    private static void metric(PrintWriter w, String name, String type, String help, long value) {
+        w.println("# HELP " + PREFIX + name + " " + help);
+        w.println("# TYPE " + PREFIX + name + " " + type);
+        w.println(PREFIX + name + " " + value);
+    }
+
+    private static void metric(PrintWriter w, String name, String type, String help,
+                              Map<String, ? extends Number> values, String label) {
+        if (values.isEmpty()) return;
+        w.println("# HELP " + PREFIX + name + " " + help);
+        w.println("# TYPE " + PREFIX + name + " " + type);
+        for (Map.Entry<String, ? extends Number> e : values.entrySet()) {
+            w.println(PREFIX + name + "{" + label + "=\"" + e.getKey().replace("\"", "\\\"") + "\"} " + e.getValue());
+        }
+    }
+}
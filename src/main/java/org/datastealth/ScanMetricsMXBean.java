@@ -0,0 +1,43 @@
+package org.datastealth;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ScanMetrics}, registered as {@code org.datastealth:type=ScanMetrics}.
+ */
+public interface ScanMetricsMXBean {
+
+    String getCurrentPhase();
+
+    Map<String, Long> getPhaseRecords();
+
+    Map<String, Long> getPhaseMillis();
+
+    Map<String, Double> getPhaseRecordsPerSecond();
+
+    Map<String, Long> getCounters();
+
+    long getBytesRead();
+
+    long getDecryptCalls();
+
+    long getDecryptNanos();
+
+    long getIterationNanos();
+
+    long getSpillBytes();
+
+    long getMergeFanIn();
+
+    long getAllocatedBytes();
+
+    Map<String, Long> getThreadAllocatedBytes();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    Map<String, Long> getRocksDbTickers();
+
+    void dumpPrometheus(String path) throws Exception;
+}
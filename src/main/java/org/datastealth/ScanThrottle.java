@@ -0,0 +1,239 @@
+package org.datastealth;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Process-wide limit on how fast scan loops read shards, so a sweep can run next to the live vault
+ * server. Every scan thread calls {@link #acquire(long, long)} once per record; with no limit set
+ * that is a single volatile read.
+ *
+ * <p>Bytes/sec and records/sec are enforced with a virtual clock each (a token bucket with 100 ms of
+ * burst): a record reserves its cost on the clock and sleeps if the clock is ahead of real time.
+ * In adaptive mode a control thread compares the mean JNI iterator latency of each second against
+ * {@code THROTTLE_LATENCY_TARGET_MICROS} (or, when 0, twice the lowest latency seen so far). Above
+ * it the allowed rate is halved, below it the rate recovers by 10% a second. With no fixed limit
+ * configured, adaptive mode scales the peak records/sec observed so far.
+ *
+ * <p>Limits can be changed at runtime through the MXBean or by editing {@code THROTTLE_FILE},
+ * whose {@code THROTTLE_*} keys are re-read whenever its modification time changes.
+ */
+public class ScanThrottle implements ScanThrottleMXBean {
+
+    private static final ScanThrottle INSTANCE = new ScanThrottle();
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final long BURST_NANOS = 100_000_000L;
+    private static final long MIN_SLEEP_NANOS = 1_000_000L;
+    private static final double MIN_FRACTION = 0.05;
+
+    public static ScanThrottle get() { return INSTANCE; }
+
+    private volatile boolean enabled;
+    private volatile long bytesPerSecond;
+    private volatile long recordsPerSecond;
+    private volatile boolean adaptive;
+    private volatile long latencyTargetMicros;
+    private volatile double fraction = 1.0;
+
+    private final AtomicLong bytesClock = new AtomicLong();
+    private final AtomicLong recordsClock = new AtomicLong();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder iterationNanos = new LongAdder();
+
+    // control-thread state
+    private long lastIterations;
+    private long lastIterationNanos;
+    private long lastTick = System.nanoTime();
+    private double lowestLatency = Double.MAX_VALUE;
+    private double peakRecordsPerSecond;
+    private volatile double observedLatencyMicros;
+
+    private ScheduledExecutorService control;
+    private File watchedFile;
+    private long watchedModified;
+    private boolean registered;
+
+    private ScanThrottle() {}
+
+    // ================= CONFIG =================
+    /** Applies {@code THROTTLE_*} settings and starts the adaptive controller / file watcher as needed. */
+    public synchronized void configure(Properties props, boolean jmx) throws Exception {
+        apply(props);
+        String file = props.getProperty("THROTTLE_FILE", "").trim();
+        watchedFile = file.isEmpty() ? null : new File(file);
+        if (watchedFile != null) {
+            watchedModified = watchedFile.lastModified();
+            reloadFile();
+        }
+        if (jmx && !registered) {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("org.datastealth:type=ScanThrottle"));
+            registered = true;
+        }
+        if (control == null) {
+            control = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "scan-throttle");
+                t.setDaemon(true);
+                return t;
+            });
+            control.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+        }
+        if (enabled) log("Throttle: " + describe());
+    }
+
+    private void apply(Properties props) {
+        bytesPerSecond = Long.parseLong(props.getProperty("THROTTLE_BYTES_PER_SEC", String.valueOf(bytesPerSecond)).trim());
+        recordsPerSecond = Long.parseLong(props.getProperty("THROTTLE_RECORDS_PER_SEC", String.valueOf(recordsPerSecond)).trim());
+        adaptive = Boolean.parseBoolean(props.getProperty("THROTTLE_ADAPTIVE", String.valueOf(adaptive)).trim());
+        latencyTargetMicros = Long.parseLong(props.getProperty("THROTTLE_LATENCY_TARGET_MICROS", String.valueOf(latencyTargetMicros)).trim());
+        updateEnabled();
+    }
+
+    private void updateEnabled() {
+        if (!adaptive) fraction = 1.0;
+        enabled = bytesPerSecond > 0 || recordsPerSecond > 0 || adaptive;
+    }
+
+    private String describe() {
+        return "bytes/s=" + (bytesPerSecond > 0 ? bytesPerSecond : "unlimited")
+                + " records/s=" + (recordsPerSecond > 0 ? recordsPerSecond : "unlimited")
+                + (adaptive ? " adaptive (latency target " + (latencyTargetMicros > 0 ? latencyTargetMicros + "us" : "auto") + ")" : "");
+    }
+
+    // ================= HOT PATH =================
+    /**
+     * Accounts for one record of {@code bytes} whose iterator step took {@code iterationNanos}
+     * (0 if not measured), sleeping as long as the limits require.
+     */
+    public void acquire(long bytes, long iterationNanos) {
+        if (!enabled) return;
+        if (iterationNanos > 0) {
+            iterations.increment();
+            this.iterationNanos.add(iterationNanos);
+        }
+        double f = fraction;
+        long wait = 0;
+        long bps = bytesPerSecond;
+        if (bps > 0) wait = reserve(bytesClock, (long) (bytes * 1e9 / (bps * f)));
+        double rps = recordsPerSecond > 0 ? recordsPerSecond * f : (f < 1.0 ? peakRecordsPerSecond * f : 0);
+        if (rps > 0) wait = Math.max(wait, reserve(recordsClock, (long) (1e9 / rps)));
+        if (wait >= MIN_SLEEP_NANOS) {
+            throttledNanos.add(wait);
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    /** Moves the clock forward by {@code cost} and returns how far it is ahead of now. */
+    private static long reserve(AtomicLong clock, long cost) {
+        long now = System.nanoTime();
+        while (true) {
+            long cur = clock.get();
+            // idle time earns at most BURST_NANOS of credit
+            long base = Math.max(cur, now - BURST_NANOS);
+            if (clock.compareAndSet(cur, base + cost)) return base + cost - now;
+        }
+    }
+
+    // ================= CONTROL =================
+    private void tick() {
+        try {
+            checkFile();
+            long now = System.nanoTime();
+            long it = iterations.sum();
+            long nanos = iterationNanos.sum();
+            long dIt = it - lastIterations;
+            double seconds = (now - lastTick) / 1e9;
+            lastIterations = it;
+            lastTick = now;
+            if (dIt == 0) return;
+            double latency = (nanos - lastIterationNanos) / 1000.0 / dIt;
+            lastIterationNanos = nanos;
+            observedLatencyMicros = latency;
+            if (fraction >= 1.0) peakRecordsPerSecond = Math.max(peakRecordsPerSecond, dIt / seconds);
+            if (!adaptive) return;
+
+            lowestLatency = Math.min(lowestLatency, latency);
+            double target = latencyTargetMicros > 0 ? latencyTargetMicros : 2 * lowestLatency;
+            double before = fraction;
+            if (latency > target) fraction = Math.max(MIN_FRACTION, fraction / 2);
+            else fraction = Math.min(1.0, fraction * 1.1);
+            if (before >= 1.0 && fraction < 1.0 || before < 1.0 && fraction >= 1.0) {
+                log(String.format("Throttle: iterator latency %.1fus vs target %.1fus, rate now %.0f%%", latency, target, fraction * 100));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Throttle control failed: " + e);
+        }
+    }
+
+    private void checkFile() {
+        File f = watchedFile;
+        if (f == null) return;
+        long modified = f.lastModified();
+        if (modified == watchedModified) return;
+        watchedModified = modified;
+        reloadFile();
+    }
+
+    private synchronized void reloadFile() {
+        if (!watchedFile.exists()) return;
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(watchedFile)) {
+            p.load(in);
+            apply(p);
+            log("Throttle reloaded from " + watchedFile + ": " + describe());
+        } catch (Exception e) {
+            System.err.println("Ignoring unreadable throttle file " + watchedFile + ": " + e);
+        }
+    }
+
+    // ================= MXBEAN =================
+    @Override public long getBytesPerSecond() { return bytesPerSecond; }
+
+    @Override
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        updateEnabled();
+    }
+
+    @Override public long getRecordsPerSecond() { return recordsPerSecond; }
+
+    @Override
+    public void setRecordsPerSecond(long recordsPerSecond) {
+        this.recordsPerSecond = Math.max(0, recordsPerSecond);
+        updateEnabled();
+    }
+
+    @Override public boolean isAdaptive() { return adaptive; }
+
+    @Override
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        updateEnabled();
+    }
+
+    @Override public long getLatencyTargetMicros() { return latencyTargetMicros; }
+
+    @Override public void setLatencyTargetMicros(long micros) { this.latencyTargetMicros = Math.max(0, micros); }
+
+    @Override public double getAdaptiveFraction() { return fraction; }
+
+    @Override public double getObservedLatencyMicros() { return observedLatencyMicros; }
+
+    @Override public long getThrottledMillis() { return throttledNanos.sum() / 1_000_000; }
+
+    private static void log(String message) {
+        System.out.println("[" + LocalDateTime.now().format(LOG_FORMAT) + "] " + message);
+    }
+}
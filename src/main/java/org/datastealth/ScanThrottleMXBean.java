@@ -0,0 +1,31 @@
+package org.datastealth;
+
+/**
+ * JMX view of {@link ScanThrottle}, registered as {@code org.datastealth:type=ScanThrottle}.
+ * Setters take effect on the next record; 0 disables a limit.
+ */
+public interface ScanThrottleMXBean {
+
+    long getBytesPerSecond();
+
+    void setBytesPerSecond(long bytesPerSecond);
+
+    long getRecordsPerSecond();
+
+    void setRecordsPerSecond(long recordsPerSecond);
+
+    boolean isAdaptive();
+
+    void setAdaptive(boolean adaptive);
+
+    long getLatencyTargetMicros();
+
+    void setLatencyTargetMicros(long micros);
+
+    /** Share of the configured (or, without one, the observed peak) rate currently allowed, in (0, 1]. */
+    double getAdaptiveFraction();
+
+    double getObservedLatencyMicros();
+
+    long getThrottledMillis();
+}
@@ -0,0 +1,58 @@
+package org.datastealth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Cheap change detector for a RocksDB shard directory, computed from file metadata only: the
+ * contents of {@code CURRENT} plus the name and size of every MANIFEST, SST and WAL file. Any write
+ * that becomes visible to a reader changes at least one of these. Info logs ({@code LOG},
+ * {@code LOG.old.*}) are ignored because a read-only open appends to them.
+ */
+public final class ShardFingerprint {
+
+    private ShardFingerprint() {
+    }
+
+    public static long of(File shard) throws IOException {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, new String(Files.readAllBytes(new File(shard, "CURRENT").toPath()), StandardCharsets.UTF_8).trim());
+        File[] files = Objects.requireNonNull(shard.listFiles(), shard.toString());
+        Arrays.sort(files);
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith("MANIFEST-") || name.endsWith(".sst") || name.endsWith(".log")) {
+                h = mix(h, name);
+                h = mix(h, Long.toString(f.length()));
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Same hash over arbitrary strings, e.g. the settings a cached shard result depends on. */
+    static long of(String... parts) {
+        long h = 0xcbf29ce484222325L;
+        for (String p : parts) h = mix(h, p == null ? "" : p);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mix(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // separator so ("ab","c") and ("a","bc") differ
+        h ^= 0xff;
+        return h * 0x100000001b3L;
+    }
+}
@@ -0,0 +1,230 @@
+package org.datastealth;
+
+import org.rocksdb.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a bounded LRU of read-only shard handles and opens upcoming shards in the background
+ * while the current one is being scanned. All handles share one {@link Options} instance, so
+ * they share its table factory and therefore a single block cache.
+ *
+ * Scanners call {@link #schedule(List)} with the order they will visit shards in, then
+ * {@link #acquire(File)} each shard; closing the returned {@link Handle} only unpins it. The
+ * database is closed when it is evicted or when the manager itself is closed.
+ */
+public class ShardHandleManager implements AutoCloseable {
+
+    // ================= HANDLE =================
+    public static final class Handle implements AutoCloseable {
+        private final ShardHandleManager owner;
+        private final String path;
+        private final RocksDB db;
+        private int pins;
+
+        private Handle(ShardHandleManager owner, String path, RocksDB db) {
+            this.owner = owner;
+            this.path = path;
+            this.db = db;
+        }
+
+        public RocksDB db() { return db; }
+
+        @Override
+        public void close() { owner.release(this); }
+    }
+
+    private final Options options;
+    private final int maxOpen;
+    private final int prefetchDepth;
+    private final ExecutorService opener;
+
+    // access-ordered: iteration starts at the least recently used handle
+    private final LinkedHashMap<String, Handle> open = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Future<RocksDB>> pending = new HashMap<>();
+    private final Map<String, Integer> schedulePos = new HashMap<>();
+    private List<String> schedule = Collections.emptyList();
+    private boolean closed;
+    private boolean statisticsEnabled;
+
+    /**
+     * @param blockCacheBytes size of the block cache shared by every handle
+     * @param maxOpen         maximum number of open (or opening) shards
+     * @param prefetchDepth   how many scheduled shards to open ahead of the current one
+     * @param maxOpenFiles    RocksDB {@code max_open_files} per shard, -1 for unlimited
+     */
+    public ShardHandleManager(long blockCacheBytes, int maxOpen, int prefetchDepth, int maxOpenFiles) {
+        RocksDB.loadLibrary();
+        this.prefetchDepth = Math.max(0, prefetchDepth);
+        this.maxOpen = Math.max(maxOpen, this.prefetchDepth + 1);
+        this.options = new Options()
+                .setMaxOpenFiles(maxOpenFiles)
+                .setTableFormatConfig(new BlockBasedTableConfig().setBlockCacheSize(blockCacheBytes));
+        this.opener = Executors.newFixedThreadPool(Math.max(1, this.prefetchDepth), r -> {
+            Thread t = new Thread(r, "shard-opener");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Options shared by every handle; exposed so callers can attach statistics before the first open. */
+    public Options options() { return options; }
+
+    /** Collects RocksDB statistics for every shard opened from now on and publishes them via {@link ScanMetrics}. */
+    public synchronized void enableStatistics() {
+        options.createStatistics();
+        statisticsEnabled = true;
+        ScanMetrics.get().attachStatistics(options.statisticsPtr());
+    }
+
+    // ================= SCHEDULING =================
+    public synchronized void schedule(List<File> shardsInOrder) {
+        List<String> paths = new ArrayList<>(shardsInOrder.size());
+        schedulePos.clear();
+        for (File shard : shardsInOrder) {
+            String path = shard.getAbsolutePath();
+            schedulePos.put(path, paths.size());
+            paths.add(path);
+        }
+        schedule = paths;
+        // opens left over from the previous schedule would never be acquired, yet count toward maxOpen
+        Iterator<Map.Entry<String, Future<RocksDB>>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Future<RocksDB>> e = it.next();
+            if (schedulePos.containsKey(e.getKey())) continue;
+            it.remove();
+            Future<RocksDB> f = e.getValue();
+            // an open already running finishes on the opener and is closed there
+            if (!f.cancel(false)) opener.submit(() -> closeQuietly(f));
+        }
+        if (!paths.isEmpty()) prefetchFrom(0);
+    }
+
+    public Handle acquire(File shard) throws RocksDBException {
+        String path = shard.getAbsolutePath();
+        Future<RocksDB> future;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Shard handle manager is closed");
+            Handle h = open.get(path);
+            if (h != null) {
+                h.pins++;
+                prefetchAfter(path);
+                return h;
+            }
+            future = pending.remove(path);
+            prefetchAfter(path);
+        }
+
+        RocksDB db = future != null ? await(future) : RocksDB.openReadOnly(options, path);
+
+        synchronized (this) {
+            Handle h = open.get(path);
+            if (h != null) {
+                // another caller won the race for the same shard
+                db.close();
+            } else {
+                h = new Handle(this, path, db);
+                open.put(path, h);
+            }
+            h.pins++;
+            evictIfNeeded();
+            return h;
+        }
+    }
+
+    private synchronized void release(Handle h) {
+        h.pins--;
+        if (closed && h.pins == 0) {
+            open.remove(h.path);
+            h.db.close();
+            if (open.isEmpty()) options.close();
+            return;
+        }
+        evictIfNeeded();
+    }
+
+    private void prefetchAfter(String path) {
+        Integer pos = schedulePos.get(path);
+        if (pos != null) prefetchFrom(pos + 1);
+    }
+
+    private void prefetchFrom(int start) {
+        int end = Math.min(schedule.size(), start + prefetchDepth);
+        for (int i = start; i < end; i++) {
+            String next = schedule.get(i);
+            if (open.containsKey(next) || pending.containsKey(next)) continue;
+            if (open.size() + pending.size() >= maxOpen && !evictOne()) return;
+            pending.put(next, opener.submit(() -> RocksDB.openReadOnly(options, next)));
+        }
+    }
+
+    // ================= EVICTION =================
+    private void evictIfNeeded() {
+        while (open.size() + pending.size() > maxOpen) {
+            if (!evictOne()) return;
+        }
+    }
+
+    private boolean evictOne() {
+        Iterator<Handle> it = open.values().iterator();
+        while (it.hasNext()) {
+            Handle h = it.next();
+            if (h.pins == 0) {
+                it.remove();
+                h.db.close();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void closeQuietly(Future<RocksDB> f) {
+        try {
+            f.get().close();
+        } catch (Exception ignored) {
+            // a failed or cancelled background open has nothing to close
+        }
+    }
+
+    private static RocksDB await(Future<RocksDB> future) throws RocksDBException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while opening shard", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RocksDBException) throw (RocksDBException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // ================= CLOSE =================
+    @Override
+    public void close() {
+        List<Future<RocksDB>> inFlight;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            inFlight = new ArrayList<>(pending.values());
+            pending.clear();
+            Iterator<Handle> it = open.values().iterator();
+            while (it.hasNext()) {
+                Handle h = it.next();
+                if (h.pins == 0) {
+                    it.remove();
+                    h.db.close();
+                }
+            }
+        }
+        opener.shutdown();
+        for (Future<RocksDB> f : inFlight) closeQuietly(f);
+        synchronized (this) {
+            if (statisticsEnabled) ScanMetrics.get().detachStatistics();
+            if (open.isEmpty()) options.close();
+        }
+    }
+}
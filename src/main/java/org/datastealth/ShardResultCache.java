@@ -0,0 +1,67 @@
+package org.datastealth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Local-disk cache of per-shard scan results, so a rerun only decrypts shards that changed. An entry
+ * lives at {@code <dir>/<folder>/<device>.<fingerprint>.<config>.cache}: the shard's
+ * {@link ShardFingerprint} taken before the scan, and a hash of the settings the result depends on
+ * (prefixes, value decoder, format version). A compaction, a new write or a config change therefore
+ * simply misses; the superseded entry of that shard is deleted when the new one is committed.
+ *
+ * <p>What goes in an entry is up to the tool. Entries are written to a temporary file and renamed
+ * into place, so a crashed or cut-short scan never leaves a partial entry behind.
+ */
+final class ShardResultCache {
+
+    private final File dir;
+    private final String config;
+
+    /** {@code config} lists every setting that changes what an entry holds. */
+    ShardResultCache(File dir, String... config) {
+        this.dir = dir;
+        this.config = Long.toHexString(ShardFingerprint.of(config));
+    }
+
+    Entry open(File shard) throws IOException {
+        long fingerprint = ShardFingerprint.of(shard);
+        File folderDir = new File(dir, shard.getParentFile().getParentFile().getName());
+        return new Entry(folderDir, shard.getName(), Long.toHexString(fingerprint));
+    }
+
+    final class Entry {
+        final File file;
+        private final File folderDir;
+        private final String device;
+
+        private Entry(File folderDir, String device, String fingerprint) {
+            this.folderDir = folderDir;
+            this.device = device;
+            this.file = new File(folderDir, device + "." + fingerprint + "." + config + ".cache");
+        }
+
+        boolean hit() {
+            return file.isFile();
+        }
+
+        /** A fresh temporary file next to the entry, to be passed to {@link #commit}. */
+        File newTemp() throws IOException {
+            Files.createDirectories(folderDir.toPath());
+            return File.createTempFile(device + ".", ".tmp", folderDir);
+        }
+
+        /** Publishes {@code tmp} as this entry and drops older entries of the same shard. */
+        void commit(File tmp) throws IOException {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            File[] old = folderDir.listFiles((d, name) -> name.startsWith(device + ".") && name.endsWith(".cache")
+                    && !name.equals(file.getName()));
+            if (old == null) return;
+            for (File f : old) {
+                if (!f.delete()) System.err.println("Could not delete superseded shard cache " + f);
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.datastealth;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.*;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.rocksdb.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an offline vault shaped like production: {@code storage/cabinet/<name>/rocks/<deviceUuid>}
+ * shards keyed by encrypted cabinet UUIDs and {@code storage/index/<name>/rocks/<deviceUuid>} shards
+ * whose encrypted values reference those cabinets. Keys and values are AES-CBC encrypted with the
+ * same SHA-384-derived key/IV the tools derive from the shard's device UUID.
+ *
+ * Cabinet UUIDs are a pure function of (seed, ordinal), so index shards can reference any cabinet
+ * without holding the cabinet set in memory; orphans reference ordinals past the cabinet count.
+ * Every shard is generated from its own seeded stream, so output is identical for any thread count.
+ */
+public class SyntheticVaultGenerator {
+
+    private static final SimpleDateFormat LOG_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final String[] FIELDS = {"email", "phone", "account_no", "ssn", "customer_ref", "iban"};
+    private static final char[] ALNUM = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    // ================= CONFIG =================
+    private static File VAULT_BASE;
+    private static String INDEX_PREFIX;
+    private static long SEED;
+    private static int INDEX_FOLDERS;
+    private static int INDEX_SHARDS_PER_FOLDER;
+    private static int CABINET_FOLDERS;
+    private static int CABINET_SHARDS_PER_FOLDER;
+    private static long CABINETS;
+    private static long INDEX_RECORDS;
+    private static double ORPHAN_RATE;
+    private static double NON_INDEX_RATE;
+    private static long DISTINCT_UUIDS;
+    private static double UUID_SKEW;
+    private static int[] KEY_PADDING;
+    private static int[] VALUE_SIZE;
+    private static int[] CABINET_VALUE_SIZE;
+    private static String VALUE_FORMAT;
+    private static boolean CABINET_KEY_UPPERCASE;
+    private static int THREADS;
+    private static int BATCH_SIZE;
+    private static boolean COMPACT;
+
+    private static final AtomicLong ORPHANS = new AtomicLong();
+    private static final AtomicLong WRITTEN = new AtomicLong();
+
+    // ================= MAIN =================
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticVaultGenerator <generator.properties>");
+            System.exit(2);
+        }
+        RocksDB.loadLibrary();
+        loadConfig(args[0]);
+
+        File indexBase = new File(VAULT_BASE, "storage/index");
+        File cabinetBase = new File(VAULT_BASE, "storage/cabinet");
+        if (indexBase.exists() || cabinetBase.exists()) {
+            throw new IllegalStateException("Vault already exists under " + VAULT_BASE.getAbsolutePath());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> jobs = new ArrayList<>();
+        long start = System.currentTimeMillis();
+
+        int cabinetShards = CABINET_FOLDERS * CABINET_SHARDS_PER_FOLDER;
+        for (int shard = 0; shard < cabinetShards; shard++) {
+            final int s = shard;
+            File dir = shardDir(cabinetBase, "cabinet_", s / CABINET_SHARDS_PER_FOLDER, "cabinet", s);
+            jobs.add(pool.submit(() -> { writeCabinetShard(dir, s, cabinetShards); return null; }));
+        }
+
+        int indexShards = INDEX_FOLDERS * INDEX_SHARDS_PER_FOLDER;
+        for (int shard = 0; shard < indexShards; shard++) {
+            final int s = shard;
+            File dir = shardDir(indexBase, "index_", s / INDEX_SHARDS_PER_FOLDER, "index", s);
+            jobs.add(pool.submit(() -> { writeIndexShard(dir, s, indexShards); return null; }));
+        }
+
+        try {
+            for (Future<?> f : jobs) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        writeManifest(indexBase, cabinetBase, elapsed);
+        log("Generated " + CABINETS + " cabinets and " + INDEX_RECORDS + " index records ("
+                + ORPHANS.get() + " orphans) in " + elapsed + "ms → " + VAULT_BASE.getAbsolutePath());
+    }
+
+    private static void loadConfig(String path) throws Exception {
+        log("Loading configuration from: " + path);
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            props.load(in);
+        }
+
+        String base = props.getProperty("VAULT_BASE");
+        if (base == null || base.trim().isEmpty()) throw new IllegalArgumentException("Missing required config: VAULT_BASE");
+        VAULT_BASE = new File(base.trim());
+        INDEX_PREFIX = props.getProperty("INDEX_PREFIX", "dbidxEntry").trim();
+        SEED = Long.parseLong(props.getProperty("GEN_SEED", "20260209").trim());
+        INDEX_FOLDERS = Integer.parseInt(props.getProperty("GEN_INDEX_FOLDERS", "4").trim());
+        INDEX_SHARDS_PER_FOLDER = Integer.parseInt(props.getProperty("GEN_INDEX_SHARDS_PER_FOLDER", "2").trim());
+        CABINET_FOLDERS = Integer.parseInt(props.getProperty("GEN_CABINET_FOLDERS", "2").trim());
+        CABINET_SHARDS_PER_FOLDER = Integer.parseInt(props.getProperty("GEN_CABINET_SHARDS_PER_FOLDER", "2").trim());
+        CABINETS = Long.parseLong(props.getProperty("GEN_CABINETS", "100000").trim());
+        INDEX_RECORDS = Long.parseLong(props.getProperty("GEN_INDEX_RECORDS", "1000000").trim());
+        ORPHAN_RATE = Double.parseDouble(props.getProperty("GEN_ORPHAN_RATE", "0.001").trim());
+        NON_INDEX_RATE = Double.parseDouble(props.getProperty("GEN_NON_INDEX_RATE", "0.05").trim());
+        DISTINCT_UUIDS = Long.parseLong(props.getProperty("GEN_DISTINCT_UUIDS", String.valueOf(Math.max(1, INDEX_RECORDS / 4))).trim());
+        UUID_SKEW = Double.parseDouble(props.getProperty("GEN_UUID_SKEW", "1.1").trim());
+        KEY_PADDING = range(props.getProperty("GEN_KEY_PADDING", "0-24"));
+        VALUE_SIZE = range(props.getProperty("GEN_VALUE_SIZE", "96-512"));
+        CABINET_VALUE_SIZE = range(props.getProperty("GEN_CABINET_VALUE_SIZE", "256-2048"));
+        VALUE_FORMAT = props.getProperty("GEN_VALUE_FORMAT", "raw").trim().toLowerCase();
+        if (!Arrays.asList("raw", "thrift-binary", "thrift-compact").contains(VALUE_FORMAT)) {
+            throw new IllegalArgumentException("GEN_VALUE_FORMAT must be raw, thrift-binary or thrift-compact: " + VALUE_FORMAT);
+        }
+        CABINET_KEY_UPPERCASE = Boolean.parseBoolean(props.getProperty("GEN_CABINET_KEY_UPPERCASE", "false").trim());
+        THREADS = Integer.parseInt(props.getProperty("GEN_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        BATCH_SIZE = Integer.parseInt(props.getProperty("GEN_BATCH_SIZE", "10000").trim());
+        COMPACT = Boolean.parseBoolean(props.getProperty("GEN_COMPACT", "true").trim());
+
+        if (CABINETS < 1 || INDEX_FOLDERS < 1 || INDEX_SHARDS_PER_FOLDER < 1 || CABINET_FOLDERS < 1 || CABINET_SHARDS_PER_FOLDER < 1) {
+            throw new IllegalArgumentException("Folder, shard and cabinet counts must be positive");
+        }
+        if (ORPHAN_RATE < 0 || ORPHAN_RATE > 1 || NON_INDEX_RATE < 0 || NON_INDEX_RATE >= 1) {
+            throw new IllegalArgumentException("GEN_ORPHAN_RATE must be in [0,1] and GEN_NON_INDEX_RATE in [0,1)");
+        }
+        log("Configuration loaded successfully");
+    }
+
+    private static int[] range(String spec) {
+        String[] parts = spec.trim().split("-");
+        int min = Integer.parseInt(parts[0].trim());
+        int max = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : min;
+        if (min < 0 || max < min) throw new IllegalArgumentException("Bad size range: " + spec);
+        return new int[]{min, max};
+    }
+
+    // ================= SHARDS =================
+    private static File shardDir(File base, String folderPrefix, int folder, String kind, int shard) {
+        String device = uuid(SEED ^ kind.hashCode(), shard).toString().toUpperCase();
+        return new File(base, folderPrefix + folder + "/rocks/" + device);
+    }
+
+    private static void writeCabinetShard(File dir, int shard, int shardCount) throws Exception {
+        long from = CABINETS * shard / shardCount;
+        long to = CABINETS * (shard + 1) / shardCount;
+        Random rnd = new Random(SEED * 31 + shard);
+        Cipher cipher = cipherFor(dir.getName());
+
+        try (Writer w = new Writer(dir)) {
+            for (long ordinal = from; ordinal < to; ordinal++) {
+                String id = cabinetUuid(ordinal).toString();
+                if (CABINET_KEY_UPPERCASE) id = id.toUpperCase();
+                byte[] value = new byte[size(rnd, CABINET_VALUE_SIZE)];
+                rnd.nextBytes(value);
+                w.put(cipher.doFinal(id.getBytes(StandardCharsets.UTF_8)), cipher.doFinal(value));
+            }
+        }
+        log("Cabinet shard " + dir.getParentFile().getParentFile().getName() + "/" + dir.getName() + ": " + (to - from) + " cabinets");
+    }
+
+    private static void writeIndexShard(File dir, int shard, int shardCount) throws Exception {
+        long from = INDEX_RECORDS * shard / shardCount;
+        long to = INDEX_RECORDS * (shard + 1) / shardCount;
+        Random rnd = new Random(SEED * 17 + shard);
+        ZipfSampler zipf = new ZipfSampler(DISTINCT_UUIDS, UUID_SKEW);
+        Cipher cipher = cipherFor(dir.getName());
+        long orphans = 0;
+
+        try (Writer w = new Writer(dir)) {
+            for (long seq = from; seq < to; seq++) {
+                if (rnd.nextDouble() < NON_INDEX_RATE) {
+                    // unrelated key family, skipped by the prefix filter
+                    byte[] key = ("dbmeta\u0000" + seq + padding(rnd)).getBytes(StandardCharsets.UTF_8);
+                    byte[] value = new byte[size(rnd, VALUE_SIZE)];
+                    rnd.nextBytes(value);
+                    w.put(cipher.doFinal(key), cipher.doFinal(value));
+                }
+
+                UUID indexed = uuid(SEED ^ 0x1D5EEDL, zipf.sample(rnd));
+                String key = INDEX_PREFIX + "\u0000" + FIELDS[rnd.nextInt(FIELDS.length)] + "\u0000" + indexed
+                        + "\u0000" + seq + padding(rnd);
+
+                boolean orphan = rnd.nextDouble() < ORPHAN_RATE;
+                long ordinal = orphan
+                        ? CABINETS + (rnd.nextLong() & Long.MAX_VALUE) % Math.max(1, CABINETS)
+                        : (rnd.nextLong() & Long.MAX_VALUE) % CABINETS;
+                if (orphan) orphans++;
+
+                w.put(cipher.doFinal(key.getBytes(StandardCharsets.UTF_8)),
+                        cipher.doFinal(indexValue(rnd, cabinetUuid(ordinal))));
+            }
+        }
+        ORPHANS.addAndGet(orphans);
+        log("Index shard " + dir.getParentFile().getParentFile().getName() + "/" + dir.getName() + ": "
+                + (to - from) + " index records, " + orphans + " orphans");
+    }
+
+    /** Serialized entry: small header, the cabinet UUID as 16 raw bytes, its dashed form, filler. */
+    private static byte[] indexValue(Random rnd, UUID cabinet) throws TException {
+        if (!VALUE_FORMAT.equals("raw")) return thriftIndexValue(rnd, cabinet);
+        int size = Math.max(3 + 16 + 36, size(rnd, VALUE_SIZE));
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        bb.put((byte) 0x0B).put((byte) 0).put((byte) 1);
+        bb.putLong(cabinet.getMostSignificantBits()).putLong(cabinet.getLeastSignificantBits());
+        bb.put(cabinet.toString().getBytes(StandardCharsets.US_ASCII));
+        while (bb.hasRemaining()) bb.put((byte) ALNUM[rnd.nextInt(ALNUM.length)]);
+        return bb.array();
+    }
+
+    /**
+     * Thrift struct {1: binary cabinetId (16 bytes), 2: string cabinetRef, 3: i64 updatedAt,
+     * 4: string payload}, padded with payload up to GEN_VALUE_SIZE.
+     */
+    private static byte[] thriftIndexValue(Random rnd, UUID cabinet) throws TException {
+        TMemoryBuffer buf = new TMemoryBuffer(64);
+        TProtocol p = VALUE_FORMAT.equals("thrift-compact") ? new TCompactProtocol(buf) : new TBinaryProtocol(buf);
+        ByteBuffer raw = ByteBuffer.allocate(16).putLong(cabinet.getMostSignificantBits()).putLong(cabinet.getLeastSignificantBits());
+        raw.flip();
+        char[] payload = new char[Math.max(0, size(rnd, VALUE_SIZE) - 16 - 36 - 8 - 16)];
+        for (int i = 0; i < payload.length; i++) payload[i] = ALNUM[rnd.nextInt(ALNUM.length)];
+
+        p.writeStructBegin(new TStruct("IndexEntry"));
+        p.writeFieldBegin(new TField("cabinetId", TType.STRING, (short) 1));
+        p.writeBinary(raw);
+        p.writeFieldEnd();
+        p.writeFieldBegin(new TField("cabinetRef", TType.STRING, (short) 2));
+        p.writeString(cabinet.toString());
+        p.writeFieldEnd();
+        p.writeFieldBegin(new TField("updatedAt", TType.I64, (short) 3));
+        p.writeI64(1_700_000_000_000L + rnd.nextInt(1 << 30));
+        p.writeFieldEnd();
+        p.writeFieldBegin(new TField("payload", TType.STRING, (short) 4));
+        p.writeString(new String(payload));
+        p.writeFieldEnd();
+        p.writeFieldStop();
+        p.writeStructEnd();
+        return Arrays.copyOf(buf.getArray(), buf.length());
+    }
+
+    private static String padding(Random rnd) {
+        int len = size(rnd, KEY_PADDING);
+        if (len == 0) return "";
+        StringBuilder sb = new StringBuilder(len + 1).append('\u0000');
+        for (int i = 0; i < len; i++) sb.append(ALNUM[rnd.nextInt(ALNUM.length)]);
+        return sb.toString();
+    }
+
+    private static int size(Random rnd, int[] range) {
+        return range[0] + (range[1] > range[0] ? rnd.nextInt(range[1] - range[0] + 1) : 0);
+    }
+
+    // ================= WRITER =================
+    /** Bulk-load writer: WAL off, batched puts, explicit flush (and optional compaction) on close. */
+    private static final class Writer implements AutoCloseable {
+        private final Options options;
+        private final RocksDB db;
+        private final WriteOptions writeOptions = new WriteOptions().setDisableWAL(true);
+        private WriteBatch batch = new WriteBatch();
+        private int pending;
+
+        Writer(File dir) throws RocksDBException {
+            dir.mkdirs();
+            options = new Options().setCreateIfMissing(true).setErrorIfExists(true).prepareForBulkLoad();
+            db = RocksDB.open(options, dir.getAbsolutePath());
+        }
+
+        void put(byte[] key, byte[] value) throws RocksDBException {
+            batch.put(key, value);
+            if (++pending >= BATCH_SIZE) flushBatch();
+        }
+
+        private void flushBatch() throws RocksDBException {
+            if (pending == 0) return;
+            db.write(writeOptions, batch);
+            WRITTEN.addAndGet(pending);
+            batch.close();
+            batch = new WriteBatch();
+            pending = 0;
+        }
+
+        @Override
+        public void close() throws RocksDBException {
+            try {
+                flushBatch();
+                try (FlushOptions flush = new FlushOptions().setWaitForFlush(true)) {
+                    db.flush(flush);
+                }
+                if (COMPACT) db.compactRange();
+            } finally {
+                batch.close();
+                writeOptions.close();
+                db.close();
+                options.close();
+            }
+        }
+    }
+
+    // ================= CRYPTO =================
+    private static Cipher cipherFor(String deviceUuid) throws Exception {
+        RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto = RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(deviceUuid);
+        Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        // doFinal resets to the initialized state, so one cipher serves the whole shard
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(crypto.key, "AES"), new IvParameterSpec(crypto.iv));
+        return c;
+    }
+
+    // ================= DETERMINISTIC IDS =================
+    static UUID cabinetUuid(long ordinal) {
+        return uuid(SEED ^ 0xCAB1AE7L, ordinal);
+    }
+
+    private static UUID uuid(long stream, long ordinal) {
+        long msb = mix64(stream * 0x9E3779B97F4A7C15L + ordinal);
+        long lsb = mix64(msb ^ (ordinal + 0x632BE59BD9B4E019L));
+        msb = (msb & ~0xF000L) | 0x4000L;                 // version 4
+        lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // IETF variant
+        return new UUID(msb, lsb);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Zipf(n, s) over ranks 1..n by rejection-inversion (Hörmann and Derflinger); s <= 0 is uniform. */
+    private static final class ZipfSampler {
+        private final long n;
+        private final double s;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double sParam;
+
+        ZipfSampler(long n, double s) {
+            this.n = Math.max(1, n);
+            this.s = s;
+            hIntegralX1 = hIntegral(1.5) - 1d;
+            hIntegralN = hIntegral(this.n + 0.5);
+            sParam = 2d - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        long sample(Random rnd) {
+            if (s <= 0) return 1 + (rnd.nextLong() & Long.MAX_VALUE) % n;
+            while (true) {
+                double u = hIntegralN + rnd.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= sParam || u >= hIntegral(k + 0.5) - h(k)) return k;
+            }
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1d - s) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-s * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1d, x * (1d - s));
+            return Math.exp(helper1(t) * x);
+        }
+
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1d / 3 - 0.25 * x));
+        }
+
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1d / 3) * (1 + 0.25 * x));
+        }
+    }
+
+    // ================= MANIFEST =================
+    /** Records what was generated and writes a tool config pointing at the new vault. */
+    private static void writeManifest(File indexBase, File cabinetBase, long elapsedMs) throws Exception {
+        Properties manifest = new Properties();
+        manifest.setProperty("seed", String.valueOf(SEED));
+        manifest.setProperty("cabinets", String.valueOf(CABINETS));
+        manifest.setProperty("index_records", String.valueOf(INDEX_RECORDS));
+        manifest.setProperty("orphans", String.valueOf(ORPHANS.get()));
+        manifest.setProperty("records_written", String.valueOf(WRITTEN.get()));
+        manifest.setProperty("index_shards", String.valueOf(INDEX_FOLDERS * INDEX_SHARDS_PER_FOLDER));
+        manifest.setProperty("cabinet_shards", String.valueOf(CABINET_FOLDERS * CABINET_SHARDS_PER_FOLDER));
+        manifest.setProperty("elapsed_ms", String.valueOf(elapsedMs));
+        try (OutputStream out = new FileOutputStream(new File(VAULT_BASE, "vault-manifest.properties"))) {
+            manifest.store(out, "Synthetic vault");
+        }
+
+        Properties tool = new Properties();
+        tool.setProperty("INDEX_BASE", indexBase.getAbsolutePath());
+        tool.setProperty("CABINET_BASE", cabinetBase.getAbsolutePath());
+        tool.setProperty("OUTPUT_DIR", new File(VAULT_BASE, "csv_dumps").getAbsolutePath());
+        tool.setProperty("INDEX_PREFIX", INDEX_PREFIX);
+        // no early stop: both tools read DEFAULT_ORPHAN_LIMIT as their cut-off
+        tool.setProperty("DEFAULT_ORPHAN_LIMIT", String.valueOf(Integer.MAX_VALUE));
+        try (OutputStream out = new FileOutputStream(new File(VAULT_BASE, "rocks-exporter.properties"))) {
+            tool.store(out, "Tool configuration for the synthetic vault");
+        }
+    }
+
+    private static void log(String message) {
+        synchronized (LOG_FORMAT) {
+            System.out.println("[" + LOG_FORMAT.format(new Date()) + "] " + message);
+        }
+    }
+}
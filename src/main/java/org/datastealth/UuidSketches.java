@@ -0,0 +1,237 @@
+package org.datastealth;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Single-pass approximate view of (index, uuid) references: a HyperLogLog per index for distinct
+ * UUIDs, one Count-Min sketch over (index, uuid) pairs shared by all indexes, and per index the K
+ * UUIDs with the largest estimated counts. Memory does not grow with the number of records.
+ *
+ * <p>Sketch files written by separate workers over disjoint shards can be merged:
+ * <pre>
+ *   UuidSketches &lt;output-dir&gt; worker1/index_uuid_sketches.bin worker2/index_uuid_sketches.bin ...
+ * </pre>
+ * writes the merged sketch file and both reports into {@code output-dir}.
+ */
+public class UuidSketches {
+
+    private static final int MAGIC = 0x55534b31; // "USK1"
+
+    private final int hllPrecision;
+    private final int topK;
+    private final CountMinSketch pairs;
+    private final Map<String, IndexSketch> indexes = new TreeMap<>();
+
+    public UuidSketches(double distinctError, double cmsEpsilon, double cmsDelta, int topK) {
+        this(HyperLogLog.forError(distinctError).precision(), CountMinSketch.forError(cmsEpsilon, cmsDelta), topK);
+    }
+
+    private UuidSketches(int hllPrecision, CountMinSketch pairs, int topK) {
+        this.hllPrecision = hllPrecision;
+        this.pairs = pairs;
+        this.topK = topK;
+    }
+
+    /** Per-index state; look it up once per index folder rather than per record. */
+    public IndexSketch index(String indexName) {
+        return indexes.computeIfAbsent(indexName, n -> new IndexSketch(n, new HyperLogLog(hllPrecision)));
+    }
+
+    public final class IndexSketch {
+        final String name;
+        final long nameHash;
+        final HyperLogLog distinct;
+        final Map<String, Long> candidates = new HashMap<>();
+        long records;
+        private String minKey;
+        private long minEstimate = Long.MAX_VALUE;
+
+        private IndexSketch(String name, HyperLogLog distinct) {
+            this.name = name;
+            this.nameHash = hash(name);
+            this.distinct = distinct;
+        }
+
+        public void add(String uuid) {
+            long h = hash(uuid);
+            records++;
+            distinct.addHash(h);
+            offer(uuid, pairs.add(pairHash(nameHash, h)));
+        }
+
+        private void offer(String uuid, long estimate) {
+            if (topK <= 0) return;
+            Long old = candidates.get(uuid);
+            if (old != null) {
+                candidates.put(uuid, estimate);
+                // estimates only grow, so the minimum only moves when it was this key
+                if (uuid.equals(minKey)) minKey = null;
+            } else if (candidates.size() < topK) {
+                candidates.put(uuid, estimate);
+                if (minKey != null && estimate < minEstimate) {
+                    minKey = uuid;
+                    minEstimate = estimate;
+                }
+            } else {
+                if (minKey == null) recomputeMin();
+                if (estimate > minEstimate) {
+                    candidates.remove(minKey);
+                    candidates.put(uuid, estimate);
+                    minKey = null;
+                }
+            }
+        }
+
+        private void recomputeMin() {
+            minEstimate = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> e : candidates.entrySet()) {
+                if (e.getValue() < minEstimate) {
+                    minEstimate = e.getValue();
+                    minKey = e.getKey();
+                }
+            }
+        }
+
+        /** Candidates re-estimated against the current sketch, largest first. */
+        List<Map.Entry<String, Long>> heavyHitters() {
+            List<Map.Entry<String, Long>> out = new ArrayList<>();
+            for (String uuid : candidates.keySet()) {
+                out.add(new AbstractMap.SimpleEntry<>(uuid, pairs.estimate(pairHash(nameHash, hash(uuid)))));
+            }
+            out.sort(Comparator.<Map.Entry<String, Long>>comparingLong(e -> -e.getValue()).thenComparing(Map.Entry::getKey));
+            return out.size() > topK ? out.subList(0, topK) : out;
+        }
+    }
+
+    // ================= MERGE =================
+    public void merge(UuidSketches other) {
+        if (other.hllPrecision != hllPrecision || other.topK != topK) {
+            throw new IllegalArgumentException("sketch parameters differ; merge needs identical SKETCH_* settings");
+        }
+        pairs.merge(other.pairs);
+        for (IndexSketch o : other.indexes.values()) {
+            IndexSketch mine = index(o.name);
+            mine.distinct.merge(o.distinct);
+            mine.records += o.records;
+            for (String uuid : o.candidates.keySet()) mine.candidates.putIfAbsent(uuid, 0L);
+        }
+        // re-rank the candidate union against the merged counts
+        for (IndexSketch s : indexes.values()) {
+            List<Map.Entry<String, Long>> top = s.heavyHitters();
+            s.candidates.clear();
+            for (Map.Entry<String, Long> e : top) s.candidates.put(e.getKey(), e.getValue());
+            s.minKey = null;
+        }
+    }
+
+    // ================= OUTPUT =================
+    /** Writes index_uuid_distinct.csv, index_uuid_heavy_hitters.csv and index_uuid_sketches.bin. */
+    public void writeReports(File dir) throws IOException {
+        try (CsvSink out = new CsvSink(new File(dir, "index_uuid_distinct.csv"), 0, 1 << 16)) {
+            out.line("indexName,records,distinct_estimate");
+            for (IndexSketch s : indexes.values()) out.field(s.name).field(s.records).field(s.distinct.estimate()).endRow();
+        }
+        try (CsvSink out = new CsvSink(new File(dir, "index_uuid_heavy_hitters.csv"), 0, 1 << 16)) {
+            out.line("indexName,value,estimated_count,rank");
+            for (IndexSketch s : indexes.values()) {
+                int rank = 1;
+                for (Map.Entry<String, Long> e : s.heavyHitters()) {
+                    out.field(s.name).field(e.getKey()).field(e.getValue()).field(rank++).endRow();
+                }
+            }
+        }
+        write(new File(dir, "index_uuid_sketches.bin"));
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            writeTo(out);
+        }
+    }
+
+    /** Upper bound on how far any heavy-hitter estimate can exceed the true count (with probability 1 - delta). */
+    public long overcountBound(double epsilon) {
+        return (long) Math.ceil(epsilon * pairs.total());
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(hllPrecision);
+        out.writeInt(topK);
+        pairs.writeTo(out);
+        out.writeInt(indexes.size());
+        for (IndexSketch s : indexes.values()) {
+            out.writeUTF(s.name);
+            out.writeLong(s.records);
+            s.distinct.writeTo(out);
+            out.writeInt(s.candidates.size());
+            for (String uuid : s.candidates.keySet()) out.writeUTF(uuid);
+        }
+    }
+
+    public static UuidSketches readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a UUID sketch file");
+        int precision = in.readByte();
+        int topK = in.readInt();
+        UuidSketches s = new UuidSketches(precision, CountMinSketch.readFrom(in), topK);
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String name = in.readUTF();
+            long records = in.readLong();
+            IndexSketch idx = s.new IndexSketch(name, HyperLogLog.readFrom(in));
+            idx.records = records;
+            s.indexes.put(name, idx);
+            int c = in.readInt();
+            for (int j = 0; j < c; j++) {
+                String uuid = in.readUTF();
+                idx.candidates.put(uuid, s.pairs.estimate(pairHash(idx.nameHash, hash(uuid))));
+            }
+        }
+        return s;
+    }
+
+    public static UuidSketches read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            return readFrom(in);
+        }
+    }
+
+    // ================= HASHING =================
+    /** FNV-1a over UTF-16 units followed by the murmur3 finalizer. */
+    static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return fmix64(h);
+    }
+
+    private static long pairHash(long indexHash, long uuidHash) {
+        return fmix64(indexHash * 0x9E3779B97F4A7C15L + uuidHash);
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // ================= MERGE CLI =================
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: UuidSketches <output-dir> <sketches.bin> [<sketches.bin> ...]");
+            System.exit(2);
+        }
+        File outDir = new File(args[0]);
+        outDir.mkdirs();
+        UuidSketches merged = read(new File(args[1]));
+        for (int i = 2; i < args.length; i++) merged.merge(read(new File(args[i])));
+        merged.writeReports(outDir);
+        System.out.println("Merged " + (args.length - 1) + " sketch files → " + outDir.getAbsolutePath());
+    }
+}
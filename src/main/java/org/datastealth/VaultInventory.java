@@ -0,0 +1,207 @@
+package org.datastealth;
+
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Metadata-only inventory of a vault: for every shard, RocksDB's own estimates (keys, live data,
+ * memtable size, files per level) plus SST and WAL bytes from the directory listing. Shards are
+ * opened read-only and never iterated, and folders and shards are visited on a thread pool, so
+ * thousands of shards take seconds rather than a full scan.
+ *
+ * <p>The shard CSV written by {@link #write} can be fed back with {@code INVENTORY_FILE}: the scans
+ * then know their record totals up front (ETA by records instead of by shard), and worker
+ * partitions are balanced by estimated keys instead of by hash.
+ */
+final class VaultInventory {
+
+    static final String SHARD_HEADER = "kind,folder,shard,path,estimated_keys,live_data_bytes,sst_bytes,sst_files,"
+            + "wal_bytes,memtable_bytes,level_files,open_ms,error";
+    static final String FOLDER_HEADER = "kind,folder,shards,estimated_keys,live_data_bytes,sst_bytes,wal_bytes";
+
+    static final class Shard {
+        final String kind;
+        final String folder;
+        final File dir;
+        long estimatedKeys;
+        long liveDataBytes;
+        long sstBytes;
+        int sstFiles;
+        long walBytes;
+        long memtableBytes;
+        final List<Integer> levelFiles = new ArrayList<>();
+        long openMs;
+        String error = "";
+
+        Shard(String kind, String folder, File dir) {
+            this.kind = kind;
+            this.folder = folder;
+            this.dir = dir;
+        }
+    }
+
+    /** Estimated keys by shard path, from a loaded inventory CSV. */
+    private final Map<String, Long> keys;
+    /** (kind, folder, shard name) per path, in file order, for partitioning. */
+    private final Map<String, String[]> names;
+
+    private VaultInventory(Map<String, Long> keys, Map<String, String[]> names) {
+        this.keys = keys;
+        this.names = names;
+    }
+
+    // ================= COLLECT =================
+    /**
+     * Inventories every shard under {@code folders} with {@code threads} workers. Failures are
+     * recorded in the shard's {@code error} column instead of failing the run.
+     */
+    static List<Shard> collect(String kind, List<File> folders, Options options, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "inventory");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<List<File>>> listings = new ArrayList<>();
+            for (File folder : folders) {
+                listings.add(pool.submit(() -> RocksDbFinalExporterOneCSVWithPropertiesFile.findRocksShards(new File(folder, "rocks"))));
+            }
+            List<Future<Shard>> inspected = new ArrayList<>();
+            for (int i = 0; i < folders.size(); i++) {
+                String folder = folders.get(i).getName();
+                for (File dir : listings.get(i).get()) {
+                    inspected.add(pool.submit(() -> inspect(new Shard(kind, folder, dir), options)));
+                }
+            }
+            List<Shard> out = new ArrayList<>(inspected.size());
+            for (Future<Shard> f : inspected) out.add(f.get());
+            return out;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Shard inspect(Shard s, Options options) {
+        File[] listing = s.dir.listFiles();
+        if (listing == null) {
+            // removed or unreadable since the folder was listed
+            s.error = "cannot list " + s.dir;
+            return s;
+        }
+        for (File f : listing) {
+            String name = f.getName();
+            if (name.endsWith(".sst")) {
+                s.sstBytes += f.length();
+                s.sstFiles++;
+            } else if (name.endsWith(".log")) {
+                s.walBytes += f.length();
+            }
+        }
+        long start = System.nanoTime();
+        try (RocksDB db = RocksDB.openReadOnly(options, s.dir.getAbsolutePath())) {
+            s.estimatedKeys = longProperty(db, "rocksdb.estimate-num-keys");
+            s.liveDataBytes = longProperty(db, "rocksdb.estimate-live-data-size");
+            s.memtableBytes = longProperty(db, "rocksdb.cur-size-all-mem-tables");
+            // the level count is the DB's own; the property is NotFound past the last level
+            for (int level = 0; level < 64; level++) {
+                String files;
+                try {
+                    files = db.getProperty("rocksdb.num-files-at-level" + level);
+                } catch (RocksDBException e) {
+                    break;
+                }
+                s.levelFiles.add(Integer.parseInt(files.trim()));
+            }
+        } catch (RocksDBException | RuntimeException e) {
+            s.error = String.valueOf(e.getMessage());
+        }
+        s.openMs = (System.nanoTime() - start) / 1_000_000;
+        return s;
+    }
+
+    private static long longProperty(RocksDB db, String name) throws RocksDBException {
+        return Long.parseLong(db.getProperty(name).trim());
+    }
+
+    // ================= OUTPUT =================
+    /** Writes one row per shard to {@code shardCsv} and per-folder totals to {@code folderCsv}. */
+    static void write(List<Shard> shards, File shardCsv, File folderCsv) throws IOException {
+        Map<String, long[]> folders = new LinkedHashMap<>();
+        try (CsvSink out = new CsvSink(shardCsv, 0, 1 << 20)) {
+            out.line(SHARD_HEADER);
+            for (Shard s : shards) {
+                StringBuilder levels = new StringBuilder();
+                for (int n : s.levelFiles) levels.append(levels.length() > 0 ? " " : "").append(n);
+                out.field(s.kind).field(s.folder).field(s.dir.getName()).field(s.dir.getAbsolutePath())
+                        .field(s.estimatedKeys).field(s.liveDataBytes).field(s.sstBytes).field(s.sstFiles)
+                        .field(s.walBytes).field(s.memtableBytes).field(levels).field(s.openMs).field(s.error);
+                out.endRow();
+
+                long[] t = folders.computeIfAbsent(s.kind + "," + s.folder, k -> new long[5]);
+                t[0]++;
+                t[1] += s.estimatedKeys;
+                t[2] += s.liveDataBytes;
+                t[3] += s.sstBytes;
+                t[4] += s.walBytes;
+            }
+        }
+        try (CsvSink out = new CsvSink(folderCsv, 0, 1 << 20)) {
+            out.line(FOLDER_HEADER);
+            for (Map.Entry<String, long[]> e : folders.entrySet()) {
+                int comma = e.getKey().indexOf(',');
+                out.field(e.getKey().substring(0, comma)).field(e.getKey().substring(comma + 1));
+                for (long v : e.getValue()) out.field(v);
+                out.endRow();
+            }
+        }
+    }
+
+    // ================= INPUT =================
+    /** Reads a shard CSV written by {@link #write}; rows whose shard failed to open are skipped. */
+    static VaultInventory load(File shardCsv) throws IOException {
+        Map<String, Long> keys = new HashMap<>();
+        Map<String, String[]> names = new LinkedHashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(shardCsv), StandardCharsets.UTF_8))) {
+            String header = in.readLine();
+            if (!SHARD_HEADER.equals(header)) throw new IllegalStateException(shardCsv + " is not a shard inventory: " + header);
+            for (String record = ResultDiff.readRecord(in); record != null; record = ResultDiff.readRecord(in)) {
+                List<String> f = ResultDiff.parse(record);
+                if (!f.get(12).isEmpty()) continue;
+                keys.put(f.get(3), Long.parseLong(f.get(4)));
+                names.put(f.get(3), new String[]{f.get(0), f.get(1), f.get(2)});
+            }
+        }
+        return new VaultInventory(keys, names);
+    }
+
+    boolean contains(File shard) {
+        return keys.containsKey(shard.getAbsolutePath());
+    }
+
+    /** Sum of the estimated keys of {@code shards}; shards missing from the inventory count as 0. */
+    long estimatedKeys(Collection<File> shards) {
+        long total = 0;
+        for (File s : shards) total += keys.getOrDefault(s.getAbsolutePath(), 0L);
+        return total;
+    }
+
+    /**
+     * Estimated keys per partition unit ({@code folder} or {@code folder/shard}) over the index
+     * shards, in inventory order.
+     */
+    Map<String, Long> indexUnits(boolean byShard) {
+        Map<String, Long> units = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> e : names.entrySet()) {
+            String[] n = e.getValue();
+            if (!n[0].equals("index")) continue;
+            units.merge(byShard ? n[1] + "/" + n[2] : n[1], keys.get(e.getKey()), Long::sum);
+        }
+        return units;
+    }
+}
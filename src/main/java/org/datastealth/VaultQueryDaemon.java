@@ -0,0 +1,599 @@
+package org.datastealth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.rocksdb.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-running lookup service over the same vault the exporter scans. It loads the cabinet IDs and
+ * an index-to-cabinet reference table once, then every {@code DAEMON_REFRESH_SECONDS} re-checks each
+ * shard's {@link ShardFingerprint} and rescans only shards that changed. Index shards keep the
+ * cabinets they reference by ID, not by position in the set, so a changed cabinet shard only
+ * rebuilds the set, which is then joined against the unchanged index tables. An unchanged index
+ * shard can still reference a cabinet added since its last scan, so once new cabinet IDs appear every
+ * index shard is rescanned, at most every {@code DAEMON_FULL_RESCAN_SECONDS}.
+ * Queries read an immutable snapshot that a refresh swaps in whole.
+ *
+ * <p>Endpoints, on {@code 127.0.0.1:DAEMON_PORT} unless {@code DAEMON_BIND} says otherwise:
+ * <pre>
+ *   GET  /cabinet/&lt;uuid&gt;   is it a cabinet, which folder, which indexes reference it and how often
+ *   GET  /status           snapshot size, age, refresh timings, last error
+ *   POST /refresh          refresh now instead of waiting for the next tick
+ * </pre>
+ *
+ * <p>Each index shard keeps the cabinets it references as (msb, lsb) pairs plus an {@code int} count,
+ * and the snapshot one {@code long} per (cabinet, index folder) pair plus a count.
+ * {@code DAEMON_MAX_REFERENCES} caps the shard entries held, the table of the shard being scanned
+ * included; a refresh that would exceed it fails and keeps serving the previous snapshot.
+ */
+public class VaultQueryDaemon {
+
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static String INDEX_BASE;
+    private static String CABINET_BASE;
+    private static String INDEX_PREFIX;
+    private static IndexValueDecoder VALUE_DECODER;
+    private static long MAX_REFERENCES;
+    private static long FULL_RESCAN_MS;
+    // read-only handles see a shard as of their open, so every scan opens its own; the options share one block cache
+    private static ShardHandleManager SHARDS;
+
+    // ================= STATE =================
+    /** Immutable view used by queries. */
+    private static final class Snapshot {
+        final CabinetIdSet cabinets;
+        final long[] refKeys;     // cabinet position << 32 | index folder id, ascending
+        final int[] refCounts;
+        final String[] indexNames;
+        final int cabinetShards;
+        final int indexShards;
+        final long builtAt = System.currentTimeMillis();
+
+        Snapshot(CabinetIdSet cabinets, long[] refKeys, int[] refCounts, String[] indexNames, int cabinetShards, int indexShards) {
+            this.cabinets = cabinets;
+            this.refKeys = refKeys;
+            this.refCounts = refCounts;
+            this.indexNames = indexNames;
+            this.cabinetShards = cabinetShards;
+            this.indexShards = indexShards;
+        }
+    }
+
+    private static final class CabinetShard {
+        final long fingerprint;
+        final String folder;
+        final long[] ids;          // msb, lsb pairs
+        final List<String> irregular;
+
+        CabinetShard(long fingerprint, String folder, long[] ids, List<String> irregular) {
+            this.fingerprint = fingerprint;
+            this.folder = folder;
+            this.ids = ids;
+            this.irregular = irregular;
+        }
+    }
+
+    private static final class IndexShard {
+        final long fingerprint;
+        final int indexId;
+        final long[] ids;          // msb, lsb pairs of the cabinets referenced, ascending, unique
+        final int[] counts;
+
+        IndexShard(long fingerprint, int indexId, long[] ids, int[] counts) {
+            this.fingerprint = fingerprint;
+            this.indexId = indexId;
+            this.ids = ids;
+            this.counts = counts;
+        }
+
+        int size() {
+            return counts.length;
+        }
+    }
+
+    private static volatile Snapshot SNAPSHOT;
+    private static volatile String LAST_ERROR;
+    private static volatile long LAST_REFRESH_MS;
+    private static volatile long LAST_CHECK_AT;
+    private static volatile int LAST_RESCANNED;
+    private static volatile long LAST_FULL_SCAN_AT;
+
+    // touched only by the refresh thread; they always describe the published snapshot, so a refresh works
+    // on copies and swaps them in only together with its snapshot
+    private static final Map<String, CabinetShard> CABINET_SHARDS = new HashMap<>();
+    private static final Map<String, IndexShard> INDEX_SHARDS = new HashMap<>();
+    private static final List<String> INDEX_NAMES = new ArrayList<>();
+    private static final Map<String, Integer> INDEX_IDS = new HashMap<>();
+    // the published set has cabinet IDs added since the last full index scan
+    private static boolean CABINETS_ADDED;
+
+    private static final ScanThrottle THROTTLE = ScanThrottle.get();
+    private static final LongAdder QUERIES = new LongAdder();
+    private static final LongAdder QUERY_NANOS = new LongAdder();
+
+    // ================= MAIN =================
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: VaultQueryDaemon <config.properties> [KEY=VALUE ...]");
+            System.exit(2);
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(args[0])) {
+            props.load(in);
+        }
+        WorkPartition.applyOverrides(props, args);
+
+        INDEX_BASE = require(props, "INDEX_BASE");
+        CABINET_BASE = require(props, "CABINET_BASE");
+        // only the primary prefix; extra INDEX_PREFIX entries are for the scan tools
+        INDEX_PREFIX = KeyPatterns.parse(props.getProperty("INDEX_PREFIX", "dbidxEntry")).get(0);
+        VALUE_DECODER = IndexValueDecoder.forName(props.getProperty("VALUE_DECODER", "window").trim().toLowerCase(),
+                IndexValueDecoder.fieldIds(props.getProperty("VALUE_THRIFT_FIELDS", "")));
+        MAX_REFERENCES = Long.parseLong(props.getProperty("DAEMON_MAX_REFERENCES", "100000000").trim());
+        FULL_RESCAN_MS = Long.parseLong(props.getProperty("DAEMON_FULL_RESCAN_SECONDS", "3600").trim()) * 1000;
+        SHARDS = new ShardHandleManager(
+                Long.parseLong(props.getProperty("SHARD_CACHE_MB", "256").trim()) * 1024 * 1024, 1, 0,
+                Integer.parseInt(props.getProperty("SHARD_MAX_OPEN_FILES", "-1").trim()));
+        int port = Integer.parseInt(props.getProperty("DAEMON_PORT", "8765").trim());
+        String bind = props.getProperty("DAEMON_BIND", "127.0.0.1").trim();
+        int refreshSeconds = Integer.parseInt(props.getProperty("DAEMON_REFRESH_SECONDS", "60").trim());
+        int threads = Integer.parseInt(props.getProperty("DAEMON_HTTP_THREADS", "4").trim());
+        THROTTLE.configure(props, Boolean.parseBoolean(props.getProperty("METRICS_JMX", "true").trim()));
+
+        RocksDB.loadLibrary();
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "daemon-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(bind, port), 64);
+        server.createContext("/cabinet/", VaultQueryDaemon::handleCabinet);
+        server.createContext("/status", ex -> respond(ex, 200, status()));
+        server.createContext("/refresh", ex -> {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                respond(ex, 405, "{\"error\":\"POST only\"}");
+                return;
+            }
+            refresher.execute(VaultQueryDaemon::refreshQuietly);
+            respond(ex, 202, "{\"refresh\":\"scheduled\"}");
+        });
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.start();
+        log("Listening on http://" + bind + ":" + port + " (refresh every " + refreshSeconds + "s)");
+
+        // queries get 503 until the first snapshot is published
+        refresher.scheduleWithFixedDelay(VaultQueryDaemon::refreshQuietly, 0, refreshSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            refresher.shutdownNow();
+        }));
+        Thread.currentThread().join();
+    }
+
+    private static String require(Properties p, String key) {
+        String v = p.getProperty(key);
+        if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException("Missing required config: " + key);
+        return v.trim();
+    }
+
+    // ================= REFRESH =================
+    private static void refreshQuietly() {
+        try {
+            refresh();
+            LAST_ERROR = null;
+        } catch (Throwable t) {
+            LAST_ERROR = t.toString();
+            log("Refresh failed, keeping previous snapshot: " + t);
+        }
+    }
+
+    private static void refresh() throws Exception {
+        long start = System.currentTimeMillis();
+        Snapshot current = SNAPSHOT;
+        int rescanned = 0;
+
+        // cabinets: rescan changed shards, rebuild the set only if anything changed
+        Map<String, File> cabinetShards = listShards(CABINET_BASE);
+        Map<String, CabinetShard> cabinetTables = new HashMap<>(CABINET_SHARDS);
+        boolean cabinetsChanged = current == null || !cabinetTables.keySet().equals(cabinetShards.keySet());
+        for (Map.Entry<String, File> e : cabinetShards.entrySet()) {
+            long fp = ShardFingerprint.of(e.getValue());
+            CabinetShard cached = cabinetTables.get(e.getKey());
+            if (cached != null && cached.fingerprint == fp) continue;
+            cabinetTables.put(e.getKey(), scanCabinetShard(e.getValue(), fp));
+            cabinetsChanged = true;
+            rescanned++;
+        }
+        cabinetTables.keySet().retainAll(cabinetShards.keySet());
+
+        CabinetIdSet cabinets;
+        if (cabinetsChanged) {
+            cabinets = new CabinetIdSet();
+            for (String path : cabinetShards.keySet()) {
+                CabinetShard s = cabinetTables.get(path);
+                for (int i = 0; i < s.ids.length; i += 2) cabinets.add(s.ids[i], s.ids[i + 1], s.folder);
+                for (String id : s.irregular) cabinets.add(id, s.folder);
+            }
+            cabinets.seal();
+        } else {
+            cabinets = current.cabinets;
+        }
+
+        // new cabinets may already be referenced from unchanged index shards; those are rescanned, but only
+        // every DAEMON_FULL_RESCAN_SECONDS, since a live vault adds cabinets all the time
+        boolean added = CABINETS_ADDED || current != null && cabinetsChanged && addsIds(cabinets, current.cabinets);
+        boolean full = current == null || added && System.currentTimeMillis() - LAST_FULL_SCAN_AT >= FULL_RESCAN_MS;
+
+        // indexes: rescan changed shards; the others' tables name cabinets by ID, so they stay valid
+        Map<String, File> indexShards = listShards(INDEX_BASE);
+        Map<String, IndexShard> indexTables = full ? new HashMap<>() : new HashMap<>(INDEX_SHARDS);
+        boolean indexesChanged = cabinetsChanged || full || !indexTables.keySet().equals(indexShards.keySet());
+        indexTables.keySet().retainAll(indexShards.keySet());
+        Map<String, Long> changed = new LinkedHashMap<>();
+        long held = 0;
+        for (Map.Entry<String, File> e : indexShards.entrySet()) {
+            long fp = ShardFingerprint.of(e.getValue());
+            IndexShard cached = indexTables.get(e.getKey());
+            if (cached != null && cached.fingerprint == fp) {
+                held += cached.size();
+            } else {
+                indexTables.remove(e.getKey());
+                changed.put(e.getKey(), fp);
+            }
+        }
+        for (Map.Entry<String, Long> e : changed.entrySet()) {
+            // each scan may only fill what the kept tables leave of DAEMON_MAX_REFERENCES
+            IndexShard table = scanIndexShard(indexShards.get(e.getKey()), e.getValue(), cabinets, MAX_REFERENCES - held);
+            indexTables.put(e.getKey(), table);
+            held += table.size();
+            indexesChanged = true;
+            rescanned++;
+        }
+
+        LAST_CHECK_AT = System.currentTimeMillis();
+        if (!indexesChanged) return;
+
+        // a failure up to here leaves the tables of the published snapshot untouched
+        Snapshot next = mergeReferences(indexTables.values(), cabinets, cabinetShards.size(), indexShards.size());
+        CABINET_SHARDS.clear();
+        CABINET_SHARDS.putAll(cabinetTables);
+        INDEX_SHARDS.clear();
+        INDEX_SHARDS.putAll(indexTables);
+        CABINETS_ADDED = added && !full;
+        SNAPSHOT = next;
+        if (full) LAST_FULL_SCAN_AT = start;
+        LAST_REFRESH_MS = System.currentTimeMillis() - start;
+        LAST_RESCANNED = rescanned;
+        log("Snapshot published: " + cabinets.size() + " cabinets, " + next.refKeys.length + " references, "
+                + rescanned + " shards rescanned" + (full ? " (full)" : CABINETS_ADDED ? " (new cabinets await the full rescan)" : "")
+                + " in " + LAST_REFRESH_MS + "ms");
+    }
+
+    /** Whether {@code next} holds a canonical cabinet ID that {@code previous} does not. */
+    private static boolean addsIds(CabinetIdSet next, CabinetIdSet previous) {
+        for (int i = 0; i < next.records(); i++) {
+            if (previous.find(next.msbAt(i), next.lsbAt(i)) < 0) return true;
+        }
+        return false;
+    }
+
+    /** Shards keyed by path, in the same folder order the exporter scans them. */
+    private static Map<String, File> listShards(String base) {
+        Map<String, File> out = new LinkedHashMap<>();
+        for (File folder : RocksDbFinalExporterOneCSVWithPropertiesFile.findFolders(new File(base))) {
+            for (File shard : RocksDbFinalExporterOneCSVWithPropertiesFile.findRocksShards(new File(folder, "rocks"))) {
+                out.put(shard.getAbsolutePath(), shard);
+            }
+        }
+        return out;
+    }
+
+    private static CabinetShard scanCabinetShard(File shard, long fingerprint) throws Exception {
+        RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto =
+                RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(shard.getName());
+        long[] ids = new long[1024];
+        int n = 0;
+        List<String> irregular = new ArrayList<>();
+        try (RocksDB db = RocksDB.openReadOnly(SHARDS.options(), shard.getAbsolutePath());
+             RocksIterator it = db.newIterator()) {
+            for (it.seekToFirst(); it.isValid(); it.next()) {
+                byte[] rawKey = it.key();
+                THROTTLE.acquire(rawKey.length, 0);
+                String uuid = RocksDbFinalExporterOneCSVWithPropertiesFile.bytesToUuidIfPossible(
+                        RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(rawKey, crypto));
+                if (uuid == null) continue;
+                uuid = uuid.toLowerCase();
+                if (!CabinetIdSet.isCanonical(uuid)) {
+                    irregular.add(uuid);
+                    continue;
+                }
+                if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+                ids[n++] = CabinetIdSet.msb(uuid);
+                ids[n++] = CabinetIdSet.lsb(uuid);
+            }
+        }
+        return new CabinetShard(fingerprint, shard.getParentFile().getParentFile().getName(), Arrays.copyOf(ids, n), irregular);
+    }
+
+    /** Cabinets an index shard references, by ID; more than {@code budget} distinct ones fail the refresh. */
+    private static IndexShard scanIndexShard(File shard, long fingerprint, CabinetIdSet cabinets, long budget)
+            throws Exception {
+        String folder = shard.getParentFile().getParentFile().getName();
+        Integer indexId = INDEX_IDS.get(folder);
+        if (indexId == null) {
+            indexId = INDEX_NAMES.size();
+            INDEX_NAMES.add(folder);
+            INDEX_IDS.put(folder, indexId);
+        }
+        RocksDbFinalExporterOneCSVWithPropertiesFile.Crypto crypto =
+                RocksDbFinalExporterOneCSVWithPropertiesFile.getCrypto(shard.getName());
+
+        References references = new References(shard, budget);
+        try (RocksDB db = RocksDB.openReadOnly(SHARDS.options(), shard.getAbsolutePath());
+             RocksIterator it = db.newIterator()) {
+            for (it.seekToFirst(); it.isValid(); it.next()) {
+                byte[] rawKey = it.key();
+                byte[] rawValue = it.value();
+                THROTTLE.acquire(rawKey.length + rawValue.length, 0);
+                String keyStr = RocksDbFinalExporterOneCSVWithPropertiesFile.safeUtf8(
+                        RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(rawKey, crypto));
+                if (!keyStr.contains(INDEX_PREFIX)) continue;
+                byte[] value = RocksDbFinalExporterOneCSVWithPropertiesFile.decrypt(rawValue, crypto);
+                for (String u : VALUE_DECODER.cabinetRefs(value)) {
+                    // irregular cabinets (pos -1) have no position to key on and are answered without references
+                    if (cabinets.find(u) >= 0) references.add(CabinetIdSet.msb(u), CabinetIdSet.lsb(u));
+                }
+            }
+        }
+        return references.toShard(fingerprint, indexId);
+    }
+
+    /**
+     * (msb, lsb, count) table of one shard while it is scanned. When full it is sorted and merged in
+     * place, and grows only while more than half of it is distinct cabinets, never past its budget.
+     */
+    private static final class References {
+        private final File shard;
+        private final long limit;
+        private long[] ids;
+        private int[] counts;
+        private int n;
+
+        References(File shard, long budget) {
+            this.shard = shard;
+            this.limit = Math.min(budget, (Integer.MAX_VALUE - 8) / 2);
+            counts = new int[(int) Math.max(0, Math.min(1024, limit))];
+            ids = new long[2 * counts.length];
+        }
+
+        void add(long m, long l) {
+            if (n == counts.length) {
+                compact();
+                if (n == counts.length || n > counts.length / 2 && counts.length < limit) grow();
+            }
+            ids[2 * n] = m;
+            ids[2 * n + 1] = l;
+            counts[n++] = 1;
+        }
+
+        IndexShard toShard(long fingerprint, int indexId) {
+            compact();
+            return new IndexShard(fingerprint, indexId, Arrays.copyOf(ids, 2 * n), Arrays.copyOf(counts, n));
+        }
+
+        private void grow() {
+            if (counts.length >= limit) throw new IllegalStateException("DAEMON_MAX_REFERENCES exceeded in " + shard);
+            int capacity = (int) Math.min(limit, Math.max(1024L, 2L * counts.length));
+            counts = Arrays.copyOf(counts, capacity);
+            ids = Arrays.copyOf(ids, 2 * capacity);
+        }
+
+        private void compact() {
+            sort(0, n - 1);
+            int u = 0;
+            for (int i = 0; i < n; i++) {
+                if (u > 0 && ids[2 * u - 2] == ids[2 * i] && ids[2 * u - 1] == ids[2 * i + 1]) {
+                    counts[u - 1] += counts[i];
+                } else {
+                    ids[2 * u] = ids[2 * i];
+                    ids[2 * u + 1] = ids[2 * i + 1];
+                    counts[u++] = counts[i];
+                }
+            }
+            n = u;
+        }
+
+        /** Quicksort by unsigned (msb, lsb), the order of {@link CabinetIdSet} positions. */
+        private void sort(int lo, int hi) {
+            while (hi - lo > 16) {
+                int mid = (lo + hi) >>> 1;
+                long pm = ids[2 * mid], pl = ids[2 * mid + 1];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (cmp(i, pm, pl) < 0) i++;
+                    while (cmp(j, pm, pl) > 0) j--;
+                    if (i <= j) swap(i++, j--);
+                }
+                // recurse into the smaller half to bound stack depth
+                if (j - lo < hi - i) {
+                    sort(lo, j);
+                    lo = i;
+                } else {
+                    sort(i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && cmp(j - 1, ids[2 * j], ids[2 * j + 1]) > 0; j--) swap(j - 1, j);
+            }
+        }
+
+        private int cmp(int i, long m, long l) {
+            int c = Long.compareUnsigned(ids[2 * i], m);
+            return c != 0 ? c : Long.compareUnsigned(ids[2 * i + 1], l);
+        }
+
+        private void swap(int a, int b) {
+            long t = ids[2 * a]; ids[2 * a] = ids[2 * b]; ids[2 * b] = t;
+            t = ids[2 * a + 1]; ids[2 * a + 1] = ids[2 * b + 1]; ids[2 * b + 1] = t;
+            int c = counts[a]; counts[a] = counts[b]; counts[b] = c;
+        }
+    }
+
+    /**
+     * Joins every shard's table against {@code cabinets}, dropping cabinets that are gone, then k-way
+     * merges the results; shards of one index folder can share cabinets, so counts add up. Tables ascend
+     * by ID and set positions ascend with the ID, so each shard's joined keys come out sorted.
+     */
+    private static Snapshot mergeReferences(Collection<IndexShard> indexTables, CabinetIdSet cabinets,
+                                            int cabinetShards, int indexShards) {
+        List<long[]> shardKeys = new ArrayList<>(indexTables.size());
+        List<int[]> shardCounts = new ArrayList<>(indexTables.size());
+        long total = 0;
+        for (IndexShard s : indexTables) {
+            long[] keys = new long[s.size()];
+            int[] counts = new int[s.size()];
+            int m = 0;
+            for (int i = 0; i < s.size(); i++) {
+                int pos = cabinets.find(s.ids[2 * i], s.ids[2 * i + 1]);
+                if (pos < 0) continue;
+                keys[m] = (long) pos << 32 | s.indexId;
+                counts[m++] = s.counts[i];
+            }
+            if (m == 0) continue;
+            shardKeys.add(Arrays.copyOf(keys, m));
+            shardCounts.add(Arrays.copyOf(counts, m));
+            total += m;
+        }
+
+        long[] keys = new long[(int) total];
+        int[] counts = new int[(int) total];
+        int[] cursor = new int[shardKeys.size()];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, shardKeys.size()),
+                Comparator.comparingLong(i -> shardKeys.get(i)[cursor[i]]));
+        for (int i = 0; i < shardKeys.size(); i++) heap.add(i);
+        int n = 0;
+        while (!heap.isEmpty()) {
+            int i = heap.poll();
+            long key = shardKeys.get(i)[cursor[i]];
+            int count = shardCounts.get(i)[cursor[i]];
+            if (n > 0 && keys[n - 1] == key) {
+                counts[n - 1] += count;
+            } else {
+                keys[n] = key;
+                counts[n++] = count;
+            }
+            if (++cursor[i] < shardKeys.get(i).length) heap.add(i);
+        }
+        return new Snapshot(cabinets, Arrays.copyOf(keys, n), Arrays.copyOf(counts, n),
+                INDEX_NAMES.toArray(new String[0]), cabinetShards, indexShards);
+    }
+
+    // ================= QUERIES =================
+    private static void handleCabinet(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        Snapshot s = SNAPSHOT;
+        if (s == null) {
+            respond(ex, 503, "{\"error\":\"initial load in progress\"}");
+            return;
+        }
+        String uuid = ex.getRequestURI().getPath().substring("/cabinet/".length()).trim();
+        String body = lookup(s, uuid);
+        QUERIES.increment();
+        QUERY_NANOS.add(System.nanoTime() - start);
+        respond(ex, 200, body);
+    }
+
+    private static String lookup(Snapshot s, String uuid) {
+        StringBuilder sb = new StringBuilder(128).append("{\"uuid\":").append(json(uuid));
+        int pos = s.cabinets.find(uuid);
+        if (pos == Integer.MIN_VALUE) {
+            return sb.append(",\"cabinet\":false}").toString();
+        }
+        sb.append(",\"cabinet\":true,\"folder\":").append(json(s.cabinets.folderOf(uuid)));
+        if (pos < 0) return sb.append(",\"references\":null}").toString();
+
+        // first key >= pos << 32
+        long lowKey = (long) pos << 32;
+        int lo = 0, hi = s.refKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (s.refKeys[mid] < lowKey) lo = mid + 1;
+            else hi = mid;
+        }
+        long references = 0;
+        StringBuilder indexes = new StringBuilder("[");
+        for (int i = lo; i < s.refKeys.length && (s.refKeys[i] >>> 32) == pos; i++) {
+            if (indexes.length() > 1) indexes.append(',');
+            indexes.append("{\"index\":").append(json(s.indexNames[(int) s.refKeys[i]]))
+                    .append(",\"count\":").append(s.refCounts[i]).append('}');
+            references += s.refCounts[i];
+        }
+        return sb.append(",\"referenced\":").append(references > 0)
+                .append(",\"references\":").append(references)
+                .append(",\"indexes\":").append(indexes).append("]}").toString();
+    }
+
+    private static String status() {
+        Snapshot s = SNAPSHOT;
+        Runtime rt = Runtime.getRuntime();
+        long q = QUERIES.sum();
+        StringBuilder sb = new StringBuilder("{\"ready\":").append(s != null);
+        if (s != null) {
+            sb.append(",\"cabinets\":").append(s.cabinets.size())
+                    .append(",\"references\":").append(s.refKeys.length)
+                    .append(",\"cabinetShards\":").append(s.cabinetShards)
+                    .append(",\"indexShards\":").append(s.indexShards)
+                    .append(",\"snapshotAgeSeconds\":").append((System.currentTimeMillis() - s.builtAt) / 1000);
+        }
+        sb.append(",\"lastRefreshMs\":").append(LAST_REFRESH_MS)
+                .append(",\"lastRescannedShards\":").append(LAST_RESCANNED)
+                .append(",\"lastFullScanAgeSeconds\":").append(LAST_FULL_SCAN_AT == 0 ? -1 : (System.currentTimeMillis() - LAST_FULL_SCAN_AT) / 1000)
+                .append(",\"lastCheckAgeSeconds\":").append(LAST_CHECK_AT == 0 ? -1 : (System.currentTimeMillis() - LAST_CHECK_AT) / 1000)
+                .append(",\"lastError\":").append(LAST_ERROR == null ? "null" : json(LAST_ERROR))
+                .append(",\"queries\":").append(q)
+                .append(",\"avgQueryMicros\":").append(q == 0 ? 0 : QUERY_NANOS.sum() / q / 1000)
+                .append(",\"heapUsedMb\":").append((rt.totalMemory() - rt.freeMemory()) >> 20)
+                .append(",\"heapMaxMb\":").append(rt.maxMemory() >> 20)
+                .append('}');
+        return sb.toString();
+    }
+
+    private static void respond(HttpExchange ex, int code, String body) throws IOException {
+        byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void log(String message) {
+        System.out.println("[" + LocalDateTime.now().format(LOG_FORMAT) + "] " + message);
+    }
+}
@@ -0,0 +1,141 @@
+package org.datastealth;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Deterministic split of index shards across {@code WORKER_COUNT} processes. A shard belongs to
+ * worker {@code hash(folder) mod count} (or {@code hash(folder/shard)} with
+ * {@code PARTITION_BY=shard}), so every worker computes the same assignment from the directory
+ * listing alone. Worker outputs are named {@code <base>.part-<i>-of-<n>.<ext>} and combined by the
+ * tool's coordinator run ({@code MERGE_WORKERS=true}).
+ *
+ * <p>With a {@link VaultInventory} ({@code INVENTORY_FILE}) the units it lists are instead assigned
+ * largest first to the least-loaded worker by estimated keys, which is just as deterministic as long
+ * as every worker reads the same file; units added since the inventory still go by hash.
+ *
+ * <p>Trailing {@code KEY=VALUE} command-line arguments override the properties file, so one file
+ * can drive all local workers: {@code java ... rocks.properties WORKER_INDEX=2 WORKER_COUNT=4}.
+ */
+public final class WorkPartition {
+
+    public final int index;
+    public final int count;
+    public final boolean byShard;
+    public final boolean coordinator;
+    private final Map<String, Integer> assigned;
+
+    private WorkPartition(int index, int count, boolean byShard, boolean coordinator) {
+        this(index, count, byShard, coordinator, Collections.<String, Integer>emptyMap());
+    }
+
+    private WorkPartition(int index, int count, boolean byShard, boolean coordinator, Map<String, Integer> assigned) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("WORKER_INDEX must be in [0, WORKER_COUNT): " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+        this.byShard = byShard;
+        this.coordinator = coordinator;
+        this.assigned = assigned;
+    }
+
+    public static WorkPartition from(Properties props) {
+        String by = props.getProperty("PARTITION_BY", "folder").trim().toLowerCase();
+        if (!by.equals("folder") && !by.equals("shard")) throw new IllegalArgumentException("PARTITION_BY must be folder or shard: " + by);
+        return new WorkPartition(
+                Integer.parseInt(props.getProperty("WORKER_INDEX", "0").trim()),
+                Integer.parseInt(props.getProperty("WORKER_COUNT", "1").trim()),
+                by.equals("shard"),
+                Boolean.parseBoolean(props.getProperty("MERGE_WORKERS", "false").trim()));
+    }
+
+    /** This partition with the inventory's units balanced across workers by estimated keys. */
+    WorkPartition balancedBy(VaultInventory inventory) {
+        if (count == 1) return this;
+        List<Map.Entry<String, Long>> units = new ArrayList<>(inventory.indexUnits(byShard).entrySet());
+        // largest first, ties by name, so every worker sorts the same way
+        units.sort((a, b) -> {
+            int c = Long.compare(b.getValue(), a.getValue());
+            return c != 0 ? c : a.getKey().compareTo(b.getKey());
+        });
+        long[] load = new long[count];
+        Map<String, Integer> assigned = new HashMap<>();
+        for (Map.Entry<String, Long> unit : units) {
+            int w = 0;
+            for (int i = 1; i < count; i++) if (load[i] < load[w]) w = i;
+            load[w] += unit.getValue();
+            assigned.put(unit.getKey(), w);
+        }
+        return new WorkPartition(index, count, byShard, coordinator, assigned);
+    }
+
+    /** Applies {@code KEY=VALUE} arguments (after the config path) on top of the properties file. */
+    public static void applyOverrides(Properties props, String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Expected KEY=VALUE argument: " + args[i]);
+            props.setProperty(args[i].substring(0, eq).trim(), args[i].substring(eq + 1).trim());
+        }
+    }
+
+    /** True when this process is one of several workers (not the coordinator, not a single run). */
+    public boolean isWorker() {
+        return count > 1 && !coordinator;
+    }
+
+    /** {@code shard} is {@code <folder>/rocks/<device-uuid>}. */
+    public boolean claims(File shard) {
+        if (count == 1 || coordinator) return true;
+        String folder = shard.getParentFile().getParentFile().getName();
+        String key = byShard ? folder + "/" + shard.getName() : folder;
+        Integer worker = assigned.get(key);
+        if (worker != null) return worker == index;
+        return Math.floorMod(hash(key), (long) count) == index;
+    }
+
+    public String partName(String base, String ext) {
+        return partName(base, ext, index);
+    }
+
+    public String partName(String base, String ext, int worker) {
+        return String.format("%s.part-%04d-of-%04d%s", base, worker, count, ext);
+    }
+
+    /** All parts {@code 0..count-1} in {@code dir}; fails listing every missing one. */
+    public List<File> parts(File dir, String base, String ext) {
+        List<File> parts = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (int w = 0; w < count; w++) {
+            File f = new File(dir, partName(base, ext, w));
+            if (f.exists()) parts.add(f);
+            else missing.add(f.getName());
+        }
+        if (!missing.isEmpty()) throw new IllegalStateException("Missing worker outputs in " + dir + ": " + missing);
+        return parts;
+    }
+
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return coordinator ? "coordinator for " + count + " workers" : "worker " + index + "/" + count + (byShard ? " (by shard)" : " (by folder)")
+                + (assigned.isEmpty() ? "" : ", balanced by inventory");
+    }
+}
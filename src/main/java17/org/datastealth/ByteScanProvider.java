@@ -0,0 +1,22 @@
+package org.datastealth;
+
+/**
+ * Picks the {@link ByteScan} implementation. This is the Java 17 version from the multi-release jar:
+ * it uses {@link VectorByteScan} when the JVM was started with {@code --add-modules jdk.incubator.vector}
+ * and has vectors of at least 128 bits, and the scalar scanner otherwise.
+ */
+final class ByteScanProvider {
+
+    private ByteScanProvider() {
+    }
+
+    static ByteScan create() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return new ByteScan();
+        try {
+            if (VectorByteScan.usable()) return new VectorByteScan();
+        } catch (LinkageError e) {
+            // module present but unusable on this platform
+        }
+        return new ByteScan();
+    }
+}
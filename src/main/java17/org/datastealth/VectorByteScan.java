@@ -0,0 +1,147 @@
+package org.datastealth;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link ByteScan} on the Vector API. Bytes are classified a vector at a time and gathered into a
+ * 64-bit mask per 64-byte chunk, one bit per byte that ends a run. A chunk without such a byte is
+ * skipped whole; otherwise bit arithmetic finds the runs ending in it, and only chunks that may hold
+ * a long enough run between two of its own breakers fall back to walking the bits. Buffers under two
+ * chunks (most keys) go to the scalar loop.
+ */
+final class VectorByteScan extends ByteScan {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.length() <= 64
+            ? ByteVector.SPECIES_PREFERRED : ByteVector.SPECIES_512;
+    private static final int LANES = SPECIES.length();
+    private static final int CHUNK = 64;
+
+    /** Narrower vectors than this are no faster than the scalar loop. */
+    static boolean usable() {
+        return LANES >= 16;
+    }
+
+    @Override
+    String name() {
+        return "vector (" + LANES * 8 + "-bit)";
+    }
+
+    @Override
+    String utf8WithoutNul(byte[] b) {
+        int bound = SPECIES.loopBound(b.length);
+        int nuls = 0;
+        int i = 0;
+        for (; i < bound; i += LANES) nuls += ByteVector.fromArray(SPECIES, b, i).eq((byte) 0).trueCount();
+        for (; i < b.length; i++) if (b[i] == 0) nuls++;
+        if (nuls == 0) return new String(b, StandardCharsets.UTF_8);
+
+        // a vector without NULs is copied as a whole, one with NULs byte by byte
+        byte[] cleaned = new byte[b.length - nuls];
+        int j = 0;
+        for (i = 0; i < bound && j + LANES <= cleaned.length; i += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, b, i);
+            if (!v.eq((byte) 0).anyTrue()) {
+                v.intoArray(cleaned, j);
+                j += LANES;
+            } else {
+                for (int k = i; k < i + LANES; k++) if (b[k] != 0) cleaned[j++] = b[k];
+            }
+        }
+        for (; i < b.length; i++) if (b[i] != 0) cleaned[j++] = b[i];
+        return new String(cleaned, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    int[] hexRuns(byte[] b, int minLen) {
+        // a key-sized buffer is one chunk plus a tail; measured, the scalar loop wins there
+        if (b.length < 2 * CHUNK) return super.hexRuns(b, minLen);
+        Runs runs = new Runs(b, minLen);
+        int spanStart = 0; // first byte after the last breaker
+        int base = 0;
+        for (; base + CHUNK <= b.length; base += CHUNK) {
+            long brk = breakers(b, base);
+            if (brk == 0) continue;
+
+            int first = Long.numberOfTrailingZeros(brk);
+            int last = 63 - Long.numberOfLeadingZeros(brk);
+            runs.span(spanStart, base + first);
+            if (first < last && mayHoldRun(~brk & (-1L << first + 1) & ((1L << last) - 1), minLen)) {
+                for (long rest = brk & brk - 1; rest != 0; rest &= rest - 1) {
+                    int at = Long.numberOfTrailingZeros(rest);
+                    runs.span(base + first + 1, base + at);
+                    first = at;
+                }
+            }
+            spanStart = base + last + 1;
+        }
+        for (int i = base; i < b.length; i++) {
+            if (isBreaker(b[i])) {
+                runs.span(spanStart, i);
+                spanStart = i + 1;
+            }
+        }
+        runs.span(spanStart, b.length);
+        return runs.toArray();
+    }
+
+    /** Bit {@code j} set if {@code b[base + j]} is neither a hex digit, a dash nor NUL. */
+    private static long breakers(byte[] b, int base) {
+        long brk = 0;
+        for (int k = 0; k < CHUNK; k += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, b, base + k);
+            ByteVector lower = v.or((byte) 0x20);
+            VectorMask<Byte> ok = v.compare(VectorOperators.GE, (byte) '0').and(v.compare(VectorOperators.LE, (byte) '9'))
+                    .or(lower.compare(VectorOperators.GE, (byte) 'a').and(lower.compare(VectorOperators.LE, (byte) 'f')))
+                    .or(v.eq((byte) '-'))
+                    .or(v.eq((byte) 0));
+            brk |= ok.not().toLong() << k;
+        }
+        return brk;
+    }
+
+    /** Whether {@code free} has {@code minLen} consecutive set bits. */
+    private static boolean mayHoldRun(long free, int minLen) {
+        if (minLen > 62) return false;
+        for (int k = 1; k < minLen && free != 0; ) {
+            int s = Math.min(k, minLen - k);
+            free &= free >>> s;
+            k += s;
+        }
+        return free != 0;
+    }
+
+    private static boolean isBreaker(byte c) {
+        return c != 0 && c != '-' && !(c >= '0' && c <= '9') && !((c | 0x20) >= 'a' && (c | 0x20) <= 'f');
+    }
+
+    /** Collects spans between breakers that hold at least {@code minLen} hex digits and dashes. */
+    private static final class Runs {
+        private final byte[] b;
+        private final int minLen;
+        private int[] runs = NO_RUNS;
+        private int n;
+
+        Runs(byte[] b, int minLen) {
+            this.b = b;
+            this.minLen = minLen;
+        }
+
+        void span(int start, int end) {
+            // a span counts its NULs too, so a short one cannot be a run
+            if (end - start < minLen || countHexOrDash(b, start, end) < minLen) return;
+            if (n == runs.length) runs = Arrays.copyOf(runs, Math.max(4, n * 2));
+            runs[n++] = start;
+            runs[n++] = end;
+        }
+
+        int[] toArray() {
+            return n == runs.length ? runs : Arrays.copyOf(runs, n);
+        }
+    }
+}
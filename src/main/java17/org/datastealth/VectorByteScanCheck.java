@@ -0,0 +1,92 @@
+package org.datastealth;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares {@link VectorByteScan} with the scalar {@link ByteScan} on generated buffers and fails on
+ * the first difference. The {@code java17-vector} profile runs it in the {@code verify} phase, so
+ * every JDK 17 build checks that both give identical results. Buffers are long enough for the vector
+ * path (two chunks or more) and hold hex runs that cross the 64-byte chunk edges, with NULs inside
+ * them. Minimum lengths include the 32 and 36 the tools use, and values past 62, where a run no
+ * longer fits between two breakers of one chunk.
+ */
+final class VectorByteScanCheck {
+
+    private static final byte[] RUN_CHARS = "0123456789abcdefABCDEF-".getBytes();
+    private static final int[] MIN_LENGTHS = {1, 32, 36, 62, 63, 64, 65, 100, 200};
+    private static final int CHUNK = 64;
+
+    private VectorByteScanCheck() {
+    }
+
+    public static void main(String[] args) {
+        int buffers = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        ByteScan vector = new VectorByteScan();
+        ByteScan scalar = ByteScan.scalar();
+        Random rnd = new Random(seed);
+        long runs = 0;
+        for (int i = 0; i < buffers; i++) {
+            byte[] b = buffer(rnd);
+            if (!vector.utf8WithoutNul(b).equals(scalar.utf8WithoutNul(b))) {
+                throw new IllegalStateException("utf8WithoutNul differs on " + Arrays.toString(b));
+            }
+            for (int minLen : MIN_LENGTHS) {
+                int[] expected = scalar.hexRuns(b, minLen);
+                int[] actual = vector.hexRuns(b, minLen);
+                if (!Arrays.equals(actual, expected)) {
+                    throw new IllegalStateException("hexRuns(minLen " + minLen + ") differs: " + Arrays.toString(actual)
+                            + " instead of " + Arrays.toString(expected) + " on " + Arrays.toString(b));
+                }
+                runs += expected.length / 2;
+            }
+        }
+        System.out.println(vector.name() + " matches scalar on " + buffers + " buffers (" + runs + " runs, seed " + seed + ")");
+    }
+
+    /** 128 to 639 random bytes with a few hex runs laid over them, most of them across a chunk edge. */
+    private static byte[] buffer(Random rnd) {
+        byte[] b = new byte[2 * CHUNK + rnd.nextInt(8 * CHUNK)];
+        switch (rnd.nextInt(8)) {
+            case 0:
+                // no breaker at all: one run over the whole buffer
+                fillRun(rnd, b, 0, b.length);
+                return b;
+            case 1:
+                // breakers everywhere else, so only the runs laid below count
+                Arrays.fill(b, (byte) 'x');
+                break;
+            default:
+                rnd.nextBytes(b);
+        }
+        for (int runs = 1 + rnd.nextInt(6); runs > 0; runs--) {
+            int len = length(rnd, b.length);
+            int start;
+            if (rnd.nextInt(4) == 0) {
+                start = rnd.nextInt(b.length - len + 1);
+            } else {
+                // straddle a chunk edge, by up to the whole run on either side
+                int edge = CHUNK * (1 + rnd.nextInt(b.length / CHUNK));
+                start = Math.max(0, Math.min(b.length - len, edge - rnd.nextInt(len + 1)));
+            }
+            fillRun(rnd, b, start, start + len);
+            // a breaker right after the run, or another run right behind it
+            if (start + len < b.length && rnd.nextBoolean()) b[start + len] = (byte) (rnd.nextBoolean() ? 'g' : ' ');
+        }
+        return b;
+    }
+
+    /** Lengths around each minimum length, so runs land just under, at and just over it. */
+    private static int length(Random rnd, int max) {
+        int around = MIN_LENGTHS[rnd.nextInt(MIN_LENGTHS.length)];
+        return Math.max(1, Math.min(max, around - 3 + rnd.nextInt(7)));
+    }
+
+    private static void fillRun(Random rnd, byte[] b, int from, int to) {
+        int nulRate = rnd.nextInt(3) == 0 ? 0 : 2 + rnd.nextInt(14);
+        for (int i = from; i < to; i++) {
+            b[i] = nulRate > 0 && rnd.nextInt(nulRate) == 0 ? 0 : RUN_CHARS[rnd.nextInt(RUN_CHARS.length)];
+        }
+    }
+}